@@ -1,6 +1,8 @@
 package tablut;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * A Player that automatically generates moves.
@@ -23,6 +25,11 @@ class AI extends Player {
      * A magnitude greater than a normal value.
      */
     private static final int INFTY = Integer.MAX_VALUE;
+    /**
+     * Fewest games in which a book move must have been played for me to
+     * play it without searching.
+     */
+    static final int MIN_BOOK_GAMES = 4;
 
     /**
      * A new AI with no piece or controller (intended to produce
@@ -32,6 +39,15 @@ class AI extends Player {
         this(null, null);
     }
 
+    /**
+     * A new AI template whose players evaluate positions with EVALUATION
+     * rather than by counting pieces.
+     */
+    AI(Evaluation evaluation) {
+        this(null, null);
+        _evaluation = evaluation;
+    }
+
     /**
      * A new AI playing PIECE under control of CONTROLLER.
      */
@@ -41,7 +57,9 @@ class AI extends Player {
 
     @Override
     Player create(Piece piece, Controller controller) {
-        return new AI(piece, controller);
+        AI player = new AI(piece, controller);
+        player._evaluation = _evaluation;
+        return player;
     }
 
     @Override
@@ -50,11 +68,107 @@ class AI extends Player {
         if (board().turn() != _myPiece || board().winner() != null) {
             return null;
         }
-        Move theMove = findMove();
+        Move theMove = bookMove();
+        if (theMove == null) {
+            Thread solving = startSolver();
+            theMove = findMove();
+            Move proved = finishSolver(solving);
+            if (proved != null) {
+                theMove = proved;
+            }
+            if (_controller.searchCancelled()) {
+                return null;
+            }
+            _controller.reportStats(_stats);
+        }
         _controller.reportMove(theMove);
         return theMove.toString();
     }
 
+    /**
+     * Return the opening book's choice of move in the current position,
+     * or null if there is no book or it has too few games here.  The
+     * choice is the move with the best score among those played at least
+     * MIN_BOOK_GAMES times, preferring the more played among equals.
+     */
+    private Move bookMove() {
+        PositionDB book = _controller.book();
+        if (book == null) {
+            return null;
+        }
+        PositionDB.Entry best = null;
+        for (PositionDB.Entry entry : book.lookup(board())) {
+            if (entry.games() >= MIN_BOOK_GAMES
+                && GameRecord.isPlayable(board(), entry._move)
+                && (best == null || entry.score() > best.score())) {
+                best = entry;
+            }
+        }
+        return best == null ? null : best._move;
+    }
+
+    /**
+     * If the king's surroundings in the current position score at least
+     * SOLVE_THRESHOLD for either side, so that a forced escape or
+     * capture is likely, start a thread trying to prove a win for me
+     * with my Solver, and return it.  Otherwise, return null.  With a
+     * node budget, the solver searches that many positions; otherwise it
+     * searches up to Solver.DEFAULT_NODES positions, or until stopped by
+     * finishSolver.
+     */
+    private Thread startSolver() {
+        Evaluation eval =
+            _evaluation == null ? DEFAULT_EVALUATION : _evaluation;
+        if (Math.abs(eval.kingScore(board())) < SOLVE_THRESHOLD) {
+            return null;
+        }
+        if (_solver == null) {
+            _solver = new Solver(Solver.DEFAULT_TABLE_BITS);
+        }
+        FastBoard position = new FastBoard(board());
+        int side = _myPiece.ordinal();
+        long nodes = _controller.nodeBudget() > 0
+            ? _controller.nodeBudget() : Solver.DEFAULT_NODES;
+        _solved = Solver.UNKNOWN;
+        AtomicBoolean stop = _solverStop = new AtomicBoolean();
+        Thread solving = new Thread(() -> {
+            _solved = _solver.solve(position, side, nodes, stop);
+        }, "solver");
+        solving.setDaemon(true);
+        solving.start();
+        return solving;
+    }
+
+    /**
+     * Wait for SOLVING, a thread started by startSolver (or null), to
+     * finish, first stopping it unless there is a node budget and the
+     * search has not been cancelled, and return the winning move it
+     * proved, or null if it proved none.
+     */
+    private Move finishSolver(Thread solving) {
+        if (solving == null) {
+            return null;
+        }
+        if (_controller.nodeBudget() == 0 || _controller.searchCancelled()) {
+            _solverStop.set(true);
+        }
+        try {
+            solving.join();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        if (_solved != Solver.PROVEN || _solver.move() < 0) {
+            return null;
+        }
+        return Move.mv(_solver.move());
+    }
+
+    @Override
+    SearchStats searchStats() {
+        return _stats;
+    }
+
 
     @Override
     boolean isManual() {
@@ -66,15 +180,95 @@ class AI extends Player {
      * is a move.
      * Essentially, we iterate through all legal moves and build a list of
      * move values for each move. We shall return the MAXIMUM of these values.
+     * The search deepens iteratively, one ply at a time, up to
+     * maxDepth; shallower iterations fill the transposition table with
+     * move-ordering hints for deeper ones.  Each move gets a time slice
+     * of TIME_SLICE milliseconds: a new iteration starts only if the
+     * times of the previous ones predict that it will finish within the
+     * slice, and an iteration that overruns it by a factor of OVERRUN
+     * anyway is abandoned in favor of the last completed one.  Under a
+     * game clock, a TimeManager sets the slice, from my remaining time
+     * and the stability of the best move, and the overrun limit.  If the
+     * controller sets a node budget, the search instead deepens until it
+     * has visited that many nodes, abandoning the iteration in progress,
+     * so that its result does not depend on the speed of the machine.
+     * After each iteration, the best move so far goes to the controller
+     * as progress, and a search cancelled by the controller ends as if
+     * out of time.
      */
     private Move findMove() {
+        if (_table == null) {
+            _table = new TranspositionTable(TABLE_BITS);
+        }
         Board b = new Board(board(), 1);
-        if (myPiece() == Piece.WHITE) {
-            evalScore(b, 0, true, 1, -INFTY, INFTY);
-        } else {
-            evalScore(b, 0, true, -1, -INFTY, INFTY);
+        b.startSearch();
+        int sense = myPiece() == Piece.WHITE ? 1 : -1;
+        int limit = maxDepth(b);
+        double branching = Math.sqrt(b.legalMoves(b.turn()).size());
+        Move best = null;
+        _stats.start();
+        _nodeLimit = _controller.nodeBudget();
+        TimeManager clock = timeManager();
+        long slice = clock == null ? TIME_SLICE : clock.softLimit();
+        long hard = clock == null ? OVERRUN * slice : clock.hardLimit();
+        _deadline = System.nanoTime() + hard * 1_000_000L;
+        _aborted = false;
+        for (int depth = 1; depth <= limit; depth += 1) {
+            if (depth > 1 && _nodeLimit == 0
+                && _stats.millis() + predictedMillis(branching) > slice) {
+                break;
+            }
+            _depthLimit = depth;
+            _stats.startIteration(depth);
+            evalScore(b, 0, true, sense, -INFTY, INFTY);
+            if (_aborted) {
+                break;
+            }
+            _stats.endIteration(depth);
+            best = _lastFoundMove;
+            _controller.reportProgress(_myPiece, depth, best);
+            if (clock != null) {
+                clock.iterationDone(best);
+                slice = clock.softLimit();
+            }
         }
-        return _lastFoundMove;
+        _stats.finish();
+        _lastFoundMove = best;
+        return best;
+    }
+
+    /**
+     * Return true iff the current search has used up its node budget or,
+     * if it has none, its time, or the controller has cancelled it.
+     */
+    private boolean outOfBudget() {
+        if (_controller.searchCancelled()) {
+            return true;
+        }
+        if (_nodeLimit > 0) {
+            return _stats.nodes() + _stats.qnodes() >= _nodeLimit;
+        }
+        return System.nanoTime() > _deadline;
+    }
+
+    /**
+     * Return the predicted time in milliseconds of the next iteration of
+     * the current search from the times of the previous ones.  Each
+     * iteration is assumed to cost as much more than its predecessor as
+     * the last did, but no more than BRANCHING times as much (the
+     * effective branching factor of a well-ordered alpha-beta search is
+     * about the square root of the number of legal moves).  The first
+     * iterations, which are dominated by fixed costs, otherwise
+     * overstate the growth.
+     */
+    private double predictedMillis(double branching) {
+        int k = _stats.iterations();
+        double last = _stats.iterationMillis(k - 1);
+        double growth = branching;
+        if (k >= 2 && _stats.iterationMillis(k - 2) > 0) {
+            growth = Math.min(growth, last / _stats.iterationMillis(k - 2));
+        }
+        return last * Math.max(growth, MIN_GROWTH);
     }
 
     /**
@@ -135,53 +329,80 @@ class AI extends Player {
         if (board.winner() != null) {
             return winVal(board);
         }
-        if (depth == maxDepth(board)) {
+        if (depth == _depthLimit) {
             return simpleFindMove(board, saveMove, sense, alpha, beta);
         }
-        if (sense == 1) {
-            Move bestMove = null;
-            int bestScore = -INFTY;
-            for (Move move : board.legalMoves(Piece.WHITE)) {
-                board.makeMove(move);
-                int response = evalScore(board, depth + 1,
-                        false, -1, alpha, beta);
-                board.undo();
-                if (response > bestScore) {
-                    bestMove = move;
-                    bestScore = response;
-                    alpha = Math.max(alpha, response);
-                    if (alpha >= beta) {
-                        break;
-                    }
-                }
+        if (_depthLimit > 1 && outOfBudget()) {
+            _aborted = true;
+        }
+        if (_aborted) {
+            return 0;
+        }
+        _stats.node();
+        int draft = _depthLimit - depth;
+        long key = board.canonicalKey();
+        int sym = board.canonicalSymmetry();
+        long entry = _table.probe(key);
+        _stats.probe(entry != 0);
+        Move hashMove = null;
+        if (entry != 0) {
+            int move = TranspositionTable.move(entry);
+            if (move >= 0) {
+                hashMove = Move.mv(Symmetry.move(Symmetry.inverse(sym),
+                                                 move));
             }
-            if (saveMove) {
-                _lastFoundMove = bestMove;
+            int score = TranspositionTable.score(entry);
+            int bound = TranspositionTable.bound(entry);
+            if (!saveMove && TranspositionTable.depth(entry) >= draft
+                && (bound == TranspositionTable.EXACT
+                    || bound == TranspositionTable.LOWER && score >= beta
+                    || bound == TranspositionTable.UPPER && score <= alpha)) {
+                _stats.tableCutoff();
+                return score;
             }
-            return bestScore;
-        } else if (sense == -1) {
-            Move bestMove = null;
-            int bestScore = INFTY;
-            for (Move move : board.legalMoves(Piece.BLACK)) {
-                board.makeMove(move);
-                int response = evalScore(board, depth + 1,
-                        false, 1, alpha, beta);
-                board.undo();
-                if (response < bestScore) {
-                    bestMove = move;
-                    bestScore = response;
-                    beta = Math.min(beta, response);
-                    if (alpha >= beta) {
-                        break;
-                    }
-                }
+        }
+        int alpha0 = alpha, beta0 = beta;
+        Piece side = sense == 1 ? Piece.WHITE : Piece.BLACK;
+        List<Move> moves = board.legalMoves(side);
+        if (hashMove != null && moves.remove(hashMove)) {
+            moves.add(0, hashMove);
+        }
+        Move bestMove = null;
+        int bestScore = sense == 1 ? -INFTY : INFTY;
+        int searched = 0;
+        for (Move move : moves) {
+            searched += 1;
+            board.searchMove(move);
+            int response = evalScore(board, depth + 1,
+                    false, -sense, alpha, beta);
+            board.searchUndo();
+            if (_aborted) {
+                return 0;
             }
-            if (saveMove) {
-                _lastFoundMove = bestMove;
+            if (sense == 1 && response > bestScore) {
+                bestMove = move;
+                bestScore = response;
+                alpha = Math.max(alpha, response);
+            } else if (sense == -1 && response < bestScore) {
+                bestMove = move;
+                bestScore = response;
+                beta = Math.min(beta, response);
+            }
+            if (alpha >= beta) {
+                _stats.cutoff(searched == 1);
+                break;
             }
-            return bestScore;
         }
-        return 0;
+        if (saveMove) {
+            _lastFoundMove = bestMove;
+        }
+        int bound = bestScore <= alpha0 ? TranspositionTable.UPPER
+            : bestScore >= beta0 ? TranspositionTable.LOWER
+            : TranspositionTable.EXACT;
+        _table.store(key, draft, bound, bestScore,
+                     bestMove == null ? -1
+                     : Symmetry.move(sym, bestMove.index()));
+        return bestScore;
     }
 
     /** Assumes board is a DUB,
@@ -214,9 +435,9 @@ class AI extends Player {
         Move bestMove = null;
         int bestMoveVal = -INFTY;
         for (Move move : board.legalMoves(Piece.WHITE)) {
-            board.makeMove(move);
+            board.searchMove(move);
             int response = findMin(board, depth + 1, false, alpha, beta);
-            board.undo();
+            board.searchUndo();
             if (response >= bestMoveVal) {
                 bestMove = move;
                 bestMoveVal = response;
@@ -248,9 +469,9 @@ class AI extends Player {
         Move bestMove = null;
         int bestMoveVal = -INFTY;
         for (Move move : board.legalMoves(Piece.WHITE)) {
-            board.makeMove(move);
+            board.searchMove(move);
             int response = findMin(board, depth + 1, false, alpha, beta);
-            board.undo();
+            board.searchUndo();
             if (response >= bestMoveVal) {
                 bestMove = move;
                 bestMoveVal = response;
@@ -280,9 +501,9 @@ class AI extends Player {
         Move bestMove = null;
         int bestMoveVal = -INFTY;
         for (Move move : board.legalMoves(Piece.WHITE)) {
-            board.makeMove(move);
+            board.searchMove(move);
             int moveVal = simpleStaticScore(board);
-            board.undo();
+            board.searchUndo();
             if (moveVal <= bestMoveVal) {
                 bestMove = move;
                 beta = Math.min(beta, moveVal);
@@ -311,9 +532,9 @@ class AI extends Player {
         Move bestMove = null;
         int bestMoveVal = INFTY;
         for (Move move : board.legalMoves(Piece.BLACK)) {
-            board.makeMove(move);
+            board.searchMove(move);
             int moveVal = simpleStaticScore(board);
-            board.undo();
+            board.searchUndo();
             if (moveVal <= bestMoveVal) {
                 bestMove = move;
                 beta = Math.min(beta, moveVal);
@@ -343,15 +564,19 @@ class AI extends Player {
         if (sense == 1) {
             Move bestMove = null;
             int bestScore = -INFTY;
+            int searched = 0;
             for (Move move : board.legalMoves(Piece.WHITE)) {
-                board.makeMove(move);
-                int response = simpleStaticScore(board);
-                board.undo();
+                searched += 1;
+                _stats.qnode();
+                board.searchMove(move);
+                int response = leafScore(board);
+                board.searchUndo();
                 if (response > bestScore) {
                     bestMove = move;
                     bestScore = response;
                     alpha = Math.max(alpha, response);
                     if (alpha >= beta) {
+                        _stats.cutoff(searched == 1);
                         break;
                     }
                 }
@@ -363,15 +588,19 @@ class AI extends Player {
         } else if (sense == -1) {
             Move bestMove = null;
             int bestScore = INFTY;
+            int searched = 0;
             for (Move move : board.legalMoves(Piece.BLACK)) {
-                board.makeMove(move);
-                int response = simpleStaticScore(board);
-                board.undo();
+                searched += 1;
+                _stats.qnode();
+                board.searchMove(move);
+                int response = leafScore(board);
+                board.searchUndo();
                 if (response < bestScore) {
                     bestMove = move;
                     bestScore = response;
                     beta = Math.min(beta, response);
                     if (alpha >= beta) {
+                        _stats.cutoff(searched == 1);
                         break;
                     }
                 }
@@ -400,10 +629,20 @@ class AI extends Player {
 
     /**
      * Return a heuristically determined maximum search depth
-     * based on characteristics of BOARD.
+     * based on characteristics of BOARD.  This is the deepest search
+     * whose tree, at best, has no more than MAX_TREE_SIZE nodes, given
+     * the number of moves available in BOARD, plus an extra ply for
+     * every PIECES_PER_PLY pieces captured, since the branching factor
+     * falls as the board empties.  In practice, the time slice usually
+     * stops the search first.
      */
-    private static int maxDepth(Board board) {
-        return 3;
+    static int maxDepth(Board board) {
+        int moves = Math.max(2, board.legalMoves(board.turn()).size());
+        int pieces = board.numPieces(Piece.WHITE)
+            + board.numPieces(Piece.BLACK);
+        int depth = (int) (2 * Math.log(MAX_TREE_SIZE) / Math.log(moves))
+            + (INITIAL_PIECES - pieces) / PIECES_PER_PLY;
+        return Math.max(MIN_DEPTH, Math.min(MAX_DEPTH, depth));
     }
 
     /**
@@ -415,11 +654,129 @@ class AI extends Player {
         return board.numPieces(_myPiece) - board.numPieces(_myPiece.opponent());
     }
 
+    /**
+     * Return the heuristic value of BOARD at the leaves of a search: my
+     * evaluation's score for White if I have one, and otherwise
+     * simpleStaticScore.
+     */
+    private int leafScore(Board board) {
+        if (_evaluation != null) {
+            return _evaluation.score(board);
+        }
+        return simpleStaticScore(board);
+    }
+
     /** Return a more sophisticated heuristic value for BOARD. **/
     private int staticScore(Board board) {
         return 1;
     }
 
+    /**
+     * Evaluation of positions, or null to count pieces.
+     */
+    private Evaluation _evaluation;
+
+    /**
+     * Evaluation used to decide when to solve if I have none.
+     */
+    private static final Evaluation DEFAULT_EVALUATION = new Evaluation();
+
+    /**
+     * Least magnitude of Evaluation.kingScore at which I try to prove a
+     * win with a Solver while searching.
+     */
+    private static final int SOLVE_THRESHOLD = 60;
+
+    /**
+     * Solver of forced wins, created on first use.
+     */
+    private Solver _solver;
+
+    /**
+     * Result of the last solve.
+     */
+    private volatile int _solved;
+
+    /**
+     * Set to stop the solve started by the last startSolver.
+     */
+    private AtomicBoolean _solverStop;
+
+    /**
+     * Statistics for my most recent search.
+     */
+    private final SearchStats _stats = new SearchStats();
+
+    /**
+     * Depth limit of the current iteration of the search.
+     */
+    private int _depthLimit;
+
+    /**
+     * Log base 2 of the number of transposition table entries.
+     */
+    private static final int TABLE_BITS = 18;
+
+    /**
+     * Table of previously searched positions, keyed by canonical
+     * position, created on first use.
+     */
+    private TranspositionTable _table;
+
+    /**
+     * Time in milliseconds allotted to each move.
+     */
+    private static final int TIME_SLICE = 2000;
+
+    /**
+     * Factor by which an iteration may overrun TIME_SLICE before it is
+     * abandoned.
+     */
+    private static final int OVERRUN = 2;
+
+    /**
+     * Smallest factor by which one iteration is expected to take longer
+     * than the last.
+     */
+    private static final double MIN_GROWTH = 2.0;
+
+    /**
+     * Bounds on maxDepth.
+     */
+    private static final int MIN_DEPTH = 2, MAX_DEPTH = 12;
+
+    /**
+     * Tree size (in nodes) used by maxDepth.
+     */
+    private static final double MAX_TREE_SIZE = 1e7;
+
+    /**
+     * Number of pieces at the start of a game.
+     */
+    private static final int INITIAL_PIECES = 25;
+
+    /**
+     * Number of captured pieces that earn one ply of extra depth.
+     */
+    private static final int PIECES_PER_PLY = 4;
+
+    /**
+     * Time (as for System.nanoTime) at which the current search must
+     * stop.
+     */
+    private long _deadline;
+
+    /**
+     * Number of nodes to which the current search is limited, or 0 if it
+     * is limited by time.
+     */
+    private long _nodeLimit;
+
+    /**
+     * True iff the current iteration ran out of time or nodes.
+     */
+    private boolean _aborted;
+
     /**
      * Time limit of searching algorithm- extremely generous 20 seconds.
      **/
@@ -0,0 +1,448 @@
+package tablut;
+
+import java.util.Arrays;
+
+import static tablut.FastBoard.EMPTY;
+import static tablut.FastBoard.WHITE;
+
+/**
+ * An open-ended analysis of one position.  An Analyzer deepens an
+ * alpha-beta search one ply at a time until it is stopped, and after each
+ * completed depth reports its best few moves (the "lines"), each with its
+ * score and principal variation, through a Reporter.  Scores are those
+ * of an Evaluation (the same one the AI plays with) from the point of
+ * view of the side to move, except that a forced win or loss in N plies
+ * scores WIN - N or -(WIN - N).
+ *
+ * The search runs on a FastBoard copy of the position in a thread of its
+ * own, so that the game's command loop remains free to receive the
+ * command that stops it.  A copy of a Board keeps the game's positions
+ * since its last capture (see FastBoard.copyGameFrom), so that a return
+ * to one of them counts as a repetition; a copy of a FastBoard has no
+ * history before the analyzed position.
+ *
+ * @author Kevin Moy
+ */
+class Analyzer implements Runnable {
+
+    /**
+     * Magnitude of the score of a win on the board.
+     */
+    static final int WIN = 1_000_000;
+
+    /**
+     * Maximum search depth.
+     */
+    static final int MAX_PLY = 64;
+
+    /**
+     * A magnitude greater than any score.
+     */
+    private static final int INFTY = Integer.MAX_VALUE;
+
+    /**
+     * Log base 2 of the number of transposition table entries.
+     */
+    private static final int TABLE_BITS = 20;
+
+    /**
+     * An Analyzer reporting the best LINES moves in the current position
+     * of BOARD, scored by EVAL, through REPORTER.  BOARD may be changed
+     * afterwards without affecting the analysis.
+     */
+    Analyzer(Board board, Evaluation eval, int lines, Reporter reporter) {
+        this(board, eval, lines, reporter,
+             new TranspositionTable(TABLE_BITS));
+    }
+
+    /**
+     * An Analyzer as above that uses TABLE as its transposition table,
+     * so that a table may be reused for many positions.  Entries already
+     * in TABLE are used as they stand (keys are the same in every run,
+     * so a persistent table starts warm); a caller that wants each search
+     * to start afresh clears TABLE first.
+     */
+    Analyzer(Board board, Evaluation eval, int lines, Reporter reporter,
+             TranspositionTable table) {
+        this(gameBoard(board), eval, lines, reporter, table, true);
+    }
+
+    /**
+     * An Analyzer as above for the position on BOARD, which is not
+     * changed.
+     */
+    Analyzer(FastBoard board, Evaluation eval, int lines, Reporter reporter,
+             TranspositionTable table) {
+        this(copy(board), eval, lines, reporter, table, true);
+    }
+
+    /**
+     * An Analyzer as above for the position on BOARD, which becomes
+     * mine.  UNUSED distinguishes this constructor from the last.
+     */
+    private Analyzer(FastBoard board, Evaluation eval, int lines,
+                     Reporter reporter, TranspositionTable table,
+                     boolean unused) {
+        _board = board;
+        _eval = eval;
+        _table = table;
+        _lines = lines;
+        _reporter = reporter;
+        _rootMoves = new int[FastBoard.MAX_MOVES];
+        _numRoot = _board.legalMoves(_rootMoves);
+        _rootScores = new int[_numRoot];
+    }
+
+    /**
+     * Return a FastBoard holding the current position of BOARD and its
+     * game's positions since the last capture.
+     */
+    private static FastBoard gameBoard(Board board) {
+        FastBoard result = new FastBoard();
+        result.copyGameFrom(board);
+        return result;
+    }
+
+    /**
+     * Return a FastBoard holding the current position of BOARD.
+     */
+    private static FastBoard copy(FastBoard board) {
+        FastBoard result = new FastBoard();
+        result.copyFrom(board);
+        return result;
+    }
+
+    /**
+     * Start analyzing in a new thread.
+     */
+    void start() {
+        _thread = new Thread(this, "analysis");
+        _thread.setDaemon(true);
+        _thread.start();
+    }
+
+    /**
+     * Stop the analysis started by start, and wait for it to finish.
+     */
+    void stop() {
+        _stopped = true;
+        if (_thread != null) {
+            try {
+                _thread.join();
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Stop searching once NODES positions have been searched, keeping the
+     * results of the last completed depth.
+     */
+    void setNodeLimit(long nodes) {
+        _nodeLimit = nodes;
+    }
+
+    @Override
+    public void run() {
+        analyze(MAX_PLY - 1);
+    }
+
+    /**
+     * Analyze to depth MAXDEPTH, or until stopped, reporting after each
+     * depth.
+     */
+    void analyze(int maxDepth) {
+        if (_board.winner() != EMPTY) {
+            return;
+        }
+        long start = System.nanoTime();
+        for (int depth = 1; depth <= maxDepth; depth += 1) {
+            if (!searchRoot(depth)) {
+                return;
+            }
+            _depth = depth;
+            double millis = (System.nanoTime() - start) / 1e6;
+            for (int k = 0; k < Math.min(_lines, _numRoot); k += 1) {
+                _reporter.reportStats("depth %d line %d score %d nodes %d"
+                                      + " time %.0fms pv %s",
+                                      depth, k + 1, _rootScores[k], _nodes,
+                                      millis, principalVariation(k, depth));
+            }
+        }
+    }
+
+    /**
+     * Return the depth of the last completed iteration.
+     */
+    int depth() {
+        return _depth;
+    }
+
+    /**
+     * Return the number of positions searched.
+     */
+    long nodes() {
+        return _nodes;
+    }
+
+    /**
+     * Return the Kth best move (numbered from 0) found by the last
+     * completed iteration.
+     */
+    Move move(int k) {
+        return Move.mv(_rootMoves[k]);
+    }
+
+    /**
+     * Return the score of move(K).  This is exact for the best lines;
+     * for the others it is only an upper bound.
+     */
+    int score(int k) {
+        return _rootScores[k];
+    }
+
+    /**
+     * Search every root move to depth DEPTH, leaving the root moves and
+     * scores sorted best first.  A move is searched with a window that
+     * only establishes whether it beats the worst of the best _lines
+     * moves found so far.  Return false if stopped.
+     */
+    private boolean searchRoot(int depth) {
+        int[] scores = new int[_numRoot];
+        int[] best = new int[_numRoot];
+        for (int i = 0; i < _numRoot; i += 1) {
+            int floor = i < _lines ? -INFTY : best[_lines - 1];
+            _board.makeMove(_rootMoves[i]);
+            int score = -search(depth - 1, -INFTY, -floor, 1);
+            _board.undoMove();
+            if (_stopped) {
+                return false;
+            }
+            scores[i] = score;
+            int j = Math.min(i, _lines);
+            for (; j > 0 && best[j - 1] < score; j -= 1) {
+                if (j < _numRoot) {
+                    best[j] = best[j - 1];
+                }
+            }
+            if (j < _numRoot) {
+                best[j] = score;
+            }
+        }
+        Integer[] order = new Integer[_numRoot];
+        for (int i = 0; i < _numRoot; i += 1) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(scores[b], scores[a]));
+        int[] moves = _rootMoves.clone();
+        for (int i = 0; i < _numRoot; i += 1) {
+            _rootMoves[i] = moves[order[i]];
+            _rootScores[i] = scores[order[i]];
+        }
+        return true;
+    }
+
+    /**
+     * Return the negamax score of the current position searched to
+     * DEPTH, PLY plies below the root, within the window ALPHA..BETA.
+     * The result is meaningless if the search has been stopped.
+     */
+    private int search(int depth, int alpha, int beta, int ply) {
+        if (_stopped) {
+            return 0;
+        }
+        _nodes += 1;
+        if (_nodes > _nodeLimit) {
+            _stopped = true;
+            return 0;
+        }
+        int winner = _board.winner();
+        if (winner != EMPTY) {
+            return winner == _board.turn() ? WIN - ply : ply - WIN;
+        }
+        if (depth == 0) {
+            return evaluate();
+        }
+        long key = _board.zobristKey();
+        long entry = _table.probe(key);
+        int hashMove = -1;
+        if (entry != 0) {
+            hashMove = TranspositionTable.move(entry);
+            int score = fromTable(TranspositionTable.score(entry), ply);
+            int bound = TranspositionTable.bound(entry);
+            if (TranspositionTable.depth(entry) >= depth
+                && (bound == TranspositionTable.EXACT
+                    || bound == TranspositionTable.LOWER && score >= beta
+                    || bound == TranspositionTable.UPPER && score <= alpha)) {
+                return score;
+            }
+        }
+        int[] moves = _moves[ply];
+        int n = _board.legalMoves(moves);
+        for (int k = 1; k < n; k += 1) {
+            if (moves[k] == hashMove) {
+                moves[k] = moves[0];
+                moves[0] = hashMove;
+                break;
+            }
+        }
+        int alpha0 = alpha;
+        int bestScore = -INFTY, bestMove = -1;
+        for (int k = 0; k < n; k += 1) {
+            _board.makeMove(moves[k]);
+            int score = -search(depth - 1, -beta, -alpha, ply + 1);
+            _board.undoMove();
+            if (_stopped) {
+                return 0;
+            }
+            if (score > bestScore) {
+                bestScore = score;
+                bestMove = moves[k];
+                alpha = Math.max(alpha, score);
+                if (alpha >= beta) {
+                    break;
+                }
+            }
+        }
+        int bound = bestScore <= alpha0 ? TranspositionTable.UPPER
+            : bestScore >= beta ? TranspositionTable.LOWER
+            : TranspositionTable.EXACT;
+        _table.store(key, depth, bound, toTable(bestScore, ply), bestMove);
+        return bestScore;
+    }
+
+    /**
+     * Return the static score of the current position for the side to
+     * move.
+     */
+    private int evaluate() {
+        int score = _eval.score(_board);
+        return _board.turn() == WHITE ? score : -score;
+    }
+
+    /**
+     * Return SCORE, found PLY plies below the root, as a score to be
+     * stored in the table, in which win scores count plies from the
+     * stored position rather than from the root.
+     */
+    private static int toTable(int score, int ply) {
+        if (score > WIN - MAX_PLY) {
+            return score + ply;
+        } else if (score < MAX_PLY - WIN) {
+            return score - ply;
+        }
+        return score;
+    }
+
+    /**
+     * The inverse of toTable(SCORE, PLY).
+     */
+    private static int fromTable(int score, int ply) {
+        if (score > WIN - MAX_PLY) {
+            return score - ply;
+        } else if (score < MAX_PLY - WIN) {
+            return score + ply;
+        }
+        return score;
+    }
+
+    /**
+     * Return the principal variation of the Kth best root move, as far as
+     * the transposition table records it, up to DEPTH moves.
+     */
+    private String principalVariation(int k, int depth) {
+        StringBuilder pv = new StringBuilder();
+        int made = 0;
+        int move = _rootMoves[k];
+        while (true) {
+            pv.append(made == 0 ? "" : " ").append(Move.mv(move));
+            _board.makeMove(move);
+            made += 1;
+            if (made >= depth || _board.winner() != EMPTY) {
+                break;
+            }
+            long entry = _table.probe(_board.zobristKey());
+            move = entry == 0 ? -1 : TranspositionTable.move(entry);
+            if (!isLegal(move)) {
+                break;
+            }
+        }
+        for (; made > 0; made -= 1) {
+            _board.undoMove();
+        }
+        return pv.toString();
+    }
+
+    /**
+     * Return true iff MOVE is a legal move in the current position.
+     */
+    private boolean isLegal(int move) {
+        int[] moves = _moves[0];
+        int n = _board.legalMoves(moves);
+        for (int k = 0; k < n; k += 1) {
+            if (moves[k] == move) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The position being analyzed.
+     */
+    private final FastBoard _board;
+    /**
+     * Scores positions at the leaves of the search.
+     */
+    private final Evaluation _eval;
+    /**
+     * Number of best moves to report.
+     */
+    private final int _lines;
+    /**
+     * Destination of reports.
+     */
+    private final Reporter _reporter;
+    /**
+     * Legal moves in the analyzed position.  After each iteration, these
+     * are sorted best first.
+     */
+    private final int[] _rootMoves;
+    /**
+     * Number of legal moves in the analyzed position.
+     */
+    private final int _numRoot;
+    /**
+     * Scores of the root moves.
+     */
+    private final int[] _rootScores;
+    /**
+     * Move buffers, one per ply.
+     */
+    private final int[][] _moves = new int[MAX_PLY][FastBoard.MAX_MOVES];
+    /**
+     * Previously searched positions.
+     */
+    private final TranspositionTable _table;
+    /**
+     * Number of positions searched.
+     */
+    private long _nodes;
+    /**
+     * Limit on _nodes.
+     */
+    private long _nodeLimit = Long.MAX_VALUE;
+    /**
+     * Depth of the last completed iteration.
+     */
+    private int _depth;
+    /**
+     * The thread running the analysis, if started.
+     */
+    private Thread _thread;
+    /**
+     * True once the analysis has been stopped.
+     */
+    private volatile boolean _stopped;
+}
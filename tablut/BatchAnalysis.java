@@ -0,0 +1,151 @@
+package tablut;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Analysis of a stream of positions, one per line in the format of
+ * Board.encodedBoard(), on a pool of worker threads.  For each position
+ * it writes one line, in input order: the best move found, its score
+ * (as for Analyzer), the depth completed, and the number of positions
+ * searched.  A position that is already won gets "-" for its move and a
+ * score of +/- Analyzer.WIN; an ill-formed line gets "error" and a
+ * message.  Blank lines and comments (from "#") are skipped.
+ *
+ * Only a fixed number of positions per worker are in progress or waiting
+ * to be written at any time, so that files of any length can be analyzed
+ * in bounded memory.
+ *
+ * @author Kevin Moy
+ */
+class BatchAnalysis {
+
+    /**
+     * Default search depth.
+     */
+    static final int DEFAULT_DEPTH = 4;
+
+    /**
+     * Number of positions per worker that may be pending.
+     */
+    private static final int PENDING_PER_THREAD = 16;
+
+    /**
+     * Log base 2 of the size of each worker's transposition table.
+     */
+    private static final int TABLE_BITS = 16;
+
+    /**
+     * An analysis that searches each position to DEPTH plies, or until
+     * NODES positions have been searched (no limit if 0), whichever
+     * comes first, scoring positions with EVAL.
+     */
+    BatchAnalysis(int depth, long nodes, Evaluation eval) {
+        if (depth < 1 || depth >= Analyzer.MAX_PLY || nodes < 0) {
+            throw Utils.error("bad analysis depth or node budget");
+        }
+        _depth = depth;
+        _nodes = nodes == 0 ? Long.MAX_VALUE : nodes;
+        _eval = eval;
+    }
+
+    /**
+     * Analyze the positions read from IN on THREADS threads, writing the
+     * results to OUT.  Return the number of positions analyzed.
+     */
+    long run(BufferedReader in, PrintStream out, int threads)
+        throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "analysis-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        ArrayDeque<Future<String>> pending = new ArrayDeque<>();
+        int maxPending = PENDING_PER_THREAD * threads;
+        long count = 0;
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String position = line.replaceFirst("#.*", "").trim();
+                if (position.isEmpty()) {
+                    continue;
+                }
+                if (pending.size() >= maxPending) {
+                    out.println(pending.remove().get());
+                }
+                pending.add(pool.submit(() -> analyze(position)));
+                count += 1;
+            }
+            while (!pending.isEmpty()) {
+                out.println(pending.remove().get());
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("analysis interrupted");
+        } catch (ExecutionException excp) {
+            throw new IllegalStateException(excp.getCause().getMessage());
+        } finally {
+            pool.shutdownNow();
+        }
+        out.flush();
+        return count;
+    }
+
+    /**
+     * Return the result line for the encoded position POSITION.
+     */
+    String analyze(String position) {
+        Board board = _boards.get();
+        try {
+            board.setEncodedBoard(position);
+        } catch (IllegalArgumentException excp) {
+            return "error " + excp.getMessage();
+        }
+        if (board.winner() != null) {
+            return String.format("- %d 0 0", board.winner() == board.turn()
+                                 ? Analyzer.WIN : -Analyzer.WIN);
+        }
+        TranspositionTable table = _tables.get();
+        table.clear();
+        Analyzer analyzer = new Analyzer(board, _eval, 1, REPORTER, table);
+        analyzer.setNodeLimit(_nodes);
+        analyzer.analyze(_depth);
+        return String.format("%s %d %d %d", analyzer.move(0),
+                             analyzer.score(0), analyzer.depth(),
+                             analyzer.nodes());
+    }
+
+    /**
+     * Destination of the Analyzers' reports, which are not needed.
+     */
+    private static final Reporter REPORTER = new NullReporter();
+
+    /**
+     * Search depth.
+     */
+    private final int _depth;
+    /**
+     * Node budget per position.
+     */
+    private final long _nodes;
+    /**
+     * Evaluation scoring the positions searched.
+     */
+    private final Evaluation _eval;
+    /**
+     * Each worker's board.
+     */
+    private final ThreadLocal<Board> _boards =
+        ThreadLocal.withInitial(Board::new);
+    /**
+     * Each worker's transposition table.
+     */
+    private final ThreadLocal<TranspositionTable> _tables =
+        ThreadLocal.withInitial(() -> new TranspositionTable(TABLE_BITS));
+}
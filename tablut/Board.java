@@ -13,12 +13,13 @@ import java.util.List;
 import static tablut.Piece.*;
 import static tablut.Square.*;
 import static tablut.Move.mv;
+import static tablut.Utils.error;
 
 
 /**
- * The state of a Tablut Game. Because of static nature of stack and set,
- * while creating multiple board instances is allowed, only one such
- * instance may be used as game simulation.
+ * The state of a Tablut Game.  Each Board, including its undo stack,
+ * position history, and move limit, is independent of all others, so
+ * separate threads may play separate games on separate Boards.
  *
  * @author Kevin Moy
  */
@@ -29,6 +30,12 @@ class Board {
      */
     static final int SIZE = 9;
 
+    /**
+     * Number of moves between the positions whose pieces are recorded
+     * in full in a game's history.
+     */
+    static final int CHECKPOINT_INTERVAL = 16;
+
     /**
      * The throne (or castle) square and its four surrounding squares..
      */
@@ -68,16 +75,18 @@ class Board {
 
     /**
      * Initializes a copy of MODEL. However, such copies will have
-     * empty stacks and sets.
+     * an empty history.
      */
     Board(Board model) {
         copy(model);
+        lim = model.lim;
     }
 
     /**
-     * Initializes a completely independent, FULL copy of
-     * MODEL. Stacks and sets are deep-copied.
-     * Use this version for testing AI.
+     * Initializes a completely independent, FULL copy of MODEL, history
+     * and all.  Since the history is persistent, it is shared rather
+     * than copied, so this takes time independent of the length of the
+     * game.  Use this version for testing AI.
      */
     Board(Board model, int unused) {
         fullCopy(model);
@@ -96,15 +105,27 @@ class Board {
                 model._repeated, model._winner, model._pieceState);
     }
 
-    /** Copies ALL of MODEL into me- stack, set and all.*/
+    /** Copies ALL of MODEL into me, sharing its history.*/
     void fullCopy(Board model) {
         if (model == this) {
             return;
         }
         setFullState(model._turn, model._moveCount,
                 model._repeated, model._winner, model._pieceState);
-        positionStack.addAll(model.positionStack);
-        positionHistory.addAll(model.positionHistory);
+        lim = model.lim;
+        _history = model._history;
+        _latest = model._latest;
+        _positions = model._positions;
+        _positionsShared = model._positionsShared = true;
+    }
+
+    /**
+     * Initializes a board in position POS, with an empty history.
+     */
+    private Board(Position pos) {
+        lim = Integer.MAX_VALUE;
+        restore(pos);
+        _history = _latest = null;
     }
 
 
@@ -131,10 +152,9 @@ class Board {
         }
         lim = Integer.MAX_VALUE;
         _pieceState[4][4] = KING;
-        positionHistory.clear();
-        positionStack.clear();
-        positionHistory.add(new Board(this));
-        positionStack.push(new Board(this));
+        rehash();
+        _history = _latest = new Position(this, -1, null);
+        rebuildPositions();
     }
 
     /**
@@ -156,6 +176,7 @@ class Board {
         for (int i = 0; i < state.length; i++) {
             _pieceState[i] = Arrays.copyOf(state[i], state[i].length);
         }
+        rehash();
     }
     /**
      * Set the move limit to LIM.  It is an error if 2*LIM <= moveCount().
@@ -168,12 +189,20 @@ class Board {
         lim = n;
     }
 
+    /**
+     * Return the move limit.
+     */
+    int moveLimit() {
+        return lim;
+    }
+
     /**
      * Set position of board.
      * @param pos position to set to.
      */
     void setPosition(Piece[][] pos) {
         this._pieceState = pos;
+        rehash();
     }
 
     /**
@@ -199,16 +228,83 @@ class Board {
     }
 
     /**
-     * Record current position and set winner() next mover if the current
-     * position is a repeat.
+     * Set winner() to the next mover if the current position is a repeat
+     * of one in my history.  Only positions since the last capture, which
+     * have as many pieces as the current one, can be repeated; their
+     * hashes are in _positions.
      */
     private void checkRepeated() {
-        if (positionHistory.contains(this)) {
+        if (_history != null
+            && _pieceCount == _history._pieces
+            && _positions.contains(_hashes[Symmetry.IDENTITY])) {
             this._repeated = true;
             this._winner = _turn;
         }
     }
 
+    /**
+     * Add the current position, which has just been reached by a move,
+     * as POS to my history.
+     */
+    private void pushPosition(Position pos) {
+        unsharePositions();
+        if (_history == null || pos._pieces != _history._pieces) {
+            _positions.clear();
+        }
+        _positions.add(pos._hash);
+        _history = pos;
+    }
+
+    /**
+     * Set _positions to the hashes of the positions of my history since
+     * the last capture before the current one.
+     */
+    private void rebuildPositions() {
+        unsharePositions();
+        _positions.clear();
+        for (Position pos = _history;
+             pos != null && pos._pieces == _history._pieces;
+             pos = pos._previous) {
+            _positions.add(pos._hash);
+        }
+    }
+
+    /**
+     * Return the hashes (as for symmetricHash(Symmetry.IDENTITY)) of the
+     * positions of my history since the last capture, oldest first and
+     * ending with the current one.  These are the positions to which a
+     * return would be a repetition.
+     */
+    long[] recentPositions() {
+        if (_history == null) {
+            return new long[] { _hashes[Symmetry.IDENTITY] };
+        }
+        int n;
+        n = 0;
+        for (Position pos = _history;
+             pos != null && pos._pieces == _history._pieces;
+             pos = pos._previous) {
+            n += 1;
+        }
+        long[] result = new long[n];
+        Position pos = _history;
+        for (int k = n - 1; k >= 0; k -= 1) {
+            result[k] = pos._hash;
+            pos = pos._previous;
+        }
+        return result;
+    }
+
+    /**
+     * Give me my own copy of _positions if I share it with a copy.
+     */
+    private void unsharePositions() {
+        if (_positionsShared) {
+            _positions = new LongMultiset(_positions);
+            _positionsShared = false;
+        }
+    }
+
     /**
      * See if the move limit has been violated after last move.
      */
@@ -268,7 +364,12 @@ class Board {
     final void put(Piece p, Square s) {
         int col = s.col();
         int row = s.row();
+        Piece old = _pieceState[col][row];
+        toggleHashes(old, s.index());
         _pieceState[col][row] = p;
+        toggleHashes(p, s.index());
+        _pieceCount += (p == null || p == EMPTY ? 0 : 1)
+            - (old == null || old == EMPTY ? 0 : 1);
     }
 
     /**
@@ -340,13 +441,123 @@ class Board {
     void makeMove(Square from, Square to) {
         assert isLegal(from, to);
         put(get(from), to);
-        _pieceState[from.col()][from.row()] = EMPTY;
+        put(EMPTY, from);
         handleCaptures(to);
         _turn = _turn.opponent();
         _moveCount++;
         updateWinner();
-        positionStack.push(new Board(this));
-        positionHistory.add(new Board(this));
+        Position next = nextPosition();
+        if (next == null || next._move != mv(from, to).index()) {
+            next = _latest = new Position(this, mv(from, to).index(),
+                                          _history);
+        }
+        pushPosition(next);
+    }
+
+    /**
+     * Return the position in my history reached from the current one by
+     * the next move made before being undone, or null if there is none.
+     */
+    private Position nextPosition() {
+        if (_latest == _history) {
+            return null;
+        }
+        Position pos = _latest;
+        while (pos != null && pos._previous != _history) {
+            pos = pos._previous;
+        }
+        return pos;
+    }
+
+    /**
+     * Return the position in my history after move number N, or null
+     * if there is none.
+     */
+    private Position position(int n) {
+        Position pos = _latest;
+        while (pos != null && pos._moveCount > n) {
+            pos = pos._previous;
+        }
+        return pos != null && pos._moveCount == n ? pos : null;
+    }
+
+    /**
+     * Set me to position POS of my history.  The pieces are taken from
+     * the nearest checkpoint at or before POS, and the moves from there
+     * replayed.  The winner is as recorded in POS, so that the moves
+     * need not be checked as they are replayed.
+     */
+    private void restore(Position pos) {
+        Position checkpoint;
+        int n;
+        n = 0;
+        for (checkpoint = pos; checkpoint._cells == null;
+             checkpoint = checkpoint._previous) {
+            n += 1;
+        }
+        int[] moves = new int[n];
+        Position p = pos;
+        for (int k = n - 1; k >= 0; k -= 1) {
+            moves[k] = p._move;
+            p = p._previous;
+        }
+        Piece[][] state = new Piece[SIZE][SIZE];
+        for (Square s : SQUARE_LIST) {
+            state[s.col()][s.row()] =
+                Piece.values()[checkpoint._cells[s.index()]];
+        }
+        setFullState(checkpoint._turn, checkpoint._moveCount, false, null,
+                     state);
+        for (int move : moves) {
+            Move m = mv(move);
+            put(get(m.from()), m.to());
+            put(EMPTY, m.from());
+            handleCaptures(m.to());
+            _turn = _turn.opponent();
+            _moveCount++;
+        }
+        _repeated = pos._repeated;
+        _winner = pos._winner;
+        _history = pos;
+    }
+
+    /**
+     * Go to the position after move number N of my history, which may
+     * be before the current position or, if moves have been undone,
+     * after it.  Moves undone remain available to redo until a different
+     * move is made.
+     */
+    void seek(int n) {
+        Position pos = _history == null ? null : position(n);
+        if (pos == null) {
+            throw error("no position %d in this game", n);
+        }
+        restore(pos);
+        rebuildPositions();
+    }
+
+    /**
+     * Make the last move undone, if there is one.  Return true iff there
+     * was.
+     */
+    boolean redo() {
+        Position next = _history == null ? null : nextPosition();
+        if (next == null) {
+            return false;
+        }
+        Position current = _history;
+        restore(next);
+        _history = current;
+        pushPosition(next);
+        return true;
+    }
+
+    /**
+     * Return the number of the last move of my history that can be
+     * reached by redo.
+     */
+    int lastMoveCount() {
+        return _latest == null ? _moveCount : _latest._moveCount;
     }
 
     /**
@@ -356,7 +567,7 @@ class Board {
     void testMove(Square from, Square to) {
         assert isLegal(from, to);
         put(get(from), to);
-        _pieceState[from.col()][from.row()] = EMPTY;
+        put(EMPTY, from);
         handleCaptures(to);
         _turn = _turn.opponent();
         _moveCount++;
@@ -387,8 +598,7 @@ class Board {
                         canCaptureKing = true;
                     }
                     if (canCaptureKing) {
-                        _pieceState[kingPosition().col()]
-                                [kingPosition().row()] = EMPTY;
+                        remove(kingPosition());
                     }
                 } else {
                     Square capEnd = movedTo.orthogonalEnd(neighbor);
@@ -429,17 +639,137 @@ class Board {
 
     /** Called after each move. Winner of game is updated. **/
     void updateWinner() {
-        if (kingPosition() == null) {
+        checkPosition();
+        checkRepeated();
+        checkMoves();
+    }
+
+    /**
+     * Set the winner if the king has been captured or has escaped, or if
+     * the side to move cannot move.
+     */
+    private void checkPosition() {
+        Square king = kingPosition();
+        if (king == null) {
             _winner = BLACK;
-        } else if (kingPosition().onEdge()) {
+        } else if (king.onEdge()) {
             _winner = WHITE;
         } else if (!hasMove(_turn)) {
             _winner = _turn.opponent();
         }
-        checkRepeated();
+    }
+
+    /**
+     * Remove the piece on S, recording it for searchUndo during a
+     * searchMove.
+     */
+    private void remove(Square s) {
+        if (_searchCapturing) {
+            if (_numCaptured == _captured.length) {
+                _captured = Arrays.copyOf(_captured, 2 * _captured.length);
+            }
+            _captured[_numCaptured] = s.index() * 4 + get(s).ordinal();
+            _numCaptured += 1;
+        }
+        put(EMPTY, s);
+    }
+
+    /**
+     * Prepare to search from the current position with searchMove and
+     * searchUndo.  The game's history is not changed by the search.  The
+     * search arrays are allocated here, on first use, so that Boards
+     * that never search do not carry them.
+     */
+    void startSearch() {
+        if (_searchHashes == null) {
+            _searchHashes = new long[SEARCH_STACK_SIZE];
+            _searchUndo = new long[SEARCH_STACK_SIZE];
+            _captured = new int[SEARCH_STACK_SIZE];
+        }
+        _searchPly = 0;
+        _searchLastCapture = 0;
+        _numCaptured = 0;
+        _searchHashes[0] = _hashes[Symmetry.IDENTITY];
+    }
+
+    /**
+     * Make MOVE, which must be legal, during a search begun by
+     * startSearch, updating the winner as makeMove does but without
+     * recording anything in the game's history.  A repetition is
+     * detected by comparing the new position with those on the search's
+     * own path since its last capture, and, if it has made none, with the
+     * game's positions since its last capture.  Undo with searchUndo.
+     */
+    void searchMove(Move move) {
+        if (_searchPly + 1 == _searchHashes.length) {
+            int size = 2 * _searchHashes.length;
+            _searchHashes = Arrays.copyOf(_searchHashes, size);
+            _searchUndo = Arrays.copyOf(_searchUndo, size);
+        }
+        int captured = _numCaptured;
+        _searchUndo[_searchPly] = (long) move.index()
+            | (long) (_winner == null ? 0 : _winner.ordinal()) << UNDO_WINNER
+            | (_repeated ? 1L << UNDO_REPEATED : 0)
+            | (long) _searchLastCapture << UNDO_LAST_CAPTURE
+            | (long) captured << UNDO_CAPTURED;
+        put(get(move.from()), move.to());
+        put(EMPTY, move.from());
+        _searchCapturing = true;
+        handleCaptures(move.to());
+        _searchCapturing = false;
+        _turn = _turn.opponent();
+        _moveCount++;
+        _searchPly += 1;
+        long hash = _hashes[Symmetry.IDENTITY];
+        _searchHashes[_searchPly] = hash;
+        checkPosition();
+        if (_numCaptured > captured) {
+            _searchLastCapture = _searchPly;
+        } else if (searchRepeated(hash)) {
+            _repeated = true;
+            _winner = _turn;
+        }
         checkMoves();
     }
 
+    /**
+     * Return true iff the piece placement whose hash is HASH was reached
+     * earlier since the last capture, as for searchMove.
+     */
+    private boolean searchRepeated(long hash) {
+        for (int p = _searchPly - 1; p >= _searchLastCapture; p -= 1) {
+            if (_searchHashes[p] == hash) {
+                return true;
+            }
+        }
+        return _searchLastCapture == 0 && _positions.contains(hash);
+    }
+
+    /**
+     * Undo the last move made by searchMove.
+     */
+    void searchUndo() {
+        assert _searchPly > 0;
+        _searchPly -= 1;
+        long undo = _searchUndo[_searchPly];
+        Move move = mv((int) (undo & UNDO_MOVE_MASK));
+        put(get(move.to()), move.from());
+        put(EMPTY, move.to());
+        int captured = (int) (undo >>> UNDO_CAPTURED);
+        while (_numCaptured > captured) {
+            _numCaptured -= 1;
+            int c = _captured[_numCaptured];
+            put(Piece.values()[c % 4], SQUARE_LIST.get(c / 4));
+        }
+        int winner = (int) ((undo >>> UNDO_WINNER) & 3);
+        _winner = winner == 0 ? null : Piece.values()[winner];
+        _repeated = ((undo >>> UNDO_REPEATED) & 1) != 0;
+        _searchLastCapture =
+            (int) ((undo >>> UNDO_LAST_CAPTURE) & UNDO_PLY_MASK);
+        _turn = _turn.opponent();
+        _moveCount--;
+    }
+
     /**
      * Move according to MOVE, assuming it is a legal move.
      * @param move move to make.
@@ -463,18 +793,27 @@ class Board {
     private void capture(Square sq0, Square sq2) {
         Square toCapture = sq0.between(sq2);
         Piece capturedPiece = get(toCapture);
-        _pieceState[toCapture.col()][toCapture.row()] = EMPTY;
+        remove(toCapture);
         if (capturedPiece == KING) {
             this._winner = _turn;
         }
     }
 
     /**
-     * Undo one move.  Has no effect on the initial board.
+     * Undo one move.  Has no effect on the initial board, or on one whose
+     * history has been cleared since.
      */
     void undo() {
-        if (_moveCount > 0) {
-            undoPosition();
+        if (_moveCount > 0 && _history != null && _history._move >= 0
+            && _history._previous != null) {
+            Position current = _history;
+            restore(current._previous);
+            if (current._pieces == _history._pieces) {
+                unsharePositions();
+                _positions.remove(current._hash);
+            } else {
+                rebuildPositions();
+            }
         }
     }
 
@@ -494,14 +833,38 @@ class Board {
     }
 
     /**
-     * Remove record of current position in the set of positions encountered,
-     * unless it is a repeated position or we are at the first move.
-     * NOTE: Calling undo on the command line calls this twice (AI)
+     * Change the contents of square SQ in the cycle empty, white, king,
+     * black, empty, and clear the undo stack, as for the "toggle"
+     * command.
+     */
+    void toggle(Square sq) {
+        Piece piece;
+        switch (get(sq)) {
+        case EMPTY:
+            piece = WHITE;
+            break;
+        case WHITE:
+            piece = KING;
+            break;
+        case KING:
+            piece = BLACK;
+            break;
+        default:
+            piece = EMPTY;
+            break;
+        }
+        put(piece, sq);
+        clearUndo();
+    }
+
+    /**
+     * Add the current position to my history, so that undoing a move
+     * made from it returns to it even if it was set up with put rather
+     * than reached by a move.
      */
-    private void undoPosition() {
-        positionStack.pop();
-        positionHistory.remove(new Board(this));
-        copy(positionStack.peek());
+    void recordPosition() {
+        _history = _latest = new Position(this, -1, _history);
+        rebuildPositions();
     }
 
     /**
@@ -509,7 +872,8 @@ class Board {
      * current position or win status.
      */
     void clearUndo() {
-        positionStack.clear();
+        _history = _latest = new Position(this, -1, null);
+        rebuildPositions();
     }
 
     /**
@@ -643,6 +1007,43 @@ class Board {
         return new String(result);
     }
 
+    /**
+     * Set me to the position ENCODED, in the format produced by
+     * encodedBoard(), with no history before it and no move limit.
+     */
+    void setEncodedBoard(String encoded) {
+        if (encoded.length() != SQUARE_LIST.size() + 1) {
+            throw error("bad encoded board: %s", encoded);
+        }
+        Piece turn = decodePiece(encoded.charAt(0));
+        if (turn != WHITE && turn != BLACK) {
+            throw error("bad encoded board: %s", encoded);
+        }
+        Piece[][] state = new Piece[SIZE][SIZE];
+        for (Square sq : SQUARE_LIST) {
+            state[sq.col()][sq.row()] =
+                decodePiece(encoded.charAt(sq.index() + 1));
+        }
+        setFullState(turn, 0, false, null, state);
+        lim = Integer.MAX_VALUE;
+        _history = null;
+        updateWinner();
+        _history = _latest = new Position(this, -1, null);
+        rebuildPositions();
+    }
+
+    /**
+     * Return the Piece whose toString() is C.
+     */
+    private static Piece decodePiece(char c) {
+        for (Piece p : Piece.values()) {
+            if (p.toString().charAt(0) == c) {
+                return p;
+            }
+        }
+        throw error("bad piece in encoded board: %c", c);
+    }
+
     /**
      * Return number of pieces that SIDE has on the Board.
      * King is treated as White.
@@ -688,7 +1089,87 @@ class Board {
 
     @Override
     public int hashCode() {
-        return Arrays.deepHashCode(_pieceState);
+        return (int) _hashes[Symmetry.IDENTITY];
+    }
+
+    /**
+     * Return the Zobrist hash of the current position (the placement of
+     * pieces and the side to move).
+     */
+    long zobristKey() {
+        return _hashes[Symmetry.IDENTITY] ^ turnKey();
+    }
+
+    /**
+     * Return the Zobrist hash of the position obtained by applying
+     * symmetry T (see Symmetry) to the placement of pieces.  This ignores
+     * the side to move.
+     */
+    long symmetricHash(int t) {
+        return _hashes[t];
+    }
+
+    /**
+     * Return the symmetry that maps the current position to its canonical
+     * form: the one of its (up to) eight symmetric images with the least
+     * hash.  Positions related by a symmetry have the same canonical
+     * form.
+     */
+    int canonicalSymmetry() {
+        int best = Symmetry.IDENTITY;
+        for (int t = 1; t < Symmetry.COUNT; t += 1) {
+            if (_hashes[t] < _hashes[best]) {
+                best = t;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Return the Zobrist hash of the canonical form of the current
+     * position, including the side to move.  This is the same for all
+     * positions related by a symmetry, and so is the key to use for
+     * tables of positions (transposition tables, books, endgame tables).
+     * Moves stored with such a key should be mapped by
+     * canonicalSymmetry() first.
+     */
+    long canonicalKey() {
+        return _hashes[canonicalSymmetry()] ^ turnKey();
+    }
+
+    /**
+     * Return the hash key for the side to move.
+     */
+    private long turnKey() {
+        return _turn == BLACK ? Zobrist.BLACK_TO_MOVE : 0;
+    }
+
+    /**
+     * Add or remove (by exclusive or) the keys for P on the square with
+     * index S to or from my symmetric hashes.
+     */
+    private void toggleHashes(Piece p, int s) {
+        if (p == null || p == EMPTY) {
+            return;
+        }
+        for (int t = 0; t < Symmetry.COUNT; t += 1) {
+            _hashes[t] ^= Zobrist.key(p, Symmetry.square(t, s));
+        }
+    }
+
+    /**
+     * Recompute my symmetric hashes and piece count from scratch.
+     */
+    private void rehash() {
+        Arrays.fill(_hashes, 0);
+        _pieceCount = 0;
+        for (Square s : SQUARE_LIST) {
+            Piece p = get(s);
+            toggleHashes(p, s.index());
+            if (p != null && p != EMPTY) {
+                _pieceCount += 1;
+            }
+        }
     }
 
     /** Compare positions.
@@ -721,6 +1202,16 @@ class Board {
      * A null-array element represents an unoccupied square.
      */
     private Piece[][] _pieceState;
+    /**
+     * _hashes[t] is the Zobrist hash of the placement of pieces after
+     * applying symmetry t.  Maintained incrementally by put.
+     */
+    private final long[] _hashes = new long[Symmetry.COUNT];
+    /**
+     * Number of pieces (of either side, the king included) on the board.
+     * Maintained incrementally by put.
+     */
+    private int _pieceCount;
     /**
      * 1D array version of pieceState.
      **/
@@ -728,42 +1219,174 @@ class Board {
     /**
      * Limit on number of moves.
      **/
-    private static int lim;
+    private int lim;
 
-    /** Return Board's PositionHistory Set. */
+    /**
+     * Layout of the searchMove undo records: the move index occupies the
+     * low bits, followed by the previous winner (ordinal, 0 for none),
+     * repeated flag, search ply of the last capture, and the number of
+     * captured pieces recorded before the move.
+     */
+    private static final int UNDO_WINNER = 13, UNDO_REPEATED = 15,
+        UNDO_LAST_CAPTURE = 16, UNDO_CAPTURED = 40;
+    /**
+     * Masks for the move and ply fields of undo records.
+     */
+    private static final long UNDO_MOVE_MASK = (1 << UNDO_WINNER) - 1,
+        UNDO_PLY_MASK = (1L << (UNDO_CAPTURED - UNDO_LAST_CAPTURE)) - 1;
+    /**
+     * Initial length of the search stacks.
+     */
+    private static final int SEARCH_STACK_SIZE = 64;
+
+    /**
+     * Number of moves made by searchMove and not undone.
+     */
+    private int _searchPly;
+    /**
+     * Search ply of the last capture made by searchMove (0 if none).
+     */
+    private int _searchLastCapture;
+    /**
+     * Piece-placement hashes of the positions on the search path,
+     * indexed by search ply.
+     */
+    private long[] _searchHashes;
+    /**
+     * Undo records of the moves on the search path.
+     */
+    private long[] _searchUndo;
+    /**
+     * Pieces captured on the search path, as square index * 4 + piece
+     * ordinal, and their number.
+     */
+    private int[] _captured;
+    /**
+     * Number of entries in _captured.
+     */
+    private int _numCaptured;
+    /**
+     * True while searchMove performs captures.
+     */
+    private boolean _searchCapturing;
+    /**
+     * Piece-placement hashes of the positions in my history since the
+     * last capture, the current one included: the positions that the
+     * next move could repeat.  Shared with copies made by fullCopy until
+     * one of us changes it.
+     */
+    private LongMultiset _positions = new LongMultiset();
+    /**
+     * True iff _positions may be shared with another Board.
+     */
+    private boolean _positionsShared;
+
+    /**
+     * Return a new Set of the positions in my history (those reached
+     * in the game so far and not undone).
+     */
     public HashSet<Board> getPositionHistory() {
-        return positionHistory;
+        return new HashSet<>(getPositionStack());
     }
 
-    /** SET Board's PositionHistory Set.
-     * @param posHist position History set.*/
-    public void setPositionHistory(HashSet<Board> posHist) {
-        this.positionHistory = posHist;
+    /**
+     * Return a new Stack of the positions in my history, the current
+     * position on top.
+     */
+    public Stack<Board> getPositionStack() {
+        Stack<Board> result = new Stack<>();
+        for (Position pos = _history; pos != null; pos = pos._previous) {
+            result.add(0, new Board(pos));
+        }
+        return result;
     }
 
     /**
-     * STATIC Set of positions reached so far in the game.
-     * Used for previous position checks. Note that every time a move
-     * is called on a board, our stack and set is updated.
+     * A position in the history of a game.  Positions are immutable and
+     * each refers to the one before it, so that a history is a persistent
+     * stack: making a move adds a Position on top without changing the
+     * others, undoing one merely steps back, and copies of a Board
+     * share their common history.  A position records the move that
+     * reached it, its hash, and its result, but its pieces only every
+     * CHECKPOINT_INTERVAL moves and where a history starts (a
+     * checkpoint); other positions are rebuilt by replaying moves from
+     * the checkpoint before them.
      */
-    private HashSet<Board> positionHistory = new HashSet<>();
+    private static final class Position {
+
+        /**
+         * The current position of BOARD, reached by the move with index
+         * MOVE (-1 if it was set up rather than reached by a move) from
+         * PREVIOUS (null if it is the first).
+         */
+        Position(Board board, int move, Position previous) {
+            _move = move;
+            _previous = previous;
+            _moveCount = board._moveCount;
+            _turn = board._turn;
+            _repeated = board._repeated;
+            _winner = board._winner;
+            _hash = board._hashes[Symmetry.IDENTITY];
+            _pieces = board._pieceCount;
+            if (move < 0 || previous == null
+                || _moveCount % CHECKPOINT_INTERVAL == 0) {
+                _cells = new byte[SQUARE_LIST.size()];
+                for (Square s : SQUARE_LIST) {
+                    _cells[s.index()] = (byte) board.get(s).ordinal();
+                }
+            } else {
+                _cells = null;
+            }
+        }
 
-    /** Get Board's stack.
-     * @return Board's position stack.*/
-    public Stack<Board> getPositionStack() {
-        return positionStack;
+        /**
+         * Index of the move that reached this position, or -1.
+         */
+        private final int _move;
+        /**
+         * The position before this one, or null.
+         */
+        private final Position _previous;
+        /**
+         * Number of moves since the initial position.
+         */
+        private final int _moveCount;
+        /**
+         * Side to move.
+         */
+        private final Piece _turn;
+        /**
+         * True iff this position was a repetition.
+         */
+        private final boolean _repeated;
+        /**
+         * Winner in this position, or null.
+         */
+        private final Piece _winner;
+        /**
+         * Piece-placement hash (see Board.symmetricHash).
+         */
+        private final long _hash;
+        /**
+         * Number of pieces on the board.
+         */
+        private final int _pieces;
+        /**
+         * Piece ordinals indexed by square at a checkpoint, else null.
+         */
+        private final byte[] _cells;
     }
 
-    /** Set Board's stack.
-     * @param posStack position stack.*/
-    public void setPositionStack(Stack<Board> posStack) {
-        positionStack = posStack;
-    }
+    /**
+     * The positions reached in this game and not undone, most recent
+     * first, or null if there are none.
+     */
+    private Position _history;
 
     /**
-     * STATIC stack of positions used for UNDO. This means we can only control
-     * one game at a time.
-     **/
-    private Stack<Board> positionStack = new Stack<>();
+     * The last position of my history that redo can reach (_history if
+     * no moves have been undone since the last new move).
+     */
+    private Position _latest;
 
 }
@@ -1,11 +1,18 @@
 package tablut;
 
 import java.io.PrintStream;
+import java.util.List;
 import java.util.Random;
 import java.util.Scanner;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 import java.util.function.Consumer;
+import java.util.function.LongFunction;
 
 import static tablut.Utils.*;
 import static tablut.Square.*;
@@ -56,10 +63,15 @@ final class Controller {
             _view.update(this);
             String command;
             if (_winner == null) {
-                if (_board.turn() == WHITE) {
-                    command = _white.myMove();
-                } else {
-                    command = _black.myMove();
+                if (_clock != null) {
+                    _clock.start(_board.turn());
+                }
+                if (checkFlag()) {
+                    continue;
+                }
+                command = nextCommand(_board.turn() == WHITE ? _white : _black);
+                if (command == null) {
+                    continue;
                 }
             } else {
                 command = _nonPlayer.myMove();
@@ -76,11 +88,87 @@ final class Controller {
                 }
             }
         }
+        if (_searcher != null) {
+            _searcher.shutdownNow();
+        }
         if (_logFile != null) {
             _logFile.close();
         }
     }
 
+    /**
+     * Return the next command from PLAYER, whose turn it is.  Once
+     * searchInBackground has been called, an automated player searches
+     * on a background thread while this one polls for other commands; a
+     * command that arrives first cancels the search and, once the
+     * search has wound down, is returned in place of its move.  If
+     * PLAYER's flag falls first, its search is likewise cancelled, the
+     * game is ended by checkFlag, and the result is null.
+     */
+    private String nextCommand(Player player) {
+        if (_commandSource == null || player.isManual()) {
+            return player.myMove();
+        }
+        if (_searcher == null) {
+            _searcher = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "search");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        _cancelled = false;
+        Future<String> search = _searcher.submit(player::myMove);
+        String command = null;
+        boolean flagged = false;
+        while (command == null && !flagged && !search.isDone()) {
+            command = _commandSource.apply(POLL_INTERVAL);
+            flagged = _clock != null && _clock.flagged(player.myPiece());
+        }
+        if (command != null || flagged) {
+            _cancelled = true;
+            if (command != null && UNDO.reset(command).matches()) {
+                command = "undo 1";
+            }
+        }
+        try {
+            String move = search.get();
+            if (command == null && flagged) {
+                checkFlag();
+                return null;
+            }
+            return command == null ? move : command;
+        } catch (InterruptedException excp) {
+            throw new IllegalStateException("unexpected interrupt");
+        } catch (ExecutionException excp) {
+            throw new IllegalStateException("search failed: "
+                                            + excp.getCause());
+        }
+    }
+
+    /**
+     * Play the current game to its end without reading commands, assuming
+     * that both players are automated, and return the winner.  Add each
+     * move to MOVES and the time taken by each move, in nanoseconds, to
+     * MOVETIMES.  This is the game loop for self-play, where many games
+     * run at once, each with its own Controller.
+     */
+    Piece autoPlay(List<Move> moves, List<Long> moveTimes) {
+        while (_board.winner() == null) {
+            Player player = _board.turn() == WHITE ? _white : _black;
+            long start = System.nanoTime();
+            String command = player.myMove();
+            moveTimes.add(System.nanoTime() - start);
+            Move move = command == null ? null : Move.mv(command);
+            if (move == null || !_board.isLegal(move)) {
+                throw new IllegalStateException("bad automated move: "
+                                                + command);
+            }
+            _board.makeMove(move);
+            moves.add(move);
+        }
+        return _board.winner();
+    }
+
     /**
      * Return the current board.  The value returned should not be
      * modified.
@@ -99,6 +187,102 @@ final class Controller {
         return _randGen.nextInt(U);
     }
 
+    /**
+     * Limit each automated search to NODES nodes (playouts, for Monte
+     * Carlo players) instead of a time slice, so that searches give the
+     * same results regardless of machine speed or load.  A NODES of 0
+     * restores time-limited searching.
+     */
+    void setNodeBudget(long nodes) {
+        _nodeBudget = nodes;
+    }
+
+    /**
+     * Return the node budget set by setNodeBudget, or 0 if searches are
+     * limited by time.
+     */
+    long nodeBudget() {
+        return _nodeBudget;
+    }
+
+    /**
+     * Run the searches of automated players in play on a background
+     * thread, meanwhile accepting commands (such as "quit" and "undo"),
+     * which cancel the search, from COMMANDS.  COMMANDS.apply(MILLIS)
+     * returns the next command, waiting at most MILLIS milliseconds for
+     * it, or null if there is none (as does GUI.pollCommand).  An "undo"
+     * that cancels a search is executed (and logged) as "undo 1".
+     */
+    void searchInBackground(LongFunction<String> commands) {
+        _commandSource = commands;
+    }
+
+    /**
+     * Return true iff the search by the player to move has been
+     * cancelled by a command, in which case it should return as soon as
+     * it can.  Its move will be discarded.
+     */
+    boolean searchCancelled() {
+        return _cancelled;
+    }
+
+    /**
+     * Play with CLOCK (null for none) as the game clocks.  Each side's
+     * clock runs while it is to move, and a side that moves after its
+     * time has run out loses.
+     */
+    void setClock(GameClock clock) {
+        _clock = clock;
+    }
+
+    /**
+     * Return the game clocks, or null if the game is untimed.
+     */
+    GameClock clock() {
+        return _clock;
+    }
+
+    /**
+     * Return the winner of the current game (by the rules or on time),
+     * or null if it is not over.
+     */
+    Piece winner() {
+        return _winner;
+    }
+
+    /**
+     * Use BOOK (null for none) as the opening book of automated players
+     * and for the "explore" command.
+     */
+    void setBook(PositionDB book) {
+        _book = book;
+    }
+
+    /**
+     * Return the opening book, or null.
+     */
+    PositionDB book() {
+        return _book;
+    }
+
+    /**
+     * Use TABLE (null for a fresh one each time) as the transposition
+     * table of the "analyze" command.  Its entries are kept from one
+     * analysis to the next.
+     */
+    void setAnalysisTable(TranspositionTable table) {
+        _analysisTable = table;
+    }
+
+    /**
+     * Use EVAL to score the positions searched by the "analyze" command,
+     * as the automated players do.  Initially, the default Evaluation is
+     * used.
+     */
+    void setEvaluation(Evaluation eval) {
+        _evaluation = eval;
+    }
+
     /**
      * Re-seed the pseudo-random number generator (PRNG) that supplies randInt
      * with the value SEED. Identical seeds produce identical sequences.
@@ -106,6 +290,17 @@ final class Controller {
      */
     void setSeed(long seed) {
         _randGen.setSeed(seed);
+        _splitGen = new SplittableRandom(seed);
+    }
+
+    /**
+     * Return a new pseudo-random number generator for the exclusive use of
+     * one thread of an AI (for example, to drive random playouts).  Once
+     * setSeed is called with a particular value, the sequence of
+     * generators returned, and the values they produce, are fixed.
+     */
+    synchronized SplittableRandom splitRandom() {
+        return _splitGen.split();
     }
 
     /**
@@ -160,6 +355,28 @@ final class Controller {
         _reporter.reportMove(move);
     }
 
+    /**
+     * Report a one-line summary of STATS on my reporter, if per-move
+     * statistics have been turned on with the "stats on" command.
+     */
+    void reportStats(SearchStats stats) {
+        if (_showStats) {
+            _reporter.reportStats("%s", stats.summary());
+        }
+    }
+
+    /**
+     * Report that the search by the SIDE player has reached depth DEPTH
+     * with BEST as its best move so far, if searches run in the
+     * background (otherwise its move follows soon enough).
+     */
+    void reportProgress(Piece side, int depth, Move best) {
+        if (_commandSource != null) {
+            _reporter.reportStats("%s thinking: depth %d, best so far %s",
+                                  side.toName(), depth, best);
+        }
+    }
+
     /**
      * Print a comment in the log.  The arguments FORMAT and ARGS are
      * as for String.format.
@@ -206,14 +423,34 @@ final class Controller {
         new Command("new$", this::doNew),
         new Command("seed\\s+(\\d+)$", this::doSeed),
         new Command("dump$", this::doDump),
-        new Command("undo$", this::doUndo),
+        new Command("undo(?:\\s+(\\d+))?$", this::doUndo),
+        new Command("redo$", this::doRedo),
+        new Command("goto\\s+(\\d+)$", this::doGoto),
         new Command("manual\\s+(white|black)$", this::doManual),
         new Command("auto\\s+(white|black)$", this::doAuto),
         new Command("limit\\s+(\\d+)$", this::doLimit),
+        new Command("nodes\\s+(\\d+)$", this::doNodes),
+        new Command("clock(?:\\s+(?:(off)|(\\d+)(?:\\s+(\\d+))?))?$",
+                    this::doClock),
+        new Command("analyze(?:\\s+(\\d+))?$", this::doAnalyze),
+        new Command("stop$", this::doStop),
+        new Command("explore$", this::doExplore),
+        new Command("solve(?:\\s+(white|black))?(?:\\s+(\\d+))?$",
+                    this::doSolve),
+        new Command("stats(?:\\s+(on|off))?$", this::doStats),
+        new Command("perft\\s+(\\d+)((?:\\s+(?:fast|parallel))*)$",
+                    this::doPerft),
         new Command("toggle\\s+" + SQ + "$", this::doToggle),
         new Command(Move.MOVE_PATTERN.pattern(), this::doMove)
     };
 
+    /**
+     * A Matcher whose Pattern matches a plain "undo" command.
+     */
+    private static final Matcher UNDO =
+        Pattern.compile("\\s*undo\\s*", Pattern.CASE_INSENSITIVE)
+        .matcher("");
+
     /**
      * A Matcher whose Pattern matches comments.
      */
@@ -249,8 +486,12 @@ final class Controller {
      * Command "new".
      */
     private void doNew(Matcher unused) {
+        stopAnalysis();
         _board.init();
         _winner = null;
+        if (_clock != null) {
+            _clock.reset();
+        }
     }
 
     /**
@@ -293,30 +534,15 @@ final class Controller {
      * EMPTY -> WHITE -> KING -> BLACK .< ENPTY". Clear Undo information.
      */
     private void doToggle(Matcher mat) {
-        Square sq = sq(mat.group(1));
-        Piece piece;
-        switch (_board.get(sq)) {
-        case EMPTY:
-            piece = WHITE;
-            break;
-        case WHITE:
-            piece = KING;
-            break;
-        case KING:
-            piece = BLACK;
-            break;
-        default:
-            piece = EMPTY;
-            break;
-        }
-        _board.put(piece, sq);
-        _board.clearUndo();
+        stopAnalysis();
+        _board.toggle(sq(mat.group(1)));
     }
 
     /**
      * Command "quit".
      */
     private void doQuit(Matcher unused) {
+        stopAnalysis();
         _playing = false;
     }
 
@@ -336,6 +562,7 @@ final class Controller {
      * Command "limit N" where N is the first captured group of MAT.
      */
     private void doLimit(Matcher mat) {
+        stopAnalysis();
         try {
             _board.setMoveLimit(Integer.parseInt(mat.group(1)));
         } catch (NumberFormatException excp) {
@@ -347,16 +574,249 @@ final class Controller {
      * Execute a move command matched in MAT.
      */
     private void doMove(Matcher mat) {
+        stopAnalysis();
+        if (_winner == null && _clock != null) {
+            Piece mover = _board.turn();
+            _clock.stop();
+            if (checkFlag()) {
+                return;
+            }
+            _clock.addIncrement(mover);
+            _reporter.reportClock("%s", _clock);
+        }
         _board.makeMove(Move.mv(mat.group(0)));
         if (_winner == null) {
             _winner = _board.winner();
             if (_winner != null) {
+                logComment("%s wins.", _winner.toName());
                 _view.update(this);
                 _reporter.reportNote("%s wins.", _winner.toName());
             }
         }
     }
 
+    /**
+     * If the game is in progress and the side to move has run out of
+     * time, stop the clocks, end the game with a win for the other side,
+     * announce it, and return true.  Otherwise, return false.
+     */
+    private boolean checkFlag() {
+        if (_winner != null || _clock == null
+            || !_clock.flagged(_board.turn())) {
+            return false;
+        }
+        _clock.stop();
+        _winner = _board.turn().opponent();
+        logComment("%s wins on time.", _winner.toName());
+        _view.update(this);
+        _reporter.reportNote("%s wins on time.", _winner.toName());
+        return true;
+    }
+
+    /**
+     * Command "nodes N", which limits automated searches to N (group 1
+     * of MAT) nodes, or to their time slice if N is 0.
+     */
+    private void doNodes(Matcher mat) {
+        try {
+            setNodeBudget(Long.parseLong(mat.group(1)));
+        } catch (NumberFormatException excp) {
+            throw error("number too large");
+        }
+    }
+
+    /**
+     * Command "clock BASE [INC]", which starts a timed game, with BASE
+     * (group 2 of MAT) seconds for each side and INC (group 3, default
+     * 0) seconds added after each move, "clock off" (group 1), which
+     * stops timing the game, and "clock", which reports the time left
+     * to each side.
+     */
+    private void doClock(Matcher mat) {
+        if (mat.group(1) != null) {
+            setClock(null);
+            return;
+        }
+        if (mat.group(2) != null) {
+            long base, increment;
+            try {
+                base = Math.multiplyExact(Long.parseLong(mat.group(2)),
+                                          1000L);
+                increment = mat.group(3) == null ? 0
+                    : Math.multiplyExact(Long.parseLong(mat.group(3)), 1000L);
+            } catch (ArithmeticException | NumberFormatException excp) {
+                throw error("number too large");
+            }
+            setClock(new GameClock(base, increment));
+        }
+        if (_clock == null) {
+            throw error("game is not timed");
+        }
+        _reporter.reportClock("%s", _clock);
+    }
+
+    /**
+     * Command "analyze [K]", which starts analyzing the current position
+     * in the background, reporting the best K (group 1 of MAT, default
+     * ANALYSIS_LINES) moves after each depth until stopped.
+     */
+    private void doAnalyze(Matcher mat) {
+        int lines = ANALYSIS_LINES;
+        if (mat.group(1) != null) {
+            try {
+                lines = Integer.parseInt(mat.group(1));
+            } catch (NumberFormatException excp) {
+                throw error("number too large");
+            }
+        }
+        if (lines < 1) {
+            throw error("must analyze at least one move");
+        }
+        if (_board.winner() != null) {
+            throw error("game is over");
+        }
+        stopAnalysis();
+        if (_analysisTable == null) {
+            _analyzer = new Analyzer(_board, _evaluation, lines, _reporter);
+        } else {
+            _analyzer = new Analyzer(_board, _evaluation, lines, _reporter,
+                                     _analysisTable);
+        }
+        _analyzer.start();
+    }
+
+    /**
+     * Command "stop", which ends any analysis in progress.
+     */
+    private void doStop(Matcher unused) {
+        stopAnalysis();
+    }
+
+    /**
+     * Stop any analysis in progress.  Any command that changes the
+     * position does this first.
+     */
+    private void stopAnalysis() {
+        if (_analyzer != null) {
+            _analyzer.stop();
+            _analyzer = null;
+        }
+    }
+
+    /**
+     * Command "stats", which prints the statistics of the last search by
+     * each automated player, and "stats on" and "stats off", which turn
+     * per-move summaries (as group 1 of MAT) on and off.
+     */
+    private void doStats(Matcher mat) {
+        if (mat.group(1) != null) {
+            _showStats = mat.group(1).equals("on");
+            return;
+        }
+        Player[] players = { _white, _black };
+        for (Player player : players) {
+            SearchStats stats = player.searchStats();
+            if (stats != null) {
+                System.out.printf("=== %s search ===%n%s===%n",
+                                  player.myPiece().toName(), stats.report());
+            }
+        }
+    }
+
+    /**
+     * Command "explore", which prints the moves that the opening book
+     * records from the current position, with the number of games in
+     * which each was played and how the side making it fared.
+     */
+    private void doExplore(Matcher unused) {
+        if (_book == null) {
+            throw error("no opening book");
+        }
+        List<PositionDB.Entry> entries = _book.lookup(_board);
+        System.out.printf("=== %d moves from book ===%n", entries.size());
+        System.out.printf("%-6s %8s %8s %8s %8s %6s%n",
+                          "move", "games", "won", "lost", "drawn", "score");
+        for (PositionDB.Entry entry : entries) {
+            System.out.printf("%-6s %8d %8d %8d %8d %5.1f%%%n",
+                              entry._move, entry.games(), entry._wins,
+                              entry._losses, entry._draws,
+                              100 * entry.score());
+        }
+        System.out.printf("===%n");
+    }
+
+    /**
+     * Command "solve [<color>] [N]", where <color> (group 1 of MAT,
+     * defaulting to the side to move) is the side for which to prove a
+     * forced win by proof-number search, and N (group 2) is the most
+     * positions to search.  Prints the result and, if the side to move
+     * wins, a winning move.
+     */
+    private void doSolve(Matcher mat) {
+        Piece side = mat.group(1) == null ? _board.turn()
+            : mat.group(1).equals("white") ? WHITE : BLACK;
+        long nodes = Solver.DEFAULT_NODES;
+        if (mat.group(2) != null) {
+            try {
+                nodes = Long.parseLong(mat.group(2));
+            } catch (NumberFormatException excp) {
+                throw error("number too large");
+            }
+        }
+        if (_solver == null) {
+            _solver = new Solver(Solver.DEFAULT_TABLE_BITS);
+        }
+        int result = _solver.solve(_board, side.ordinal(), nodes);
+        String name = side.toName();
+        switch (result) {
+        case Solver.PROVEN:
+            if (_solver.move() >= 0) {
+                System.out.printf("%s wins by force with %s", name,
+                                  Move.mv(_solver.move()));
+            } else {
+                System.out.printf("%s wins by force", name);
+            }
+            break;
+        case Solver.DISPROVEN:
+            System.out.printf("%s has no forced win within %d plies", name,
+                              Solver.MAX_DEPTH);
+            break;
+        default:
+            System.out.printf("Unresolved for %s", name);
+            break;
+        }
+        System.out.printf(" (%d positions).%n", _solver.nodes());
+    }
+
+    /**
+     * Command "perft N [fast] [parallel]", where N is group 1 of MAT and
+     * the options are group 2.  Prints the number of positions N moves
+     * from the current one below each legal move and in total, and the
+     * time taken.  With "fast", counts using FastBoard rather than Board;
+     * with "parallel", counts on all processors.
+     */
+    private void doPerft(Matcher mat) {
+        int depth;
+        try {
+            depth = Integer.parseInt(mat.group(1));
+        } catch (NumberFormatException excp) {
+            throw error("number too large");
+        }
+        if (depth < 1) {
+            throw error("perft depth must be positive");
+        }
+        Perft perft = new Perft(mat.group(2).contains("fast"),
+                                mat.group(2).contains("parallel"));
+        perft.divide(_board, depth);
+        for (int k = 0; k < perft.moves().size(); k += 1) {
+            System.out.printf("%s: %d%n", perft.moves().get(k),
+                              perft.count(k));
+        }
+        System.out.printf("perft %d: %d positions in %.1f ms (%.0f/s)%n",
+                          depth, perft.total(), perft.millis(),
+                          perft.nodesPerSecond());
+    }
+
     /**
      * Dump the contents of the board on standard output.
      */
@@ -365,18 +825,61 @@ final class Controller {
     }
 
     /**
-     * Undo back to before my last move, if there was one (otherwise does
-     * nothing).
+     * Command "undo [N]", which undoes the last N (group 1 of MAT,
+     * default 2) moves, if there were that many (otherwise does nothing).
+     * Plain "undo" thus goes back to before my last move.  An "undo" that
+     * cancels an automated player's search becomes "undo 1", which takes
+     * back just my own move, and is logged as such.
      */
-    private void doUndo(Matcher unused) {
-        if (_board.moveCount() > 1) {
-            _board.undo();
-            _board.undo();
+    private void doUndo(Matcher mat) {
+        int plies = 2;
+        if (mat.group(1) != null) {
+            try {
+                plies = Integer.parseInt(mat.group(1));
+            } catch (NumberFormatException excp) {
+                throw error("number too large");
+            }
+        }
+        if (plies > 0 && _board.moveCount() >= plies) {
+            stopAnalysis();
+            for (int k = 0; k < plies; k += 1) {
+                _board.undo();
+            }
             _winner = null;
             _view.update(this);
         }
     }
 
+    /**
+     * Command "redo", which makes the last move undone by "undo" or
+     * "goto", if any.
+     */
+    private void doRedo(Matcher unused) {
+        stopAnalysis();
+        if (_board.redo()) {
+            _winner = _board.winner();
+            _view.update(this);
+        }
+    }
+
+    /**
+     * Command "goto N", which goes to the position after move number N
+     * (group 1 of MAT) of the game, backward or, after an undo or goto,
+     * forward.
+     */
+    private void doGoto(Matcher mat) {
+        int n;
+        try {
+            n = Integer.parseInt(mat.group(1));
+        } catch (NumberFormatException excp) {
+            throw error("number too large");
+        }
+        stopAnalysis();
+        _board.seek(n);
+        _winner = _board.winner();
+        _view.update(this);
+    }
+
     /**
      * The board.
      */
@@ -387,6 +890,11 @@ final class Controller {
      */
     private Piece _winner;
 
+    /**
+     * The game clocks, or null if the game is untimed.
+     */
+    private GameClock _clock;
+
     /**
      * True while game is still active.
      */
@@ -402,6 +910,11 @@ final class Controller {
      */
     private Random _randGen = new Random();
 
+    /**
+     * Master generator from which splitRandom splits off generators.
+     */
+    private SplittableRandom _splitGen = new SplittableRandom();
+
     /**
      * Log file, or null if absent.
      */
@@ -434,10 +947,72 @@ final class Controller {
      */
     private Reporter _reporter;
 
+    /**
+     * Default number of moves reported by the "analyze" command.
+     */
+    private static final int ANALYSIS_LINES = 3;
+
+    /**
+     * Analysis in progress, or null.
+     */
+    private Analyzer _analyzer;
+
+    /**
+     * Number of nodes to which automated searches are limited, or 0.
+     */
+    private long _nodeBudget;
+
+    /**
+     * Opening book, or null.
+     */
+    private PositionDB _book;
+
+    /**
+     * Solver for the "solve" command, created on first use.
+     */
+    private Solver _solver;
+
+    /**
+     * Transposition table kept for the "analyze" command, or null.
+     */
+    private TranspositionTable _analysisTable;
+
+    /**
+     * Evaluation used by the "analyze" command.
+     */
+    private Evaluation _evaluation = new Evaluation();
+
+    /**
+     * True iff a summary of each automated search is to be reported.
+     */
+    private boolean _showStats;
+
     /**
      * If true, command errors cause termination with error exit
      * code.
      */
     private boolean _strict;
 
+    /**
+     * Interval in milliseconds at which the GUI is polled for commands
+     * during a background search.
+     */
+    private static final long POLL_INTERVAL = 50;
+
+    /**
+     * Source of commands during background searches, or null if
+     * searches run in the foreground.
+     */
+    private LongFunction<String> _commandSource;
+
+    /**
+     * Thread running background searches, created on first use.
+     */
+    private ExecutorService _searcher;
+
+    /**
+     * True iff the background search in progress has been cancelled.
+     */
+    private volatile boolean _cancelled;
+
 }
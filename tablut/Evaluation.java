@@ -0,0 +1,245 @@
+package tablut;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static tablut.FastBoard.BLACK;
+import static tablut.FastBoard.EMPTY;
+import static tablut.FastBoard.KING;
+import static tablut.FastBoard.WHITE;
+import static tablut.Square.BOARD_SIZE;
+import static tablut.Square.NUM_SQUARES;
+import static tablut.Square.SQUARE_LIST;
+
+/**
+ * A static evaluation of positions: a weighted sum of a few features,
+ * each measured from White's point of view, with weights that can be
+ * tuned (see Tuner) and saved in a weights file.  A weights file has one
+ * line per feature, giving its name and weight; lines may be omitted
+ * (leaving the default weight) and "#" starts a comment.
+ *
+ * The features are the difference in soldiers, the king's distance from
+ * the edge, the numbers of attackers and of defenders next to the king,
+ * the number of directions in which the king has a clear run to the
+ * edge, and which side is to move (1 for White, -1 for Black).  Scores
+ * are in hundredths of a soldier, roughly.
+ *
+ * @author Kevin Moy
+ */
+class Evaluation {
+
+    /**
+     * Feature indices.
+     */
+    static final int MATERIAL = 0, KING_EDGE = 1, KING_ATTACKERS = 2,
+        KING_DEFENDERS = 3, KING_OPEN_LINES = 4, TO_MOVE = 5;
+
+    /**
+     * Number of features.
+     */
+    static final int COUNT = 6;
+
+    /**
+     * Names of the features in weights files.
+     */
+    static final String[] NAMES = {
+        "material", "king-edge", "king-attackers", "king-defenders",
+        "king-open-lines", "to-move"
+    };
+
+    /**
+     * Default weights.
+     */
+    static final double[] DEFAULT_WEIGHTS = { 100, -10, -30, 5, 40, 10 };
+
+    /**
+     * An evaluation with the default weights.
+     */
+    Evaluation() {
+        this(DEFAULT_WEIGHTS);
+    }
+
+    /**
+     * An evaluation with weights WEIGHTS, indexed by feature.
+     */
+    Evaluation(double[] weights) {
+        if (weights.length != COUNT) {
+            throw new IllegalArgumentException("wrong number of weights");
+        }
+        _weights = weights.clone();
+    }
+
+    /**
+     * Return the evaluation whose weights are read from FILE.
+     */
+    static Evaluation read(Path file) throws IOException {
+        double[] weights = DEFAULT_WEIGHTS.clone();
+        for (String line : Files.readAllLines(file)) {
+            line = line.replaceFirst("#.*", "").trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            int k = Arrays.asList(NAMES).indexOf(fields[0]);
+            if (k < 0 || fields.length != 2) {
+                throw new IOException("bad weights line: " + line);
+            }
+            try {
+                weights[k] = Double.parseDouble(fields[1]);
+            } catch (NumberFormatException excp) {
+                throw new IOException("bad weight: " + fields[1]);
+            }
+        }
+        return new Evaluation(weights);
+    }
+
+    /**
+     * Write my weights to OUT in the format read by read.
+     */
+    void write(PrintStream out) {
+        for (int k = 0; k < COUNT; k += 1) {
+            out.printf("%-16s %.4f%n", NAMES[k], _weights[k]);
+        }
+    }
+
+    /**
+     * Return weight K.
+     */
+    double weight(int k) {
+        return _weights[k];
+    }
+
+    /**
+     * Return the score of the current position on BOARD for White.
+     */
+    int score(Board board) {
+        int[] cells = CELLS.get();
+        for (Square s : SQUARE_LIST) {
+            cells[s.index()] = board.get(s).ordinal();
+        }
+        double[] features = FEATURES.get();
+        features(cells, board.turn().ordinal(), features);
+        return (int) Math.round(score(features));
+    }
+
+    /**
+     * Return the score of the current position on BOARD for White.
+     */
+    int score(FastBoard board) {
+        int[] cells = CELLS.get();
+        for (int s = 0; s < NUM_SQUARES; s += 1) {
+            cells[s] = board.get(s);
+        }
+        double[] features = FEATURES.get();
+        features(cells, board.turn(), features);
+        return (int) Math.round(score(features));
+    }
+
+    /**
+     * Return the part of the score of the current position on BOARD for
+     * White that comes from the king's surroundings: all but material
+     * and the side to move.  A large magnitude marks a position where
+     * the king is about to escape or be captured.
+     */
+    int kingScore(Board board) {
+        score(board);
+        double[] features = FEATURES.get();
+        double result = 0;
+        for (int k = KING_EDGE; k <= KING_OPEN_LINES; k += 1) {
+            result += _weights[k] * features[k];
+        }
+        return (int) Math.round(result);
+    }
+
+    /**
+     * Return the score for White of a position with features FEATURES.
+     */
+    double score(double[] features) {
+        double result = 0;
+        for (int k = 0; k < COUNT; k += 1) {
+            result += _weights[k] * features[k];
+        }
+        return result;
+    }
+
+    /**
+     * Set FEATURES to the features of the position whose cells (indexed
+     * by square) are CELLS, with TURN (WHITE or BLACK) to move.
+     */
+    static void features(int[] cells, int turn, double[] features) {
+        int white, black, king;
+        white = black = 0;
+        king = -1;
+        for (int s = 0; s < NUM_SQUARES; s += 1) {
+            switch (cells[s]) {
+            case WHITE:
+                white += 1;
+                break;
+            case BLACK:
+                black += 1;
+                break;
+            case KING:
+                king = s;
+                break;
+            default:
+                break;
+            }
+        }
+        Arrays.fill(features, 0);
+        features[MATERIAL] = white - black;
+        features[TO_MOVE] = turn == WHITE ? 1 : -1;
+        if (king < 0) {
+            return;
+        }
+        int col = king % BOARD_SIZE, row = king / BOARD_SIZE;
+        features[KING_EDGE] =
+            Math.min(Math.min(col, BOARD_SIZE - 1 - col),
+                     Math.min(row, BOARD_SIZE - 1 - row));
+        for (int d = 0; d < 4; d += 1) {
+            int c = col + DCOL[d], r = row + DROW[d];
+            if (c < 0 || r < 0 || c >= BOARD_SIZE || r >= BOARD_SIZE) {
+                continue;
+            }
+            int next = cells[r * BOARD_SIZE + c];
+            if (next == BLACK) {
+                features[KING_ATTACKERS] += 1;
+            } else if (next == WHITE) {
+                features[KING_DEFENDERS] += 1;
+            }
+            while (c >= 0 && r >= 0 && c < BOARD_SIZE && r < BOARD_SIZE
+                   && cells[r * BOARD_SIZE + c] == EMPTY) {
+                c += DCOL[d];
+                r += DROW[d];
+            }
+            if (c < 0 || r < 0 || c >= BOARD_SIZE || r >= BOARD_SIZE) {
+                features[KING_OPEN_LINES] += 1;
+            }
+        }
+    }
+
+    /**
+     * Column and row steps in the four directions.
+     */
+    private static final int[] DCOL = { 0, 1, 0, -1 },
+        DROW = { 1, 0, -1, 0 };
+
+    /**
+     * Each thread's scratch cells for the score methods.
+     */
+    private static final ThreadLocal<int[]> CELLS =
+        ThreadLocal.withInitial(() -> new int[NUM_SQUARES]);
+
+    /**
+     * Each thread's scratch features for the score methods.
+     */
+    private static final ThreadLocal<double[]> FEATURES =
+        ThreadLocal.withInitial(() -> new double[COUNT]);
+
+    /**
+     * The weights, indexed by feature.
+     */
+    private final double[] _weights;
+}
@@ -0,0 +1,666 @@
+package tablut;
+
+import java.util.Arrays;
+
+import static tablut.Square.NUM_SQUARES;
+import static tablut.Square.ROOK_SQUARES;
+import static tablut.Square.SQUARE_LIST;
+
+/**
+ * A Tablut position held in primitive arrays, for code that must make
+ * and unmake millions of moves (playouts, perft, solvers) without
+ * allocating.  A FastBoard follows exactly the same rules as Board, but
+ * moves are int indices (as for Move.index()), squares are int indices
+ * (as for Square.index()), and there is no game history beyond the
+ * moves made on the FastBoard itself: a position counts as repeated only
+ * if it recurs among those moves (or is the starting position), or,
+ * after copyGameFrom, among the positions of the game it was copied
+ * from since that game's last capture.
+ *
+ * @author Kevin Moy
+ */
+class FastBoard {
+
+    /**
+     * Cell contents, equal to the ordinals of the corresponding Pieces.
+     */
+    static final int EMPTY = 0, WHITE = 1, BLACK = 2, KING = 3;
+
+    /**
+     * An upper bound on the number of legal moves in any position.
+     */
+    static final int MAX_MOVES = 512;
+
+    /**
+     * Index of the throne.
+     */
+    private static final int THRONE = Board.THRONE.index();
+
+    /**
+     * An empty FastBoard.  Use copyFrom to give it a position.
+     */
+    FastBoard() {
+        _cells = new int[NUM_SQUARES];
+        _hashes = new long[INITIAL_PLIES];
+        _undo = new long[INITIAL_PLIES];
+        _turn = BLACK;
+        _limit = Integer.MAX_VALUE;
+    }
+
+    /**
+     * A FastBoard holding the current position of BOARD.
+     */
+    FastBoard(Board board) {
+        this();
+        copyFrom(board);
+    }
+
+    /**
+     * Set me to the current position of BOARD, with no history.
+     */
+    void copyFrom(Board board) {
+        for (Square s : SQUARE_LIST) {
+            _cells[s.index()] = board.get(s).ordinal();
+        }
+        _turn = board.turn().ordinal();
+        _winner = board.winner() == null ? EMPTY : board.winner().ordinal();
+        _repeated = board.repeatedPosition();
+        _moveCount = board.moveCount();
+        _limit = board.moveLimit();
+        reset();
+    }
+
+    /**
+     * Set me to the current position of BOARD, as for copyFrom, but
+     * with the positions of BOARD's game since its last capture as my
+     * history, so that a return to one of them before my first capture
+     * is a repetition.
+     */
+    void copyGameFrom(Board board) {
+        copyFrom(board);
+        _earlier = board.recentPositions();
+    }
+
+    /**
+     * Set me to the current position of MODEL, with no history.
+     */
+    void copyFrom(FastBoard model) {
+        System.arraycopy(model._cells, 0, _cells, 0, NUM_SQUARES);
+        _turn = model._turn;
+        _winner = model._winner;
+        _repeated = model._repeated;
+        _moveCount = model._moveCount;
+        _limit = model._limit;
+        reset();
+    }
+
+    /**
+     * Set me to the position whose cell codes are CELLS (indexed by
+     * square), with TURN to move, no moves made, no winner, move limit
+     * LIMIT, and no history.
+     */
+    void setPosition(int[] cells, int turn, int limit) {
+        System.arraycopy(cells, 0, _cells, 0, NUM_SQUARES);
+        _turn = turn;
+        _winner = EMPTY;
+        _repeated = false;
+        _moveCount = 0;
+        _limit = limit;
+        reset();
+    }
+
+    /**
+     * Recompute cached values after my cells have been set, and forget
+     * my history.
+     */
+    private void reset() {
+        _king = -1;
+        Arrays.fill(_sym, 0);
+        Arrays.fill(_count, 0);
+        for (int s = 0; s < NUM_SQUARES; s += 1) {
+            int c = _cells[s];
+            _count[c] += 1;
+            for (int t = 0; t < Symmetry.COUNT; t += 1) {
+                _sym[t] ^= Zobrist.key(c, Symmetry.square(t, s));
+            }
+            if (c == KING) {
+                _king = s;
+            }
+        }
+        _ply = 0;
+        _lastCapture = 0;
+        _hashes[0] = hash();
+        _earlier = NO_POSITIONS;
+    }
+
+    /**
+     * Return the contents of square S as a cell code.
+     */
+    int get(int s) {
+        return _cells[s];
+    }
+
+    /**
+     * Return the contents of square S as a Piece.
+     */
+    Piece piece(int s) {
+        return PIECES[_cells[s]];
+    }
+
+    /**
+     * Return the side to move (WHITE or BLACK).
+     */
+    int turn() {
+        return _turn;
+    }
+
+    /**
+     * Return the winner (WHITE or BLACK), or EMPTY if the game is not over.
+     */
+    int winner() {
+        return _winner;
+    }
+
+    /**
+     * Return true iff the game was ended by a repeated position.
+     */
+    boolean repeatedPosition() {
+        return _repeated;
+    }
+
+    /**
+     * Return the number of moves since the initial position.
+     */
+    int moveCount() {
+        return _moveCount;
+    }
+
+    /**
+     * Return the number of moves made on me since the last copyFrom.
+     */
+    int ply() {
+        return _ply;
+    }
+
+    /**
+     * Return the square of the king, or -1 if it has been captured.
+     */
+    int kingSquare() {
+        return _king;
+    }
+
+    /**
+     * Return the number of cells containing C (EMPTY, WHITE, BLACK, or
+     * KING).
+     */
+    int count(int c) {
+        return _count[c];
+    }
+
+    /**
+     * Return a hash of the placement of pieces (ignoring the side to
+     * move), consistent with Board.equals.
+     */
+    long hash() {
+        return _sym[Symmetry.IDENTITY];
+    }
+
+    /**
+     * Return the Zobrist hash of the current position, including the side
+     * to move, as for Board.zobristKey.
+     */
+    long zobristKey() {
+        return hash() ^ (_turn == BLACK ? Zobrist.BLACK_TO_MOVE : 0);
+    }
+
+    /**
+     * Return the symmetry mapping the current position to its canonical
+     * form, as for Board.canonicalSymmetry.
+     */
+    int canonicalSymmetry() {
+        int best = Symmetry.IDENTITY;
+        for (int t = 1; t < Symmetry.COUNT; t += 1) {
+            if (_sym[t] < _sym[best]) {
+                best = t;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Return the hash of the canonical form of the current position,
+     * including the side to move, as for Board.canonicalKey.
+     */
+    long canonicalKey() {
+        return _sym[canonicalSymmetry()]
+            ^ (_turn == BLACK ? Zobrist.BLACK_TO_MOVE : 0);
+    }
+
+    /**
+     * Return the side (WHITE or BLACK) owning cell contents C, or EMPTY.
+     */
+    static int side(int c) {
+        return c == KING ? WHITE : c;
+    }
+
+    /**
+     * Return the opponent of SIDE (WHITE or BLACK).
+     */
+    static int opponent(int side) {
+        return side == WHITE ? BLACK : WHITE;
+    }
+
+    /**
+     * Store the legal moves for the side to move into MOVES, starting at
+     * index 0, and return their number.  MOVES must have room for
+     * MAX_MOVES entries.
+     */
+    int legalMoves(int[] moves) {
+        return legalMoves(_turn, moves);
+    }
+
+    /**
+     * Store the legal moves for SIDE (ignoring whose turn it is) into
+     * MOVES, starting at index 0, and return their number.
+     */
+    int legalMoves(int side, int[] moves) {
+        int n = 0;
+        for (int from = 0; from < NUM_SQUARES; from += 1) {
+            int c = _cells[from];
+            if (c == EMPTY || side(c) != side) {
+                continue;
+            }
+            int base = from * NUM_SQUARES;
+            for (int[] ray : RAYS[from]) {
+                for (int to : ray) {
+                    if (_cells[to] != EMPTY) {
+                        break;
+                    } else if (to == THRONE && c != KING) {
+                        continue;
+                    }
+                    moves[n] = base + to;
+                    n += 1;
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Return the number of legal moves for the side to move, without
+     * storing them.
+     */
+    int countMoves() {
+        int n = 0;
+        for (int from = 0; from < NUM_SQUARES; from += 1) {
+            int c = _cells[from];
+            if (c == EMPTY || side(c) != _turn) {
+                continue;
+            }
+            for (int[] ray : RAYS[from]) {
+                for (int to : ray) {
+                    if (_cells[to] != EMPTY) {
+                        break;
+                    } else if (to != THRONE || c == KING) {
+                        n += 1;
+                    }
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Return true iff SIDE has a legal move.
+     */
+    boolean hasMove(int side) {
+        for (int from = 0; from < NUM_SQUARES; from += 1) {
+            int c = _cells[from];
+            if (c == EMPTY || side(c) != side) {
+                continue;
+            }
+            for (int[] ray : RAYS[from]) {
+                for (int to : ray) {
+                    if (_cells[to] != EMPTY) {
+                        break;
+                    } else if (to != THRONE || c == KING) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return a move by which the king reaches the edge at once (a win for
+     * WHITE), or -1 if there is none.
+     */
+    int kingEscape() {
+        if (_king < 0) {
+            return -1;
+        }
+        for (int[] ray : RAYS[_king]) {
+            if (ray.length == 0) {
+                continue;
+            }
+            int k;
+            k = 0;
+            while (k < ray.length && _cells[ray[k]] == EMPTY) {
+                k += 1;
+            }
+            if (k == ray.length) {
+                return _king * NUM_SQUARES + ray[k - 1];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Make MOVE, which must be legal in the current position, for the side
+     * to move, updating the winner as Board.makeMove does.
+     */
+    void makeMove(int move) {
+        int from = move / NUM_SQUARES, to = move % NUM_SQUARES;
+        int mover = _turn;
+        if (_ply + 1 >= _hashes.length) {
+            _hashes = Arrays.copyOf(_hashes, 2 * _hashes.length);
+            _undo = Arrays.copyOf(_undo, 2 * _undo.length);
+        }
+        long undo = move | ((long) _winner << UNDO_WINNER)
+            | (_repeated ? 1L << UNDO_REPEATED : 0)
+            | ((long) _lastCapture << UNDO_LAST_CAPTURE);
+        int c = _cells[from];
+        set(from, EMPTY);
+        set(to, c);
+        long captures = handleCaptures(to, mover);
+        _undo[_ply] = undo | (captures << UNDO_CAPTURES);
+        _ply += 1;
+        if (captures != 0) {
+            _lastCapture = _ply;
+        }
+        _turn = opponent(mover);
+        _moveCount += 1;
+        _hashes[_ply] = hash();
+        updateWinner();
+    }
+
+    /**
+     * Undo the last move made on me by makeMove.
+     */
+    void undoMove() {
+        assert _ply > 0;
+        _ply -= 1;
+        long undo = _undo[_ply];
+        int move = (int) (undo & UNDO_MOVE_MASK);
+        int from = move / NUM_SQUARES, to = move % NUM_SQUARES;
+        _turn = opponent(_turn);
+        _moveCount -= 1;
+        long captures = undo >>> UNDO_CAPTURES;
+        for (; captures != 0; captures >>>= CAPTURE_BITS) {
+            int s = (int) (captures & SQUARE_MASK) - 1;
+            set(s, (int) ((captures >>> SQUARE_BITS) & CELL_MASK));
+        }
+        int c = _cells[to];
+        set(to, EMPTY);
+        set(from, c);
+        _winner = (int) ((undo >>> UNDO_WINNER) & CELL_MASK);
+        _repeated = ((undo >>> UNDO_REPEATED) & 1) != 0;
+        _lastCapture = (int) ((undo >>> UNDO_LAST_CAPTURE) & UNDO_PLY_MASK);
+    }
+
+    /**
+     * Set square S to cell contents C, maintaining the hashes, piece
+     * counts, and king location.
+     */
+    private void set(int s, int c) {
+        int old = _cells[s];
+        for (int t = 0; t < Symmetry.COUNT; t += 1) {
+            int image = Symmetry.square(t, s);
+            _sym[t] ^= Zobrist.key(old, image) ^ Zobrist.key(c, image);
+        }
+        _count[old] -= 1;
+        _count[c] += 1;
+        _cells[s] = c;
+        if (c == KING) {
+            _king = s;
+        } else if (old == KING) {
+            _king = -1;
+        }
+    }
+
+    /**
+     * Perform the captures caused by MOVER's piece arriving at TO, as for
+     * Board.handleCaptures.  Return the captured pieces, packed
+     * CAPTURE_BITS apiece as (square + 1) | (contents << SQUARE_BITS).
+     */
+    private long handleCaptures(int to, int mover) {
+        long captures = 0;
+        int shift = 0;
+        for (int dir = 0; dir < 4; dir += 1) {
+            int n = NEIGHBORS[to][dir];
+            if (n < 0) {
+                continue;
+            }
+            int enemy = _cells[n];
+            if (enemy != opponent(mover)
+                && !(mover == BLACK && enemy == KING)) {
+                continue;
+            }
+            boolean captured;
+            if (enemy == KING && IS_THRONE[n]) {
+                captured = true;
+                for (int k : NEIGHBORS[n]) {
+                    if (_cells[k] != BLACK && k != THRONE) {
+                        captured = false;
+                        break;
+                    }
+                }
+            } else {
+                int end = NEIGHBORS[n][dir];
+                captured = end >= 0 && isHostile(end, mover);
+                if (captured && enemy == KING) {
+                    _winner = mover;
+                }
+            }
+            if (captured) {
+                set(n, EMPTY);
+                captures |= (long) ((n + 1) | (enemy << SQUARE_BITS)) << shift;
+                shift += CAPTURE_BITS;
+            }
+        }
+        return captures;
+    }
+
+    /**
+     * Return true iff square S is hostile to the opponents of MOVER, as
+     * for Board.isHostile.
+     */
+    private boolean isHostile(int s, int mover) {
+        int c = _cells[s];
+        if (s == THRONE && c == KING && mover == BLACK) {
+            int blacks = 0;
+            for (int k : NEIGHBORS[s]) {
+                if (_cells[k] == BLACK) {
+                    blacks += 1;
+                }
+            }
+            return blacks == 3;
+        } else if (s == THRONE && c == EMPTY) {
+            return true;
+        } else {
+            return c == mover || mover == WHITE && c == KING;
+        }
+    }
+
+    /**
+     * Update the winner after a move, as for Board.updateWinner.
+     */
+    private void updateWinner() {
+        if (_king < 0) {
+            _winner = BLACK;
+        } else if (EDGE[_king]) {
+            _winner = WHITE;
+        } else if (!hasMove(_turn)) {
+            _winner = opponent(_turn);
+        }
+        long hash = hash();
+        if (isRepeated(hash)) {
+            _repeated = true;
+            _winner = _turn;
+        }
+        int mover = opponent(_turn);
+        int moverMoves = mover == BLACK ? (_moveCount + 1) / 2
+            : _moveCount / 2;
+        if (moverMoves > _limit) {
+            _winner = _turn;
+        }
+    }
+
+    /**
+     * Return true iff the placement of pieces whose hash is HASH was
+     * reached earlier since the last capture, among the moves made on me
+     * or, if I have made no capture, among my earlier positions.
+     */
+    private boolean isRepeated(long hash) {
+        for (int p = _ply - 1; p >= _lastCapture; p -= 1) {
+            if (_hashes[p] == hash) {
+                return true;
+            }
+        }
+        if (_lastCapture == 0) {
+            for (long earlier : _earlier) {
+                if (earlier == hash) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Number of bits in a square index (plus one).
+     */
+    private static final int SQUARE_BITS = 7;
+    /**
+     * Mask for a square index (plus one).
+     */
+    private static final long SQUARE_MASK = (1 << SQUARE_BITS) - 1;
+    /**
+     * Mask for a cell content code.
+     */
+    private static final long CELL_MASK = 3;
+    /**
+     * Number of bits in one packed capture.
+     */
+    private static final int CAPTURE_BITS = SQUARE_BITS + 2;
+    /**
+     * Layout of the undo records: the move occupies the low bits,
+     * followed by the previous winner, repeated flag, and
+     * last-capture ply, with the packed captures on top.
+     */
+    private static final int UNDO_WINNER = 13, UNDO_REPEATED = 15,
+        UNDO_LAST_CAPTURE = 16, UNDO_CAPTURES = 36;
+    /**
+     * Masks for the move and ply fields of an undo record.
+     */
+    private static final long UNDO_MOVE_MASK = (1 << UNDO_WINNER) - 1,
+        UNDO_PLY_MASK = (1L << (UNDO_CAPTURES - UNDO_LAST_CAPTURE)) - 1;
+    /**
+     * Initial length of the history arrays.
+     */
+    private static final int INITIAL_PLIES = 256;
+
+    /**
+     * The earlier positions of a FastBoard with no game history.
+     */
+    private static final long[] NO_POSITIONS = new long[0];
+
+    /**
+     * Pieces by cell code.
+     */
+    private static final Piece[] PIECES = Piece.values();
+
+    /**
+     * RAYS[s][d] lists the squares one rook move away from s in direction
+     * d, in order of increasing distance (as for Square.ROOK_SQUARES).
+     */
+    private static final int[][][] RAYS = new int[NUM_SQUARES][4][];
+    /**
+     * NEIGHBORS[s][d] is the square adjacent to s in direction d, or -1.
+     */
+    private static final int[][] NEIGHBORS = new int[NUM_SQUARES][4];
+    /**
+     * EDGE[s] is true iff s is on the edge of the board.
+     */
+    private static final boolean[] EDGE = new boolean[NUM_SQUARES];
+    /**
+     * IS_THRONE[s] is true iff s is the throne or adjacent to it.
+     */
+    private static final boolean[] IS_THRONE = new boolean[NUM_SQUARES];
+
+    static {
+        for (Square s : SQUARE_LIST) {
+            int i = s.index();
+            EDGE[i] = s.isEdge();
+            for (int d = 0; d < 4; d += 1) {
+                RAYS[i][d] = new int[ROOK_SQUARES[i][d].size()];
+                for (int k = 0; k < RAYS[i][d].length; k += 1) {
+                    RAYS[i][d][k] = ROOK_SQUARES[i][d].get(k).index();
+                }
+                NEIGHBORS[i][d] = RAYS[i][d].length > 0 ? RAYS[i][d][0] : -1;
+            }
+        }
+        for (Square s : Board.THRONES) {
+            IS_THRONE[s.index()] = true;
+        }
+    }
+
+    /**
+     * Cell contents, indexed by square.
+     */
+    private final int[] _cells;
+    /**
+     * Number of cells with each content code.
+     */
+    private final int[] _count = new int[4];
+    /**
+     * Side to move and winner (EMPTY if none), as cell codes.
+     */
+    private int _turn, _winner;
+    /**
+     * True iff the game ended in a repeated position.
+     */
+    private boolean _repeated;
+    /**
+     * Moves since the initial position, and the move limit.
+     */
+    private int _moveCount, _limit;
+    /**
+     * Square of the king, or -1.
+     */
+    private int _king;
+    /**
+     * _sym[t] is the Zobrist hash of the placement of pieces after
+     * applying symmetry t.
+     */
+    private final long[] _sym = new long[Symmetry.COUNT];
+    /**
+     * Number of moves made since copyFrom, and the ply after the most
+     * recent capture among them (0 if none).
+     */
+    private int _ply, _lastCapture;
+    /**
+     * _hashes[p] is the hash of the position after p moves.
+     */
+    private long[] _hashes;
+    /**
+     * _undo[p] is the undo record for move p + 1.
+     */
+    private long[] _undo;
+    /**
+     * Hashes of the positions of the game I was copied from since its
+     * last capture (see copyGameFrom), which are never changed.
+     */
+    private long[] _earlier = NO_POSITIONS;
+}
@@ -13,6 +13,7 @@ import java.io.IOException;
 import java.io.StringWriter;
 
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The GUI controller for a Tablut board and buttons.
@@ -46,6 +47,8 @@ class GUI extends TopLevel implements View, Reporter {
      */
     GUI(String title) {
         super(title, true);
+        addMenuButton("Game->New", this::newGame);
+        addMenuButton("Game->Undo", this::undo);
         addMenuButton("Game->Quit", this::quit);
         _widget = new BoardWidget(_pendingCommands);
         add(_widget,
@@ -56,6 +59,14 @@ class GUI extends TopLevel implements View, Reporter {
                 new LayoutSpec("x", 0, "y", 0,
                         "height", 1,
                         "width", 3));
+        addLabel("", "SearchStats",
+                new LayoutSpec("x", 0, "y", 2,
+                        "height", 1,
+                        "width", 3));
+        addLabel("", "Clock",
+                new LayoutSpec("x", 0, "y", 3,
+                        "height", 1,
+                        "width", 3));
     }
 
     /**
@@ -65,6 +76,34 @@ class GUI extends TopLevel implements View, Reporter {
         _pendingCommands.offer("quit");
     }
 
+    /**
+     * Response to "New" button click.
+     */
+    private void newGame(String dummy) {
+        _pendingCommands.offer("new");
+    }
+
+    /**
+     * Response to "Undo" button click.
+     */
+    private void undo(String dummy) {
+        _pendingCommands.offer("undo");
+    }
+
+    /**
+     * Return the next command generated by clicking on menu items,
+     * waiting at most MILLIS milliseconds for it, or null if there is
+     * none by then.  Moves on the board are not collected meanwhile, as
+     * when an automated player is searching for its move.
+     */
+    String pollCommand(long millis) {
+        try {
+            return _pendingCommands.poll(millis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException excp) {
+            throw new Error("unexpected interrupt");
+        }
+    }
+
     /**
      * Return the next command from our widget, waiting for it as necessary.
      * The BoardWidget uses _pendingCommands to queue up moves that it
@@ -94,6 +133,10 @@ class GUI extends TopLevel implements View, Reporter {
                             board.repeatedPosition()
                                     ? " (repeated board)"
                                     : ""));
+        } else if (controller.winner() != null) {
+            setLabel("CurrentTurn",
+                    String.format("Winner: %s (on time)",
+                            controller.winner().toName()));
         } else {
             setLabel("CurrentTurn",
                     String.format("To move: %s", board.turn().toName()));
@@ -153,6 +196,16 @@ class GUI extends TopLevel implements View, Reporter {
     public void reportMove(Move unused) {
     }
 
+    @Override
+    public void reportStats(String fmt, Object... args) {
+        setLabel("SearchStats", String.format(fmt, args));
+    }
+
+    @Override
+    public void reportClock(String fmt, Object... args) {
+        setLabel("Clock", String.format(fmt, args));
+    }
+
     /**
      * The board widget.
      */
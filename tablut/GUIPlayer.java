@@ -56,6 +56,15 @@ class GUIPlayer extends Player implements Reporter {
     public void reportMove(Move unused) {
     }
 
+    @Override
+    public void reportStats(String unused, Object... unusedArgs) {
+    }
+
+    @Override
+    public void reportClock(String fmt, Object... args) {
+        _gui.reportClock(fmt, args);
+    }
+
     /** The GUI I use for input. */
     private GUI _gui;
 }
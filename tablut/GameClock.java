@@ -0,0 +1,158 @@
+package tablut;
+
+import java.util.function.LongSupplier;
+
+import static tablut.Piece.*;
+
+/**
+ * A pair of game clocks, one for each side, with a base time and a
+ * (Fischer) increment added to a side's clock after each of its moves.
+ * At most one clock runs at a time: starting one side's clock stops the
+ * other's.  A side whose time runs out before it moves has lost.
+ *
+ * @author Kevin Moy
+ */
+class GameClock {
+
+    /**
+     * Clocks with BASE milliseconds each, to which INCREMENT milliseconds
+     * are added after each move.
+     */
+    GameClock(long base, long increment) {
+        this(base, increment, System::nanoTime);
+    }
+
+    /**
+     * Clocks as above that read the time, in nanoseconds, from NANOS (to
+     * allow testing without waiting).
+     */
+    GameClock(long base, long increment, LongSupplier nanos) {
+        if (base <= 0 || increment < 0) {
+            throw Utils.error("bad clock setting");
+        }
+        _base = base;
+        _increment = increment;
+        _nanos = nanos;
+        reset();
+    }
+
+    /**
+     * Stop the clocks and set both to the base time.
+     */
+    void reset() {
+        _remaining[WHITE.ordinal()] = _remaining[BLACK.ordinal()] = _base;
+        _running = null;
+    }
+
+    /**
+     * Run SIDE's clock, stopping the other's.  Does nothing if SIDE's
+     * clock is already running.
+     */
+    void start(Piece side) {
+        if (_running != side) {
+            stop();
+            _running = side;
+            _started = _nanos.getAsLong();
+        }
+    }
+
+    /**
+     * Stop the running clock, if any, charging it with the time since it
+     * was started.
+     */
+    void stop() {
+        if (_running != null) {
+            _remaining[_running.ordinal()] = remaining(_running);
+            _running = null;
+        }
+    }
+
+    /**
+     * Add the increment to SIDE's clock, as after each of its moves.
+     */
+    void addIncrement(Piece side) {
+        _remaining[side.ordinal()] = remaining(side) + _increment;
+        if (_running == side) {
+            _started = _nanos.getAsLong();
+        }
+    }
+
+    /**
+     * Return the side whose clock is running, or null.
+     */
+    Piece running() {
+        return _running;
+    }
+
+    /**
+     * Return the time left to SIDE in milliseconds (negative once its
+     * flag has fallen), counting the time since its clock was started if
+     * it is running.
+     */
+    long remaining(Piece side) {
+        long left = _remaining[side.ordinal()];
+        if (_running == side) {
+            left -= (_nanos.getAsLong() - _started) / 1_000_000;
+        }
+        return left;
+    }
+
+    /**
+     * Return true iff SIDE has run out of time.
+     */
+    boolean flagged(Piece side) {
+        return remaining(side) <= 0;
+    }
+
+    /**
+     * Return the base time in milliseconds.
+     */
+    long base() {
+        return _base;
+    }
+
+    /**
+     * Return the increment in milliseconds.
+     */
+    long increment() {
+        return _increment;
+    }
+
+    /**
+     * Return MILLIS formatted as minutes, seconds, and tenths.
+     */
+    static String format(long millis) {
+        long tenths = Math.max(0, millis) / 100;
+        return String.format("%d:%02d.%d", tenths / 600, tenths / 10 % 60,
+                             tenths % 10);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("White %s, Black %s",
+                             format(remaining(WHITE)),
+                             format(remaining(BLACK)));
+    }
+
+    /**
+     * Base time and increment in milliseconds.
+     */
+    private final long _base, _increment;
+    /**
+     * Source of the current time in nanoseconds.
+     */
+    private final LongSupplier _nanos;
+    /**
+     * Milliseconds left to each side (indexed by Piece ordinal) as of
+     * the last time its clock stopped.
+     */
+    private final long[] _remaining = new long[Piece.values().length];
+    /**
+     * The side whose clock is running, or null.
+     */
+    private Piece _running;
+    /**
+     * Time (from _nanos) at which the running clock was started.
+     */
+    private long _started;
+}
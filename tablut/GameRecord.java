@@ -0,0 +1,240 @@
+package tablut;
+
+import java.util.List;
+
+import static tablut.Piece.KING;
+import static tablut.Square.SQUARE_LIST;
+
+/**
+ * A complete game in the form stored by GameRecordWriter: its starting
+ * position (null for the initial position), the move limit and random
+ * seed under which it was played, its winner, and its moves as indices
+ * (as for Move.index()).
+ *
+ * In a record file, which starts with the four bytes "TBLG" and a
+ * version byte, each game is a header of
+ *     2 bytes   number of moves
+ *     1 byte    flags: winner (0 none, 1 white, 2 black) in bits 0-1,
+ *               CUSTOM_START in bit 2, WHITE_TO_MOVE in bit 3
+ *     4 bytes   move limit
+ *     8 bytes   seed
+ *    21 bytes   starting position, 2 bits per square (only if
+ *               CUSTOM_START)
+ * followed by one 2-byte move index per move, all big-endian.
+ *
+ * @author Kevin Moy
+ */
+class GameRecord {
+
+    /**
+     * First bytes of a record file.
+     */
+    static final byte[] MAGIC = { 'T', 'B', 'L', 'G' };
+    /**
+     * Current format version.
+     */
+    static final int VERSION = 1;
+    /**
+     * Flag bits.
+     */
+    static final int WINNER_MASK = 3, CUSTOM_START = 4, WHITE_TO_MOVE = 8;
+    /**
+     * Size of a game header, not counting the starting position.
+     */
+    static final int HEADER_SIZE = 15;
+    /**
+     * Size of a packed position.
+     */
+    static final int POSITION_SIZE = (SQUARE_LIST.size() + 3) / 4;
+
+    /**
+     * The game that starts from START (encoded as for
+     * Board.encodedBoard(), or null for the initial position), with move
+     * limit LIMIT and random seed SEED, and consists of MOVES, won by
+     * WINNER (null if unfinished).
+     */
+    GameRecord(String start, int limit, long seed, Piece winner,
+               List<Move> moves) {
+        _start = start;
+        _limit = limit;
+        _seed = seed;
+        _winner = winner;
+        _moves = new int[moves.size()];
+        for (int k = 0; k < _moves.length; k += 1) {
+            _moves[k] = moves.get(k).index();
+        }
+    }
+
+    /**
+     * The game that starts from START (as above), with limit LIMIT, seed
+     * SEED, winner WINNER and move indices MOVES.
+     */
+    GameRecord(String start, int limit, long seed, Piece winner,
+               int[] moves) {
+        _start = start;
+        _limit = limit;
+        _seed = seed;
+        _winner = winner;
+        _moves = moves.clone();
+    }
+
+    /**
+     * Return the encoded starting position, or null for the initial
+     * position.
+     */
+    String start() {
+        return _start;
+    }
+
+    /**
+     * Return the move limit.
+     */
+    int limit() {
+        return _limit;
+    }
+
+    /**
+     * Return the random seed of the game.
+     */
+    long seed() {
+        return _seed;
+    }
+
+    /**
+     * Return the winner, or null.
+     */
+    Piece winner() {
+        return _winner;
+    }
+
+    /**
+     * Return the number of moves.
+     */
+    int length() {
+        return _moves.length;
+    }
+
+    /**
+     * Return the index of move K (numbered from 0).
+     */
+    int move(int k) {
+        return _moves[k];
+    }
+
+    /**
+     * Return a Board holding the final position of this game, checking
+     * that every move is legal and that the winner is as recorded.
+     */
+    Board replay() {
+        Board board = new Board();
+        if (_start != null) {
+            board.setEncodedBoard(_start);
+        }
+        board.setMoveLimit(_limit);
+        for (int k = 0; k < _moves.length; k += 1) {
+            Move move = Move.mv(_moves[k]);
+            if (!isPlayable(board, move)) {
+                throw new IllegalArgumentException("illegal move "
+                                                   + (k + 1));
+            }
+            board.makeMove(move);
+        }
+        if (board.winner() != _winner) {
+            throw new IllegalArgumentException("wrong result");
+        }
+        return board;
+    }
+
+    /**
+     * Return true iff MOVE is non-null and legal on BOARD, whose game
+     * must not be over.  Unlike Board.isLegal, this prints nothing.
+     */
+    static boolean isPlayable(Board board, Move move) {
+        return board.winner() == null && move != null
+            && board.get(move.from()).side() == board.turn()
+            && board.isUnblockedMove(move.from(), move.to())
+            && (move.to() != Board.THRONE || board.get(move.from()) == KING);
+    }
+
+    /**
+     * Pack the position ENCODED (as for Board.encodedBoard()) into
+     * POSITION_SIZE bytes of BUF starting at OFFSET.  Return the flag
+     * bits describing the side to move.
+     */
+    static int packPosition(String encoded, byte[] buf, int offset) {
+        for (int k = 0; k < POSITION_SIZE; k += 1) {
+            buf[offset + k] = 0;
+        }
+        for (int s = 0; s < SQUARE_LIST.size(); s += 1) {
+            int code = "-WBK".indexOf(encoded.charAt(s + 1));
+            buf[offset + s / 4] |= (byte) (code << (2 * (s % 4)));
+        }
+        return encoded.charAt(0) == 'W' ? WHITE_TO_MOVE : 0;
+    }
+
+    /**
+     * Pack the current position of BOARD into POSITION_SIZE bytes of BUF
+     * starting at OFFSET, as for packPosition(String, ...).  Return the
+     * flag bits describing the side to move.
+     */
+    static int packPosition(FastBoard board, byte[] buf, int offset) {
+        for (int k = 0; k < POSITION_SIZE; k += 1) {
+            buf[offset + k] = 0;
+        }
+        for (int s = 0; s < SQUARE_LIST.size(); s += 1) {
+            buf[offset + s / 4] |= (byte) (board.get(s) << (2 * (s % 4)));
+        }
+        return board.turn() == FastBoard.WHITE ? WHITE_TO_MOVE : 0;
+    }
+
+    /**
+     * The inverse of packPosition: return the position packed in BUF at
+     * OFFSET, with the side to move given by FLAGS, in the format of
+     * Board.encodedBoard().
+     */
+    static String unpackPosition(byte[] buf, int offset, int flags) {
+        char[] result = new char[SQUARE_LIST.size() + 1];
+        result[0] = (flags & WHITE_TO_MOVE) != 0 ? 'W' : 'B';
+        for (int s = 0; s < SQUARE_LIST.size(); s += 1) {
+            int code = (buf[offset + s / 4] >> (2 * (s % 4))) & 3;
+            result[s + 1] = "-WBK".charAt(code);
+        }
+        return new String(result);
+    }
+
+    /**
+     * Return the flag bits for WINNER.
+     */
+    static int winnerFlags(Piece winner) {
+        return winner == null ? 0 : winner.ordinal();
+    }
+
+    /**
+     * Return the winner described by FLAGS.
+     */
+    static Piece winner(int flags) {
+        int code = flags & WINNER_MASK;
+        return code == 0 ? null : Piece.values()[code];
+    }
+
+    /**
+     * The starting position, or null.
+     */
+    private final String _start;
+    /**
+     * The move limit.
+     */
+    private final int _limit;
+    /**
+     * The random seed.
+     */
+    private final long _seed;
+    /**
+     * The winner, or null.
+     */
+    private final Piece _winner;
+    /**
+     * Move indices.
+     */
+    private final int[] _moves;
+}
@@ -0,0 +1,287 @@
+package tablut;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static tablut.Square.SQUARE_LIST;
+
+/**
+ * Reads the games in a game record file (see GameRecord) one at a time.
+ * A file small enough is memory-mapped; otherwise, and for streams, the
+ * reader fills a buffer of its own.  Reading a game allocates nothing:
+ * the accessors describe the current game until the next call of next,
+ * and startPosition with FastBoard.makeMove replays it, so that millions
+ * of games can be replayed a minute.  Call record() for a GameRecord
+ * that outlives the current game.
+ *
+ * @author Kevin Moy
+ */
+class GameRecordReader implements Closeable {
+
+    /**
+     * Size of the read buffer, which holds any game.
+     */
+    private static final int BUFFER_SIZE = 1 << 18;
+
+    /**
+     * Largest file that is memory-mapped.
+     */
+    private static final long MAX_MAPPED = Integer.MAX_VALUE;
+
+    /**
+     * A reader for the game record file FILE.
+     */
+    GameRecordReader(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        if (channel.size() <= MAX_MAPPED) {
+            _buf = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                               channel.size());
+            _channel = null;
+            channel.close();
+        } else {
+            _buf = ByteBuffer.allocate(BUFFER_SIZE);
+            _buf.flip();
+            _channel = channel;
+        }
+        readFileHeader();
+    }
+
+    /**
+     * A reader for the game record file read from IN.
+     */
+    GameRecordReader(InputStream in) throws IOException {
+        _buf = ByteBuffer.allocate(BUFFER_SIZE);
+        _buf.flip();
+        _channel = Channels.newChannel(in);
+        readFileHeader();
+    }
+
+    /**
+     * Return true iff FILE starts as a game record file does.
+     */
+    static boolean isRecordFile(Path file) throws IOException {
+        byte[] magic = new byte[GameRecord.MAGIC.length];
+        try (InputStream in = Files.newInputStream(file)) {
+            int n = in.readNBytes(magic, 0, magic.length);
+            return n == magic.length
+                && Arrays.equals(magic, GameRecord.MAGIC);
+        }
+    }
+
+    /**
+     * Check the magic number and version at the start of the file.
+     */
+    private void readFileHeader() throws IOException {
+        if (!fill(GameRecord.MAGIC.length + 1)) {
+            throw new IOException("not a game record file");
+        }
+        for (byte b : GameRecord.MAGIC) {
+            if (_buf.get() != b) {
+                throw new IOException("not a game record file");
+            }
+        }
+        if (_buf.get() != GameRecord.VERSION) {
+            throw new IOException("unsupported game record version");
+        }
+    }
+
+    /**
+     * Advance to the next game.  Return false if there are no more.
+     */
+    boolean next() throws IOException {
+        _buf.position(_buf.position() + _skip);
+        _skip = 0;
+        if (!fill(1)) {
+            return false;
+        }
+        if (!fill(GameRecord.HEADER_SIZE)) {
+            throw new IOException("truncated game record");
+        }
+        _length = _buf.getShort() & 0xffff;
+        _flags = _buf.get();
+        _limit = _buf.getInt();
+        _seed = _buf.getLong();
+        int size = 2 * _length;
+        if ((_flags & GameRecord.CUSTOM_START) != 0) {
+            size += GameRecord.POSITION_SIZE;
+        }
+        if (!fill(size)) {
+            throw new IOException("truncated game record");
+        }
+        if ((_flags & GameRecord.CUSTOM_START) != 0) {
+            _buf.get(_position);
+        }
+        _moves = _buf.position();
+        _skip = 2 * _length;
+        _count += 1;
+        return true;
+    }
+
+    /**
+     * Return the number of games read so far.
+     */
+    int count() {
+        return _count;
+    }
+
+    /**
+     * Return the number of moves in the current game.
+     */
+    int length() {
+        return _length;
+    }
+
+    /**
+     * Return the index of move K of the current game.
+     */
+    int move(int k) {
+        return _buf.getShort(_moves + 2 * k) & 0xffff;
+    }
+
+    /**
+     * Return the winner of the current game, or null.
+     */
+    Piece winner() {
+        return GameRecord.winner(_flags);
+    }
+
+    /**
+     * Return the move limit of the current game.
+     */
+    int limit() {
+        return _limit;
+    }
+
+    /**
+     * Return the random seed of the current game.
+     */
+    long seed() {
+        return _seed;
+    }
+
+    /**
+     * Return the starting position of the current game, encoded as for
+     * Board.encodedBoard(), or null for the initial position.
+     */
+    String start() {
+        if ((_flags & GameRecord.CUSTOM_START) == 0) {
+            return null;
+        }
+        return GameRecord.unpackPosition(_position, 0, _flags);
+    }
+
+    /**
+     * Set BOARD to the starting position of the current game.
+     */
+    void startPosition(FastBoard board) {
+        if ((_flags & GameRecord.CUSTOM_START) == 0) {
+            board.setPosition(INITIAL_CELLS, INITIAL_TURN, _limit);
+            return;
+        }
+        for (int s = 0; s < SQUARE_LIST.size(); s += 1) {
+            _cells[s] = (_position[s / 4] >> (2 * (s % 4))) & 3;
+        }
+        int turn = (_flags & GameRecord.WHITE_TO_MOVE) != 0
+            ? FastBoard.WHITE : FastBoard.BLACK;
+        board.setPosition(_cells, turn, _limit);
+    }
+
+    /**
+     * Return the current game as a GameRecord.
+     */
+    GameRecord record() {
+        int[] moves = new int[_length];
+        for (int k = 0; k < _length; k += 1) {
+            moves[k] = move(k);
+        }
+        return new GameRecord(start(), _limit, _seed, winner(), moves);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (_channel != null) {
+            _channel.close();
+        }
+    }
+
+    /**
+     * Make sure that at least N unread bytes are in the buffer, reading
+     * more if needed.  Return false if the input ends first.
+     */
+    private boolean fill(int n) throws IOException {
+        if (_buf.remaining() >= n) {
+            return true;
+        } else if (_channel == null) {
+            return false;
+        }
+        _buf.compact();
+        while (_buf.position() < n && _channel.read(_buf) > 0) {
+            continue;
+        }
+        _buf.flip();
+        return _buf.remaining() >= n;
+    }
+
+    /**
+     * Cell codes of the initial position.
+     */
+    private static final int[] INITIAL_CELLS = new int[SQUARE_LIST.size()];
+    /**
+     * Side to move in the initial position.
+     */
+    private static final int INITIAL_TURN;
+
+    static {
+        Board initial = new Board();
+        for (Square s : SQUARE_LIST) {
+            INITIAL_CELLS[s.index()] = initial.get(s).ordinal();
+        }
+        INITIAL_TURN = initial.turn().ordinal();
+    }
+
+    /**
+     * Buffered or mapped file contents.
+     */
+    private final ByteBuffer _buf;
+    /**
+     * Source of more data, or null if _buf holds the whole file.
+     */
+    private final ReadableByteChannel _channel;
+    /**
+     * Packed starting position of the current game.
+     */
+    private final byte[] _position = new byte[GameRecord.POSITION_SIZE];
+    /**
+     * Cell codes used by startPosition.
+     */
+    private final int[] _cells = new int[SQUARE_LIST.size()];
+    /**
+     * Header fields of the current game.
+     */
+    private int _length, _flags, _limit;
+    /**
+     * Random seed of the current game.
+     */
+    private long _seed;
+    /**
+     * Buffer position of the current game's moves.
+     */
+    private int _moves;
+    /**
+     * Bytes of the current game not yet skipped.
+     */
+    private int _skip;
+    /**
+     * Number of games read.
+     */
+    private int _count;
+}
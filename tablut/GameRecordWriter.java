@@ -0,0 +1,94 @@
+package tablut;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes games, one at a time as they finish, to a game record file in
+ * the format described in GameRecord.  Games may be written from several
+ * threads at once; each is written whole.
+ *
+ * @author Kevin Moy
+ */
+class GameRecordWriter implements Closeable {
+
+    /**
+     * Largest number of moves in a recorded game.
+     */
+    static final int MAX_LENGTH = 0xffff;
+
+    /**
+     * Size of the output buffer in bytes.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * A writer that writes a new game record file to OUT.
+     */
+    GameRecordWriter(OutputStream out) throws IOException {
+        _out = new DataOutputStream(new BufferedOutputStream(out,
+                                                             BUFFER_SIZE));
+        _out.write(GameRecord.MAGIC);
+        _out.writeByte(GameRecord.VERSION);
+    }
+
+    /**
+     * Append GAME to the file.
+     */
+    synchronized void write(GameRecord game) throws IOException {
+        if (game.length() > MAX_LENGTH) {
+            throw new IllegalArgumentException("game too long to record");
+        }
+        int flags = GameRecord.winnerFlags(game.winner());
+        if (game.start() != null) {
+            flags |= GameRecord.packPosition(game.start(), _position, 0)
+                | GameRecord.CUSTOM_START;
+        }
+        _out.writeShort(game.length());
+        _out.writeByte(flags);
+        _out.writeInt(game.limit());
+        _out.writeLong(game.seed());
+        if (game.start() != null) {
+            _out.write(_position);
+        }
+        for (int k = 0; k < game.length(); k += 1) {
+            _out.writeShort(game.move(k));
+        }
+        _count += 1;
+    }
+
+    /**
+     * Return the number of games written so far.
+     */
+    synchronized int count() {
+        return _count;
+    }
+
+    /**
+     * Write out any buffered games.
+     */
+    synchronized void flush() throws IOException {
+        _out.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        _out.close();
+    }
+
+    /**
+     * The destination.
+     */
+    private final DataOutputStream _out;
+    /**
+     * Buffer for packing starting positions.
+     */
+    private final byte[] _position = new byte[GameRecord.POSITION_SIZE];
+    /**
+     * Number of games written.
+     */
+    private int _count;
+}
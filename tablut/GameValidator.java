@@ -0,0 +1,331 @@
+package tablut;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Replays archived games through Board.makeMove, checking that every
+ * move is legal and that every recorded result is the one the rules now
+ * give, as after a change to the rules.  An archive is any mix of files
+ * and directories (searched recursively), each file being either a game
+ * record file (see GameRecord), recognized by its first bytes, or a text
+ * command script such as a log written by Controller.  In a script,
+ * "new" starts a game, "undo", "redo", "goto", "limit", and "toggle" act
+ * as they do for Controller, other commands are ignored, and a comment
+ * "# SIDE wins." records a result.
+ *
+ * Files are validated concurrently on a pool of threads, each streaming
+ * through its file, and only a fixed number of files per thread are
+ * queued at any time, so that archives of any size can be checked.
+ * Problems are printed as they are found.
+ *
+ * @author Kevin Moy
+ */
+class GameValidator {
+
+    /**
+     * Largest number of problems printed for one file.
+     */
+    static final int MAX_ERRORS_PER_FILE = 20;
+
+    /**
+     * Number of files per thread that may be queued.
+     */
+    private static final int PENDING_PER_THREAD = 4;
+
+    /**
+     * A validator that prints problems on OUT.
+     */
+    GameValidator(PrintStream out) {
+        _out = out;
+    }
+
+    /**
+     * Validate the files in PATHS, on THREADS threads.  Return the number
+     * of problems found.
+     */
+    long validate(List<Path> paths, int threads) throws IOException {
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "validator");
+            t.setDaemon(true);
+            return t;
+        });
+        ArrayDeque<Future<?>> pending = new ArrayDeque<>();
+        int maxPending = PENDING_PER_THREAD * threads;
+        try {
+            for (Path root : paths) {
+                try (Stream<Path> files = Files.walk(root)) {
+                    Iterator<Path> iter = files.filter(Files::isRegularFile)
+                        .sorted().iterator();
+                    while (iter.hasNext()) {
+                        Path file = iter.next();
+                        if (pending.size() >= maxPending) {
+                            pending.remove().get();
+                        }
+                        pending.add(pool.submit(() -> validateFile(file)));
+                    }
+                }
+            }
+            while (!pending.isEmpty()) {
+                pending.remove().get();
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("validation interrupted");
+        } catch (ExecutionException excp) {
+            throw new IllegalStateException(excp.getCause().getMessage());
+        } finally {
+            pool.shutdownNow();
+        }
+        _nanos = System.nanoTime() - start;
+        return _errors.get();
+    }
+
+    /**
+     * Validate FILE, whichever kind it is.
+     */
+    void validateFile(Path file) {
+        _files.incrementAndGet();
+        try {
+            if (GameRecordReader.isRecordFile(file)) {
+                validateRecords(file);
+            } else {
+                validateScript(file);
+            }
+        } catch (IOException excp) {
+            _errors.incrementAndGet();
+            report(file, "", "could not read: " + excp.getMessage());
+        }
+    }
+
+    /**
+     * Validate the game record file FILE.
+     */
+    private void validateRecords(Path file) throws IOException {
+        Board board = new Board();
+        int errors = 0;
+        long moves = 0;
+        try (GameRecordReader games = new GameRecordReader(file)) {
+            while (games.next()) {
+                int game = games.count();
+                String problem = null;
+                try {
+                    if (games.start() == null) {
+                        board.init();
+                    } else {
+                        board.setEncodedBoard(games.start());
+                    }
+                    board.setMoveLimit(games.limit());
+                } catch (IllegalArgumentException excp) {
+                    problem = "bad starting position";
+                }
+                for (int k = 0; problem == null && k < games.length();
+                     k += 1) {
+                    Move move = Move.mv(games.move(k));
+                    if (!GameRecord.isPlayable(board, move)) {
+                        problem = String.format("illegal move %d (%s)",
+                                                k + 1, move);
+                    } else {
+                        board.makeMove(move);
+                        moves += 1;
+                    }
+                }
+                if (problem == null && board.winner() != games.winner()) {
+                    problem = String.format("recorded winner %s, but"
+                                            + " replay gives %s",
+                                            name(games.winner()),
+                                            name(board.winner()));
+                }
+                if (problem != null && errors++ < MAX_ERRORS_PER_FILE) {
+                    report(file, "game " + game, problem);
+                }
+            }
+            _games.addAndGet(games.count());
+        }
+        _moves.addAndGet(moves);
+        addErrors(file, errors);
+    }
+
+    /**
+     * Validate the command script FILE.
+     */
+    private void validateScript(Path file) throws IOException {
+        Board board = new Board();
+        int errors = 0;
+        long moves = 0;
+        int games = 0;
+        boolean started, failed;
+        started = failed = false;
+        try (BufferedReader in = Files.newBufferedReader(file)) {
+            String line;
+            for (int lineNum = 1; (line = in.readLine()) != null;
+                 lineNum += 1) {
+                line = line.trim();
+                Matcher result = RESULT.matcher(line);
+                String problem = null;
+                if (result.matches()) {
+                    Piece winner = Piece.valueOf(result.group(1)
+                                                 .toUpperCase());
+                    if (!failed && winner != board.winner()) {
+                        problem = String.format("recorded winner %s, but"
+                                                + " replay gives %s",
+                                                name(winner),
+                                                name(board.winner()));
+                    }
+                }
+                line = line.replaceFirst("#.*", "").trim().toLowerCase();
+                Matcher toggle = TOGGLE.matcher(line);
+                Matcher limit = LIMIT.matcher(line);
+                Matcher seek = GOTO.matcher(line);
+                Matcher undo = UNDO.matcher(line);
+                if (line.equals("new")) {
+                    board.init();
+                    started = failed = false;
+                } else if (line.equals("quit")) {
+                    break;
+                } else if (undo.matches()) {
+                    int plies = undo.group(1) == null ? 2
+                        : Integer.parseInt(undo.group(1));
+                    if (plies > 0 && board.moveCount() >= plies) {
+                        for (int k = 0; k < plies; k += 1) {
+                            board.undo();
+                        }
+                        failed = false;
+                    }
+                } else if (line.equals("redo")) {
+                    board.redo();
+                } else if (seek.matches()) {
+                    try {
+                        board.seek(Integer.parseInt(seek.group(1)));
+                        failed = false;
+                    } catch (IllegalArgumentException excp) {
+                        problem = "bad goto";
+                    }
+                } else if (limit.matches()) {
+                    try {
+                        board.setMoveLimit(Integer.parseInt(limit.group(1)));
+                    } catch (IllegalArgumentException excp) {
+                        problem = "bad move limit";
+                    }
+                } else if (toggle.matches()) {
+                    board.toggle(Square.sq(toggle.group(1)));
+                } else if (Move.isGrammaticalMove(line) && !failed) {
+                    Move move = Move.mv(line);
+                    if (!started) {
+                        started = true;
+                        games += 1;
+                    }
+                    if (GameRecord.isPlayable(board, move)) {
+                        board.makeMove(move);
+                        moves += 1;
+                    } else {
+                        problem = "illegal move " + move;
+                        failed = true;
+                    }
+                }
+                if (problem != null && errors++ < MAX_ERRORS_PER_FILE) {
+                    report(file, "line " + lineNum, problem);
+                }
+            }
+        }
+        _games.addAndGet(games);
+        _moves.addAndGet(moves);
+        addErrors(file, errors);
+    }
+
+    /**
+     * Count ERRORS problems found in FILE, noting any not printed.
+     */
+    private void addErrors(Path file, int errors) {
+        _errors.addAndGet(errors);
+        if (errors > MAX_ERRORS_PER_FILE) {
+            report(file, "", String.format("%d more problems",
+                                           errors - MAX_ERRORS_PER_FILE));
+        }
+    }
+
+    /**
+     * Print PROBLEM, found at WHERE in FILE.
+     */
+    private synchronized void report(Path file, String where,
+                                     String problem) {
+        _out.printf("%s:%s %s%n", file, where.isEmpty() ? "" : where + ":",
+                    problem);
+    }
+
+    /**
+     * Return the name of WINNER, which may be null.
+     */
+    private static String name(Piece winner) {
+        return winner == null ? "none" : winner.toName();
+    }
+
+    /**
+     * Return a one-line summary of the last call of validate.
+     */
+    String summary() {
+        double secs = _nanos / 1e9;
+        return String.format("%d files, %d games, %d moves, %d problems"
+                             + " in %.1f s (%.0f moves/s)",
+                             _files.get(), _games.get(), _moves.get(),
+                             _errors.get(), secs,
+                             _moves.get() / Math.max(secs, 1e-9));
+    }
+
+    /**
+     * A recorded result in a script.
+     */
+    private static final Pattern RESULT =
+        Pattern.compile("#\\s*(White|Black) wins\\.?",
+                        Pattern.CASE_INSENSITIVE);
+    /**
+     * The "toggle" command.
+     */
+    private static final Pattern TOGGLE =
+        Pattern.compile("toggle\\s+([a-i][1-9])");
+    /**
+     * The "limit" command.
+     */
+    private static final Pattern LIMIT = Pattern.compile("limit\\s+(\\d+)");
+
+    /**
+     * The "undo" command, with its optional number of moves.
+     */
+    private static final Pattern UNDO =
+        Pattern.compile("undo(?:\\s+(\\d{1,9}))?");
+
+    /**
+     * The "goto" command.
+     */
+    private static final Pattern GOTO = Pattern.compile("goto\\s+(\\d+)");
+
+    /**
+     * Destination of problem reports.
+     */
+    private final PrintStream _out;
+    /**
+     * Totals over all files.
+     */
+    private final AtomicLong _files = new AtomicLong(),
+        _games = new AtomicLong(), _moves = new AtomicLong(),
+        _errors = new AtomicLong();
+    /**
+     * Wall-clock time of the last call of validate in nanoseconds.
+     */
+    private long _nanos;
+}
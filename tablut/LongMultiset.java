@@ -0,0 +1,162 @@
+package tablut;
+
+import java.util.Arrays;
+
+/**
+ * A multiset of longs (such as position hashes), kept in a primitive
+ * open-addressing hash table with linear probing.  Each key has a count,
+ * so that adding a key twice and removing it once leaves it present, as
+ * is needed to undo additions.  Any long, including 0, may be a key.
+ * The table holds no objects, so it costs about 24 bytes per key.
+ *
+ * @author Kevin Moy
+ */
+class LongMultiset {
+
+    /**
+     * Initial number of slots.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * An empty multiset.
+     */
+    LongMultiset() {
+        _keys = new long[INITIAL_CAPACITY];
+        _counts = new int[INITIAL_CAPACITY];
+    }
+
+    /**
+     * A multiset containing the same keys as MODEL.
+     */
+    LongMultiset(LongMultiset model) {
+        _keys = model._keys.clone();
+        _counts = model._counts.clone();
+        _size = model._size;
+    }
+
+    /**
+     * Return the number of times KEY has been added and not removed.
+     */
+    int count(long key) {
+        int i = find(key);
+        return _counts[i];
+    }
+
+    /**
+     * Return true iff KEY is present.
+     */
+    boolean contains(long key) {
+        return count(key) > 0;
+    }
+
+    /**
+     * Add KEY once more.
+     */
+    void add(long key) {
+        int i = find(key);
+        if (_counts[i] == 0) {
+            if (2 * (_size + 1) > _keys.length) {
+                grow();
+                i = find(key);
+            }
+            _keys[i] = key;
+            _size += 1;
+        }
+        _counts[i] += 1;
+    }
+
+    /**
+     * Remove one of the copies of KEY, if there is one.
+     */
+    void remove(long key) {
+        int i = find(key);
+        if (_counts[i] == 0) {
+            return;
+        }
+        _counts[i] -= 1;
+        if (_counts[i] > 0) {
+            return;
+        }
+        _size -= 1;
+        int mask = _keys.length - 1;
+        int hole = i;
+        for (int j = (i + 1) & mask; _counts[j] != 0; j = (j + 1) & mask) {
+            int home = slot(_keys[j]);
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                _keys[hole] = _keys[j];
+                _counts[hole] = _counts[j];
+                _counts[j] = 0;
+                hole = j;
+            }
+        }
+    }
+
+    /**
+     * Return the number of distinct keys present.
+     */
+    int size() {
+        return _size;
+    }
+
+    /**
+     * Remove all keys.
+     */
+    void clear() {
+        if (_size > 0) {
+            Arrays.fill(_counts, 0);
+            _size = 0;
+        }
+    }
+
+    /**
+     * Return the slot holding KEY or, if it is absent, the empty slot
+     * where it would go.
+     */
+    private int find(long key) {
+        int mask = _keys.length - 1;
+        int i = slot(key);
+        while (_counts[i] != 0 && _keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * Return the first slot to probe for KEY.
+     */
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & (_keys.length - 1);
+    }
+
+    /**
+     * Double my number of slots.
+     */
+    private void grow() {
+        long[] keys = _keys;
+        int[] counts = _counts;
+        _keys = new long[2 * keys.length];
+        _counts = new int[2 * keys.length];
+        for (int k = 0; k < keys.length; k += 1) {
+            if (counts[k] != 0) {
+                int i = find(keys[k]);
+                _keys[i] = keys[k];
+                _counts[i] = counts[k];
+            }
+        }
+    }
+
+    /**
+     * The keys, indexed by slot.
+     */
+    private long[] _keys;
+    /**
+     * The count of the key in each slot, 0 for an empty slot.
+     */
+    private int[] _counts;
+    /**
+     * Number of distinct keys present.
+     */
+    private int _size;
+}
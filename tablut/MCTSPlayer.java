@@ -0,0 +1,356 @@
+package tablut;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A Player that chooses moves by Monte Carlo tree search: it grows a
+ * search tree one random playout at a time, steering playouts toward
+ * promising moves with the UCT rule, and finally plays the move that
+ * was explored most.  The part of the tree below the move actually played
+ * is kept for the next call of myMove.  Any number of worker threads may
+ * grow the same tree at once (see NodePool).  Playouts run on
+ * FastBoards through the allocation-free Playout kernel.
+ *
+ * @author Kevin Moy
+ */
+class MCTSPlayer extends Player {
+
+    /**
+     * Exploration constant in the UCT formula.
+     */
+    private static final double EXPLORATION = Math.sqrt(2.0);
+    /**
+     * Maximum number of playouts per move.
+     */
+    private static final int MAX_PLAYOUTS = 50000;
+    /**
+     * Time limit per move, in milliseconds.
+     */
+    private static final int TIMELIMIT = 5000;
+    /**
+     * Maximum number of random moves in one playout.
+     */
+    private static final int ROLLOUT_LIMIT = 40;
+    /**
+     * Number of nodes in the search tree pool.
+     */
+    private static final int POOL_SIZE = 1 << 19;
+    /**
+     * Number of visits charged provisionally to each node on the path of
+     * a playout in progress.
+     */
+    private static final int VIRTUAL_LOSS = 3;
+    /**
+     * Threads for searches with more than one worker, shared by all
+     * MCTSPlayers so that players created and discarded (by "auto"
+     * commands or self-play games) leave no threads behind.  Idle
+     * threads exit after a while.
+     */
+    private static final ExecutorService WORKER_POOL =
+        Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "mcts-worker");
+            t.setDaemon(true);
+            return t;
+        });
+
+    /**
+     * A new single-threaded MCTSPlayer with no piece or controller
+     * (intended to produce a template).
+     */
+    MCTSPlayer() {
+        this(1);
+    }
+
+    /**
+     * A new MCTSPlayer using WORKERS search threads, with no piece or
+     * controller (intended to produce a template).
+     */
+    MCTSPlayer(int workers) {
+        this(null, null, workers);
+    }
+
+    /**
+     * A new MCTSPlayer playing PIECE under control of CONTROLLER, using
+     * WORKERS search threads.
+     */
+    MCTSPlayer(Piece piece, Controller controller, int workers) {
+        super(piece, controller);
+        _workers = Math.max(1, workers);
+    }
+
+    @Override
+    Player create(Piece piece, Controller controller) {
+        return new MCTSPlayer(piece, controller, _workers);
+    }
+
+    @Override
+    boolean isManual() {
+        return false;
+    }
+
+    @Override
+    String myMove() {
+        if (board().turn() != _myPiece || board().winner() != null) {
+            return null;
+        }
+        Move theMove = findMove();
+        if (_controller.searchCancelled()) {
+            return null;
+        }
+        _controller.reportMove(theMove);
+        return theMove.toString();
+    }
+
+    /**
+     * Select a move for me from the current position, assuming there
+     * is a move.  Stops after TIMELIMIT milliseconds or, under a game
+     * clock, the time allotted by a TimeManager, or when the controller
+     * cancels the search, but always makes at least the one playout
+     * that expands the root.  If even that fails (the pool being full),
+     * returns the first legal move.
+     */
+    private Move findMove() {
+        Board root = board();
+        reuseTree(root);
+        _maxPlayouts = _controller.nodeBudget();
+        TimeManager clock = timeManager();
+        if (_maxPlayouts > 0) {
+            _deadline = Long.MAX_VALUE;
+        } else {
+            _maxPlayouts = MAX_PLAYOUTS;
+            _deadline = System.currentTimeMillis()
+                + (clock == null ? TIMELIMIT : clock.softLimit());
+        }
+        _playouts.set(0);
+        FastBoard start = new FastBoard(root);
+        List<Worker> workers = new ArrayList<>();
+        for (int k = 0; k < _workers; k += 1) {
+            workers.add(new Worker(start, _controller.splitRandom()));
+        }
+        if (_workers == 1) {
+            workers.get(0).call();
+        } else {
+            try {
+                for (Future<Void> f : WORKER_POOL.invokeAll(workers)) {
+                    f.get();
+                }
+            } catch (InterruptedException | ExecutionException excp) {
+                throw new IllegalStateException("search failed: " + excp);
+            }
+        }
+        if (!_pool.isExpanded(0)) {
+            workers.get(0).playout();
+        }
+        if (!_pool.isExpanded(0)) {
+            _lastPosition = null;
+            return root.legalMoves(root.turn()).get(0);
+        }
+        int best = NodePool.NONE;
+        for (int c = _pool.firstChild(0), k = _pool.numChildren(0);
+             k > 0; c += 1, k -= 1) {
+            if (best == NodePool.NONE || _pool.visits(c) > _pool.visits(best)) {
+                best = c;
+            }
+        }
+        Move move = Move.mv(_pool.move(best));
+        _lastRoot = best;
+        _lastPosition = new Board(root);
+        _lastPosition.testMove(move);
+        return move;
+    }
+
+    /**
+     * Prepare _pool for a search from ROOT.  If ROOT was reached by a
+     * reply to the move I chose last time, keep the subtree below that
+     * reply; otherwise start from an empty tree.
+     */
+    private void reuseTree(Board root) {
+        if (_pool == null) {
+            _pool = new NodePool(POOL_SIZE);
+        } else if (_lastPosition != null && _pool.isExpanded(_lastRoot)) {
+            for (int c = _pool.firstChild(_lastRoot),
+                     k = _pool.numChildren(_lastRoot); k > 0; c += 1, k -= 1) {
+                Board next = new Board(_lastPosition);
+                next.testMove(Move.mv(_pool.move(c)));
+                if (next.turn() == root.turn()
+                    && next.comparePositions(root)) {
+                    _pool.retain(c);
+                    _lastPosition = null;
+                    return;
+                }
+            }
+        }
+        _pool.clear();
+        _lastPosition = null;
+    }
+
+    /**
+     * One search thread.  Each Worker performs playouts on the shared
+     * tree until the playout or time budget is used up, keeping its own
+     * board, path, and random-number generator.
+     */
+    private class Worker implements Callable<Void> {
+
+        /**
+         * A Worker searching from ROOT, whose random choices come from
+         * RANDOM.
+         */
+        Worker(FastBoard root, SplittableRandom random) {
+            _root = root;
+            _playout = new Playout(random, true);
+            _random = random;
+        }
+
+        @Override
+        public Void call() {
+            while (_playouts.getAndIncrement() < _maxPlayouts
+                   && System.currentTimeMillis() < _deadline
+                   && !_controller.searchCancelled()) {
+                playout();
+            }
+            return null;
+        }
+
+        /**
+         * Perform one playout from _root: descend the tree by UCT, expand
+         * the leaf reached, finish the game with random moves, and
+         * credit the result to every node on the path.
+         */
+        private void playout() {
+            FastBoard board = _playout.board();
+            board.copyFrom(_root);
+            int rootTurn = _root.turn();
+            int node = 0;
+            int depth = 0;
+            _path[0] = 0;
+            _pool.addVirtualLoss(0, VIRTUAL_LOSS);
+            while (_pool.isExpanded(node)
+                   && board.winner() == FastBoard.EMPTY) {
+                node = select(node);
+                _pool.addVirtualLoss(node, VIRTUAL_LOSS);
+                board.makeMove(_pool.move(node));
+                depth = pushPath(depth, node);
+            }
+            if (board.winner() == FastBoard.EMPTY
+                && (node == 0 || _pool.visits(node) > VIRTUAL_LOSS)) {
+                int n = board.legalMoves(_moves);
+                int first = _pool.expand(node, _moves, n);
+                if (first != NodePool.NONE) {
+                    node = first + _random.nextInt(n);
+                    _pool.addVirtualLoss(node, VIRTUAL_LOSS);
+                    board.makeMove(_pool.move(node));
+                    depth = pushPath(depth, node);
+                }
+            }
+            _playout.finish(ROLLOUT_LIMIT);
+            double white = _playout.whiteValue();
+            _pool.update(0, 0.0, VIRTUAL_LOSS);
+            for (int k = 1; k <= depth; k += 1) {
+                boolean whiteMoved =
+                    (rootTurn == FastBoard.WHITE) == (k % 2 == 1);
+                _pool.update(_path[k], whiteMoved ? white : 1.0 - white,
+                             VIRTUAL_LOSS);
+            }
+        }
+
+        /**
+         * Append NODE to _path after its first DEPTH + 1 entries, growing
+         * it as needed.  Returns the new depth.
+         */
+        private int pushPath(int depth, int node) {
+            depth += 1;
+            if (depth == _path.length) {
+                _path = Arrays.copyOf(_path, 2 * _path.length);
+            }
+            _path[depth] = node;
+            return depth;
+        }
+
+        /**
+         * The position searched.
+         */
+        private final FastBoard _root;
+        /**
+         * The playout kernel, whose board holds the current playout.
+         */
+        private final Playout _playout;
+        /**
+         * Source of random choices.
+         */
+        private final SplittableRandom _random;
+        /**
+         * The nodes visited by the current playout.
+         */
+        private int[] _path = new int[64];
+        /**
+         * Scratch buffer for move indices during expansion.
+         */
+        private final int[] _moves = new int[FastBoard.MAX_MOVES];
+    }
+
+    /**
+     * Return the child of NODE with the highest UCT score.  Unvisited
+     * children are taken first.  Visits include those of playouts still
+     * in progress, which count as losses until they finish.
+     */
+    private int select(int node) {
+        double logN = Math.log(Math.max(1, _pool.visits(node)));
+        int best = NodePool.NONE;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int c = _pool.firstChild(node), k = _pool.numChildren(node);
+             k > 0; c += 1, k -= 1) {
+            int n = _pool.visits(c);
+            if (n == 0) {
+                return c;
+            }
+            double score = _pool.value(c) / n
+                + EXPLORATION * Math.sqrt(logN / n);
+            if (score > bestScore) {
+                best = c;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * The search tree, created on first use.
+     */
+    private NodePool _pool;
+    /**
+     * The node of my last chosen move, whose children are candidate
+     * opponent replies, or NONE.
+     */
+    private int _lastRoot = NodePool.NONE;
+    /**
+     * The position after my last chosen move, or null.
+     */
+    private Board _lastPosition;
+    /**
+     * Number of search threads.
+     */
+    private final int _workers;
+    /**
+     * Number of playouts started in the current search.
+     */
+    private final AtomicInteger _playouts = new AtomicInteger();
+    /**
+     * Number of playouts allowed in the current search: the controller's
+     * node budget, if any, or else MAX_PLAYOUTS.
+     */
+    private volatile long _maxPlayouts;
+    /**
+     * Time (as for System.currentTimeMillis) at which the current search
+     * must stop.
+     */
+    private volatile long _deadline;
+}
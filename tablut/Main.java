@@ -1,6 +1,13 @@
 package tablut;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.lang.reflect.Constructor;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -15,17 +22,83 @@ import ucb.util.CommandArgs;
  */
 public class Main {
 
+    /** Default and largest sizes of a --hashfile table, in megabytes. */
+    private static final long DEFAULT_HASH_MB = 256, MAX_HASH_MB = 1 << 20;
+
     /** The main program.  ARGS may contain the option --display. */
     public static void main(String... args) {
         CommandArgs options =
-            new CommandArgs("--display --testing --strict --log={0,1} --={0,2}",
+            new CommandArgs("--display --testing --strict --mcts "
+                            + "--workers={0,1} --nodes={0,1} --log={0,1} "
+                            + "--selfplay={0,1} --threads={0,1} "
+                            + "--openings={0,1} --random={0,1} "
+                            + "--seed={0,1} --match={0,1} --games={0,1} "
+                            + "--elo0={0,1} --elo1={0,1} --record={0,1} "
+                            + "--analyze={0,1} --depth={0,1} "
+                            + "--output={0,1} --validate={0,1} "
+                            + "--book={0,1} --buildbook={0,1} "
+                            + "--plies={0,1} --training={0,1} "
+                            + "--shards={0,1} --samples={0,1} "
+                            + "--weights={0,1} --tune={0,1} "
+                            + "--steps={0,1} --lambda={0,1} "
+                            + "--hashfile={0,1} --hashsize={0,1} "
+                            + "--={0,2}",
                             args);
         if (!options.ok()) {
             System.err.println("Usage: java tablut.Main [--display]"
-                               + " [--log=FILE] [--strict] [INPUT [OUTPUT]]");
+                               + " [--log=FILE] [--strict]"
+                               + " [--mcts [--workers=N]] [--nodes=N]"
+                               + " [--book=FILE] [--weights=FILE]"
+                               + " [--hashfile=FILE [--hashsize=MB]]"
+                               + " [INPUT [OUTPUT]]");
+            System.err.println("       java tablut.Main --selfplay=N"
+                               + " [--threads=T] [--openings=FILE]"
+                               + " [--random=PLIES] [--seed=S]"
+                               + " [--record=FILE] [--training=DIR"
+                               + " [--shards=K] [--samples=S] [--depth=D]]"
+                               + " [--mcts [--workers=N]] [--nodes=N]");
+            System.err.println("       java tablut.Main --match=A,B"
+                               + " [--games=MAX] [--elo0=E0] [--elo1=E1]"
+                               + " [--threads=T] [--openings=FILE]"
+                               + " [--random=PLIES] [--seed=S] [--nodes=N]");
+            System.err.println("       java tablut.Main --analyze=FILE"
+                               + " [--output=FILE] [--threads=T]"
+                               + " [--depth=D] [--nodes=N] [--weights=FILE]");
+            System.err.println("       java tablut.Main --validate=PATH,..."
+                               + " [--threads=T]");
+            System.err.println("       java tablut.Main --buildbook=FILE"
+                               + " [--plies=N] RECORDS...");
+            System.err.println("       java tablut.Main --tune=PATH,..."
+                               + " [--weights=FILE] [--output=FILE]"
+                               + " [--steps=N] [--lambda=L] [--threads=T]");
             System.exit(1);
         }
 
+        if (options.contains("--selfplay") || options.contains("--match")
+            || options.contains("--analyze")
+            || options.contains("--validate")
+            || options.contains("--buildbook")
+            || options.contains("--tune")) {
+            try {
+                if (options.contains("--tune")) {
+                    tune(options);
+                } else if (options.contains("--buildbook")) {
+                    buildBook(options);
+                } else if (options.contains("--validate")) {
+                    validate(options);
+                } else if (options.contains("--analyze")) {
+                    analyze(options);
+                } else if (options.contains("--match")) {
+                    match(options);
+                } else {
+                    selfPlay(options);
+                }
+                System.exit(0);
+            } catch (IllegalArgumentException | IllegalStateException excp) {
+                System.err.printf("Error: %s%n", excp.getMessage());
+                System.exit(1);
+            }
+        }
         List<String> files = options.get("--");
         if (!files.isEmpty()) {
             try {
@@ -62,6 +135,312 @@ public class Main {
 
     }
 
+    /** Play the batch of games between automated players described by
+     *  OPTIONS, and print a summary of the results. */
+    private static void selfPlay(CommandArgs options) {
+        Player auto = autoPlayer(options);
+        SelfPlay games = new SelfPlay(auto, auto);
+        configure(games, options);
+        if (options.contains("--seed")) {
+            games.setSeed(longOption(options, "--seed", 0));
+        }
+        int numGames = (int) longOption(options, "--selfplay", 0);
+        int threads = (int) longOption(options, "--threads", 1);
+        if (numGames < 1 || threads < 1) {
+            throw error("need at least one game and one thread");
+        }
+        GameRecordWriter recorder = null;
+        TrainingData trainingData = null;
+        try {
+            if (options.contains("--record")) {
+                recorder = new GameRecordWriter(
+                    new FileOutputStream(options.getFirst("--record")));
+                games.setRecorder(recorder);
+            }
+            if (options.contains("--training")) {
+                trainingData = new TrainingData(
+                    Paths.get(options.getFirst("--training")),
+                    (int) longOption(options, "--shards", threads),
+                    (int) longOption(options, "--samples",
+                                     TrainingData.DEFAULT_SAMPLES),
+                    (int) longOption(options, "--depth",
+                                     TrainingData.DEFAULT_DEPTH));
+                games.setTrainingData(trainingData);
+            }
+            games.summarize(games.play(numGames, threads), System.out);
+            if (recorder != null) {
+                recorder.close();
+            }
+            if (trainingData != null) {
+                trainingData.close();
+                System.out.printf("%d training positions%n",
+                                  trainingData.count());
+            }
+        } catch (IOException excp) {
+            throw error("could not write games: %s", excp.getMessage());
+        }
+    }
+
+    /** Play the match between two automated players described by
+     *  OPTIONS, and print its progress and outcome. */
+    private static void match(CommandArgs options) {
+        String[] specs = options.getFirst("--match").split(",");
+        if (specs.length != 2) {
+            throw error("--match needs two players");
+        }
+        Match match = new Match(playerTemplate(specs[0]),
+                                playerTemplate(specs[1]));
+        for (SelfPlay games : match.games()) {
+            configure(games, options);
+        }
+        match.setBounds(doubleOption(options, "--elo0", Match.DEFAULT_ELO0),
+                        doubleOption(options, "--elo1", Match.DEFAULT_ELO1),
+                        Match.DEFAULT_ALPHA, Match.DEFAULT_BETA);
+        match.setMaxGames((int) longOption(options, "--games",
+                                           Match.DEFAULT_MAX_GAMES));
+        if (options.contains("--seed")) {
+            match.setSeed(longOption(options, "--seed", 0));
+        }
+        int threads = (int) longOption(options, "--threads", 1);
+        if (threads < 1) {
+            throw error("need at least one thread");
+        }
+        match.play(threads, System.out);
+        System.out.println(match.status());
+    }
+
+    /** Tune evaluation weights on the training data listed in OPTIONS,
+     *  starting from its --weights (or the default weights), and write
+     *  the result to its --output file or the standard output. */
+    private static void tune(CommandArgs options) {
+        List<Path> paths = new ArrayList<>();
+        for (String name : options.getFirst("--tune").split(",")) {
+            paths.add(Paths.get(name));
+        }
+        int threads = (int) longOption(options, "--threads", 1);
+        int steps = (int) longOption(options, "--steps",
+                                     Tuner.DEFAULT_STEPS);
+        if (threads < 1 || steps < 1) {
+            throw error("need at least one thread and one step");
+        }
+        try {
+            Tuner tuner = new Tuner(paths);
+            tuner.setLambda(doubleOption(options, "--lambda", 1));
+            System.err.printf("%d samples%n", tuner.size());
+            Evaluation eval =
+                tuner.tune(evaluation(options), steps, threads,
+                           Math.max(1, steps / 10), System.err);
+            System.err.printf("final error %.6f%n",
+                              tuner.error(eval, threads));
+            if (options.contains("--output")) {
+                try (PrintStream out =
+                     new PrintStream(options.getFirst("--output"))) {
+                    eval.write(out);
+                }
+            } else {
+                eval.write(System.out);
+            }
+        } catch (IOException excp) {
+            throw error("could not tune: %s", excp.getMessage());
+        }
+    }
+
+    /** Return the evaluation whose weights file is given by OPTIONS, or
+     *  the default evaluation. */
+    private static Evaluation evaluation(CommandArgs options) {
+        if (!options.contains("--weights")) {
+            return new Evaluation();
+        }
+        try {
+            return Evaluation.read(Paths.get(options.getFirst("--weights")));
+        } catch (IOException excp) {
+            throw error("could not read weights: %s", excp.getMessage());
+        }
+    }
+
+    /** Build the opening book named by OPTIONS from the game record
+     *  files and directories given as its arguments. */
+    private static void buildBook(CommandArgs options) {
+        List<Path> paths = new ArrayList<>();
+        for (String name : options.get("--")) {
+            paths.add(Paths.get(name));
+        }
+        if (paths.isEmpty()) {
+            throw error("no game records given");
+        }
+        int plies = (int) longOption(options, "--plies",
+                                     PositionDB.DEFAULT_PLIES);
+        Path out = Paths.get(options.getFirst("--buildbook"));
+        try {
+            int n = PositionDB.build(paths, plies, out);
+            System.out.printf("%d book entries%n", n);
+        } catch (IOException excp) {
+            throw error("could not build book: %s", excp.getMessage());
+        }
+    }
+
+    /** Replay the archived games in the files and directories listed in
+     *  OPTIONS, printing any problems and a summary, and exit with status
+     *  1 if there were problems. */
+    private static void validate(CommandArgs options) {
+        List<Path> paths = new ArrayList<>();
+        for (String name : options.getFirst("--validate").split(",")) {
+            paths.add(Paths.get(name));
+        }
+        int threads = (int) longOption(options, "--threads", 1);
+        if (threads < 1) {
+            throw error("need at least one thread");
+        }
+        GameValidator validator = new GameValidator(System.out);
+        long problems;
+        try {
+            problems = validator.validate(paths, threads);
+        } catch (IOException excp) {
+            throw error("could not read archive: %s", excp.getMessage());
+        }
+        System.out.println(validator.summary());
+        if (problems > 0) {
+            System.exit(1);
+        }
+    }
+
+    /** Analyze the file of positions named by OPTIONS, writing the
+     *  results to the output file it names or to the standard output. */
+    private static void analyze(CommandArgs options) {
+        BatchAnalysis analysis =
+            new BatchAnalysis((int) longOption(options, "--depth",
+                                               options.contains("--nodes")
+                                               ? Analyzer.MAX_PLY - 1
+                                               : BatchAnalysis.DEFAULT_DEPTH),
+                              longOption(options, "--nodes", 0),
+                              evaluation(options));
+        int threads = (int) longOption(options, "--threads", 1);
+        if (threads < 1) {
+            throw error("need at least one thread");
+        }
+        long start = System.nanoTime();
+        long count;
+        try (BufferedReader in = Files.newBufferedReader(
+                 Paths.get(options.getFirst("--analyze")))) {
+            if (options.contains("--output")) {
+                try (PrintStream out = new PrintStream(
+                         new BufferedOutputStream(new FileOutputStream(
+                             options.getFirst("--output"))))) {
+                    count = analysis.run(in, out, threads);
+                }
+            } else {
+                count = analysis.run(in, System.out, threads);
+            }
+        } catch (IOException excp) {
+            throw error("could not analyze positions: %s",
+                        excp.getMessage());
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        System.err.printf("%d positions in %.1f s (%.1f/s)%n", count, secs,
+                          count / Math.max(secs, 1e-9));
+    }
+
+    /** Set the node budget, random moves, and openings of GAMES as
+     *  indicated by OPTIONS. */
+    private static void configure(SelfPlay games, CommandArgs options) {
+        games.setNodeBudget(longOption(options, "--nodes", 0));
+        games.setRandomPlies((int) longOption(options, "--random", 0));
+        if (options.contains("--openings")) {
+            List<String> openings = new ArrayList<>();
+            try {
+                for (String line : Files.readAllLines(
+                         Paths.get(options.getFirst("--openings")))) {
+                    line = line.replaceFirst("#.*", "").trim();
+                    if (!line.isEmpty()) {
+                        openings.add(line);
+                    }
+                }
+            } catch (IOException excp) {
+                throw error("could not read openings file");
+            }
+            games.setOpenings(openings);
+        }
+    }
+
+    /** Return a template for the player described by SPEC: "ai" for the
+     *  alpha-beta player, "ai:FILE" for the alpha-beta player using the
+     *  weights in FILE, "mcts" or "mcts:W" for the Monte Carlo player
+     *  with W workers, or the name of a Player subclass (such as a
+     *  subclass of AI) with a constructor taking no arguments. */
+    private static Player playerTemplate(String spec) {
+        spec = spec.trim();
+        if (spec.equals("ai")) {
+            return new AI();
+        } else if (spec.startsWith("ai:")) {
+            try {
+                return new AI(Evaluation.read(Paths.get(spec.substring(3))));
+            } catch (IOException excp) {
+                throw error("could not read weights: %s", excp.getMessage());
+            }
+        } else if (spec.matches("mcts(:\\d+)?")) {
+            int workers = spec.equals("mcts") ? 1
+                : Integer.parseInt(spec.substring(5));
+            return new MCTSPlayer(workers);
+        }
+        try {
+            String name = spec.contains(".") ? spec : "tablut." + spec;
+            Constructor<?> constructor =
+                Class.forName(name).getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return (Player) constructor.newInstance();
+        } catch (ReflectiveOperationException | ClassCastException excp) {
+            throw error("unknown player: %s", spec);
+        }
+    }
+
+    /** Return the value of the real-valued option KEY in OPTIONS, or
+     *  DFLT if it is absent. */
+    private static double doubleOption(CommandArgs options, String key,
+                                       double dflt) {
+        if (!options.contains(key)) {
+            return dflt;
+        }
+        try {
+            return Double.parseDouble(options.getFirst(key));
+        } catch (NumberFormatException excp) {
+            throw error("bad value for %s", key);
+        }
+    }
+
+    /** Return the value of the numeric option KEY in OPTIONS, or DFLT
+     *  if it is absent. */
+    private static long longOption(CommandArgs options, String key,
+                                   long dflt) {
+        if (!options.contains(key)) {
+            return dflt;
+        }
+        try {
+            return Long.parseLong(options.getFirst(key));
+        } catch (NumberFormatException excp) {
+            throw error("bad value for %s", key);
+        }
+    }
+
+    /** Return a template for the automated player indicated by
+     *  OPTIONS. */
+    private static Player autoPlayer(CommandArgs options) {
+        if (options.contains("--mcts")) {
+            int workers = 1;
+            if (options.contains("--workers")) {
+                try {
+                    workers = Integer.parseInt(options.getFirst("--workers"));
+                } catch (NumberFormatException excp) {
+                    throw error("bad number of workers");
+                }
+            }
+            return new MCTSPlayer(workers);
+        } else if (options.contains("--weights")) {
+            return new AI(evaluation(options));
+        } else {
+            return new AI();
+        }
+    }
+
     /** Return an appropriate Controller as indicated by OPTIONS. */
     private static Controller getController(CommandArgs options) {
         Player manualPlayer;
@@ -95,7 +474,44 @@ public class Main {
             }
         }
 
-        return new Controller(view, log, reporter, manualPlayer,
-                              new AI(), options.contains("--strict"));
+        Player autoPlayer = autoPlayer(options);
+        Controller control =
+            new Controller(view, log, reporter, manualPlayer,
+                           autoPlayer, options.contains("--strict"));
+        control.setNodeBudget(longOption(options, "--nodes", 0));
+        control.setEvaluation(evaluation(options));
+        if (gui != null && !options.contains("--testing")) {
+            control.searchInBackground(gui::pollCommand);
+        }
+        if (options.contains("--book")) {
+            try {
+                control.setBook(new PositionDB(
+                    Paths.get(options.getFirst("--book"))));
+            } catch (IOException excp) {
+                throw error("Could not open book: %s", excp.getMessage());
+            }
+        }
+        if (options.contains("--hashfile")) {
+            control.setAnalysisTable(hashFile(options));
+        }
+        return control;
+    }
+
+    /** Return the persistent transposition table named by the --hashfile
+     *  option of OPTIONS, with about --hashsize megabytes of entries. */
+    private static TranspositionTable hashFile(CommandArgs options) {
+        long megabytes = longOption(options, "--hashsize", DEFAULT_HASH_MB);
+        long entries = (megabytes << 20)
+            / MappedTranspositionTable.ENTRY_SIZE;
+        if (entries < 1 || megabytes > MAX_HASH_MB) {
+            throw error("bad hash size");
+        }
+        int logSize = 63 - Long.numberOfLeadingZeros(entries);
+        try {
+            return new MappedTranspositionTable(
+                Paths.get(options.getFirst("--hashfile")), logSize);
+        } catch (IOException excp) {
+            throw error("Could not open hash file: %s", excp.getMessage());
+        }
     }
 }
@@ -0,0 +1,188 @@
+package tablut;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A TranspositionTable kept in a memory-mapped file rather than on the
+ * heap, so that a table of many gigabytes adds nothing to the work of
+ * the garbage collector, and so that its contents survive from one run
+ * to the next: reopening the file with the same size continues with the
+ * entries already there.  Since Zobrist keys are the same in every run,
+ * an analysis of a position seen before starts warm.
+ *
+ * The file is a header page (the bytes "TBTT", a version, and the log
+ * of the number of entries) followed by 16-byte entries (key exclusive-or
+ * packed data, then packed data), mapped in segments of at most
+ * 2**SEGMENT_BITS entries, since one mapping cannot exceed 2GB.  Entries
+ * are written without synchronization, as for the heap table; the
+ * operating system writes them back to the file.  Storing the key mixed
+ * with the data means that an entry whose two halves do not belong
+ * together (half written by a process that died, or by two threads at
+ * once) does not match its key, and so is never returned by probe.
+ *
+ * @author Kevin Moy
+ */
+class MappedTranspositionTable extends TranspositionTable
+    implements Closeable {
+
+    /**
+     * First bytes of a table file.
+     */
+    static final byte[] MAGIC = { 'T', 'B', 'T', 'T' };
+
+    /**
+     * Current format version.
+     */
+    static final int VERSION = 2;
+
+    /**
+     * Size of the file header.
+     */
+    static final int HEADER_SIZE = 4096;
+
+    /**
+     * Size of an entry.
+     */
+    static final int ENTRY_SIZE = 16;
+
+    /**
+     * Log base 2 of the number of entries in each mapped segment.
+     */
+    private static final int SEGMENT_BITS = 26;
+
+    /**
+     * A table of 2**LOGSIZE entries kept in FILE.  If FILE already holds
+     * a table of that size, its entries are kept; otherwise it is
+     * replaced by an empty table.
+     */
+    MappedTranspositionTable(Path file, int logSize) throws IOException {
+        super(logSize, false);
+        _channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                                    StandardOpenOption.READ,
+                                    StandardOpenOption.WRITE);
+        long length = HEADER_SIZE + ENTRY_SIZE * size();
+        _header = _channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                               HEADER_SIZE);
+        boolean reuse = _channel.size() == length;
+        for (int k = 0; reuse && k < MAGIC.length; k += 1) {
+            reuse = _header.get(k) == MAGIC[k];
+        }
+        reuse = reuse && _header.getInt(MAGIC.length) == VERSION
+            && _header.getInt(MAGIC.length + 4) == logSize;
+        if (!reuse) {
+            _channel.truncate(HEADER_SIZE);
+            _header.put(0, new byte[HEADER_SIZE]);
+        }
+        int segmentBits = Math.min(SEGMENT_BITS, logSize);
+        _segmentShift = segmentBits;
+        _segmentMask = (1L << segmentBits) - 1;
+        _segments = new MappedByteBuffer[1 << (logSize - segmentBits)];
+        long segmentSize = ENTRY_SIZE * (1L << segmentBits);
+        for (int k = 0; k < _segments.length; k += 1) {
+            _segments[k] =
+                _channel.map(FileChannel.MapMode.READ_WRITE,
+                             HEADER_SIZE + k * segmentSize, segmentSize);
+        }
+        if (!reuse) {
+            _header.put(0, MAGIC);
+            _header.putInt(MAGIC.length, VERSION);
+            _header.putInt(MAGIC.length + 4, logSize);
+        }
+        _reused = reuse;
+    }
+
+    /**
+     * Return true iff my entries were kept from an earlier run.
+     */
+    boolean reused() {
+        return _reused;
+    }
+
+    @Override
+    void clear() {
+        byte[] zeros = new byte[1 << 16];
+        for (MappedByteBuffer segment : _segments) {
+            for (int at = 0; at < segment.capacity(); at += zeros.length) {
+                segment.put(at, zeros, 0,
+                            Math.min(zeros.length, segment.capacity() - at));
+            }
+        }
+    }
+
+    @Override
+    long keyAt(long i) {
+        MappedByteBuffer segment = segment(i);
+        int at = offset(i);
+        return segment.getLong(at) ^ segment.getLong(at + 8);
+    }
+
+    @Override
+    long dataAt(long i) {
+        return segment(i).getLong(offset(i) + 8);
+    }
+
+    @Override
+    void put(long i, long key, long data) {
+        MappedByteBuffer segment = segment(i);
+        int at = offset(i);
+        segment.putLong(at, key ^ data);
+        segment.putLong(at + 8, data);
+    }
+
+    /**
+     * Return the segment holding slot I.
+     */
+    private MappedByteBuffer segment(long i) {
+        return _segments[(int) (i >>> _segmentShift)];
+    }
+
+    /**
+     * Return the offset of slot I within its segment.
+     */
+    private int offset(long i) {
+        return (int) (i & _segmentMask) * ENTRY_SIZE;
+    }
+
+    /**
+     * Write my entries to the file and close it.  The table must not be
+     * used afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        for (MappedByteBuffer segment : _segments) {
+            segment.force();
+        }
+        _header.force();
+        _channel.close();
+    }
+
+    /**
+     * The file.
+     */
+    private final FileChannel _channel;
+    /**
+     * The mapped header.
+     */
+    private final MappedByteBuffer _header;
+    /**
+     * The mapped entries.
+     */
+    private final MappedByteBuffer[] _segments;
+    /**
+     * Shift and mask dividing a slot number into segment and index.
+     */
+    private final int _segmentShift;
+    /**
+     * Mask giving a slot's index within its segment.
+     */
+    private final long _segmentMask;
+    /**
+     * True iff the entries were kept from an earlier run.
+     */
+    private final boolean _reused;
+}
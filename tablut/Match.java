@@ -0,0 +1,284 @@
+package tablut;
+
+import java.io.PrintStream;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static tablut.Piece.*;
+
+/**
+ * A match between two automated players, A and B, that stops as soon as
+ * a sequential probability ratio test (SPRT) can tell whether A is
+ * stronger than B.  Games are played in pairs from the same start (the
+ * same opening and random moves), with A playing white in one game of
+ * the pair and black in the other, so that an unbalanced opening helps
+ * neither player.  Pairs are played concurrently on a pool of threads,
+ * and a pair's results count towards the test only once both of its
+ * games are over, so that the match never stops in the middle of one.
+ *
+ * Tablut has no draws, so the test is on the probability P that A wins
+ * a game, which the usual logistic model relates to the Elo difference E
+ * between A and B by P = 1 / (1 + 10^(-E/400)).  The test accepts H1,
+ * E = ELO1, or H0, E = ELO0, with error rates ALPHA and BETA.
+ *
+ * @author Kevin Moy
+ */
+class Match {
+
+    /**
+     * Test outcomes: still undecided, H0 accepted (A is not stronger by
+     * ELO1), and H1 accepted (A is stronger by ELO1).
+     */
+    static final int UNDECIDED = 0, ACCEPT_H0 = 1, ACCEPT_H1 = 2;
+
+    /**
+     * Default hypotheses and error rates.
+     */
+    static final double DEFAULT_ELO0 = 0, DEFAULT_ELO1 = 20,
+        DEFAULT_ALPHA = 0.05, DEFAULT_BETA = 0.05;
+
+    /**
+     * Default maximum number of games.
+     */
+    static final int DEFAULT_MAX_GAMES = 2000;
+
+    /**
+     * The normal quantile for a two-sided 95% confidence interval.
+     */
+    private static final double Z95 = 1.96;
+
+    /**
+     * Number of games between progress reports.
+     */
+    private static final int REPORT_INTERVAL = 20;
+
+    /**
+     * A match between players created from templates A and B.
+     */
+    Match(Player a, Player b) {
+        _aWhite = new SelfPlay(a, b);
+        _bWhite = new SelfPlay(b, a);
+        setBounds(DEFAULT_ELO0, DEFAULT_ELO1, DEFAULT_ALPHA, DEFAULT_BETA);
+    }
+
+    /**
+     * Test H0, Elo difference ELO0, against H1, Elo difference ELO1, with
+     * false-positive rate ALPHA and false-negative rate BETA.
+     */
+    void setBounds(double elo0, double elo1, double alpha, double beta) {
+        _p0 = winProbability(elo0);
+        _p1 = winProbability(elo1);
+        _lower = Math.log(beta / (1 - alpha));
+        _upper = Math.log((1 - beta) / alpha);
+    }
+
+    /**
+     * Stop after at most GAMES games (rounded up to a pair) even if the
+     * test is undecided.
+     */
+    void setMaxGames(int games) {
+        _maxGames = games;
+    }
+
+    /**
+     * Derive all random choices from SEED.
+     */
+    void setSeed(long seed) {
+        _seed = seed;
+    }
+
+    /**
+     * Return the SelfPlay configurations for the two color assignments,
+     * whose openings, random moves, node budget, and move limit may be
+     * set as for any SelfPlay.  Both must be set alike.
+     */
+    SelfPlay[] games() {
+        return new SelfPlay[] { _aWhite, _bWhite };
+    }
+
+    /**
+     * Play the match on THREADS threads, printing progress on OUT every
+     * REPORT_INTERVAL games, and return the outcome of the test.  The
+     * test is applied after each completed pair.  Once it is decided,
+     * games still in progress are abandoned, and the results of any
+     * unfinished pair are discarded.
+     */
+    int play(int threads, PrintStream out) {
+        _wins = _losses = 0;
+        _status = UNDECIDED;
+        SplittableRandom seeds = new SplittableRandom(_seed);
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "match-game");
+            t.setDaemon(true);
+            return t;
+        });
+        CompletionService<Integer> results =
+            new ExecutorCompletionService<>(pool);
+        int pairs = (_maxGames + 1) / 2;
+        int[] finished = new int[pairs], pairWins = new int[pairs];
+        int submitted, pending;
+        submitted = pending = 0;
+        try {
+            while (submitted < pairs && pending < threads) {
+                submit(results, submitted, seeds.nextLong());
+                submitted += 1;
+                pending += 2;
+            }
+            while (pending > 0 && _status == UNDECIDED) {
+                int result = results.take().get();
+                int pair = result / 2;
+                pending -= 1;
+                finished[pair] += 1;
+                pairWins[pair] += result % 2;
+                if (finished[pair] == 2) {
+                    _wins += pairWins[pair];
+                    _losses += 2 - pairWins[pair];
+                    _status = decide(_wins, _losses);
+                    if ((_wins + _losses) % REPORT_INTERVAL == 0) {
+                        out.println(status());
+                    }
+                }
+                if (submitted < pairs && pending < threads) {
+                    submit(results, submitted, seeds.nextLong());
+                    submitted += 1;
+                    pending += 2;
+                }
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("match interrupted");
+        } catch (ExecutionException excp) {
+            throw new IllegalStateException(excp.getCause().getMessage());
+        } finally {
+            pool.shutdownNow();
+        }
+        return _status;
+    }
+
+    /**
+     * Submit to RESULTS the two games of pair number PAIR, both starting
+     * with random seed SEED.  Each task's result is 2 * PAIR, plus 1 if
+     * A won.
+     */
+    private void submit(CompletionService<Integer> results, int pair,
+                        long seed) {
+        results.submit(() -> 2 * pair
+                       + (_aWhite.playGame(pair, seed)._winner == WHITE
+                          ? 1 : 0));
+        results.submit(() -> 2 * pair
+                       + (_bWhite.playGame(pair, seed)._winner == BLACK
+                          ? 1 : 0));
+    }
+
+    /**
+     * Return the outcome of the test after WINS wins and LOSSES losses
+     * by A.
+     */
+    int decide(int wins, int losses) {
+        double llr = logLikelihoodRatio(wins, losses);
+        if (llr >= _upper) {
+            return ACCEPT_H1;
+        } else if (llr <= _lower) {
+            return ACCEPT_H0;
+        }
+        return UNDECIDED;
+    }
+
+    /**
+     * Return the log of the ratio of the likelihoods of WINS wins and
+     * LOSSES losses under H1 and under H0.
+     */
+    double logLikelihoodRatio(int wins, int losses) {
+        return wins * Math.log(_p1 / _p0)
+            + losses * Math.log((1 - _p1) / (1 - _p0));
+    }
+
+    /**
+     * Return a one-line description of the match so far: the score, the
+     * estimated Elo difference with its 95% confidence interval (from the
+     * Wilson interval for the score, which stays sensible after a run of
+     * wins), and the state of the test.
+     */
+    String status() {
+        int games = _wins + _losses;
+        double score = games == 0 ? 0.5 : (double) _wins / games;
+        double z2 = Z95 * Z95 / Math.max(games, 1);
+        double center = (score + z2 / 2) / (1 + z2);
+        double margin = Z95 / (1 + z2)
+            * Math.sqrt(score * (1 - score) / Math.max(games, 1) + z2 / 4
+                        / Math.max(games, 1));
+        return String.format("games %d: +%d -%d  elo %+.1f [%+.1f, %+.1f]"
+                             + "  llr %.2f [%.2f, %.2f]  %s",
+                             games, _wins, _losses, elo(score),
+                             elo(center - margin), elo(center + margin),
+                             logLikelihoodRatio(_wins, _losses),
+                             _lower, _upper, STATUS_NAMES[_status]);
+    }
+
+    /**
+     * Return the probability of winning a game given an Elo advantage of
+     * ELO.
+     */
+    static double winProbability(double elo) {
+        return 1 / (1 + Math.pow(10, -elo / 400));
+    }
+
+    /**
+     * Return the Elo advantage corresponding to an expected score of
+     * SCORE, clamped to +/- MAX_ELO.
+     */
+    static double elo(double score) {
+        if (score <= 0) {
+            return -MAX_ELO;
+        } else if (score >= 1) {
+            return MAX_ELO;
+        }
+        return Math.max(-MAX_ELO, Math.min(MAX_ELO,
+                                           -400 * Math.log10(1 / score - 1)));
+    }
+
+    /**
+     * Largest Elo difference reported.
+     */
+    private static final double MAX_ELO = 999;
+
+    /**
+     * Printed names of the test outcomes.
+     */
+    private static final String[] STATUS_NAMES = {
+        "undecided", "H0 accepted", "H1 accepted"
+    };
+
+    /**
+     * Games with A as white, and with B as white.
+     */
+    private final SelfPlay _aWhite, _bWhite;
+    /**
+     * Win probabilities under H0 and H1.
+     */
+    private double _p0, _p1;
+    /**
+     * Log-likelihood-ratio bounds for accepting H0 and H1.
+     */
+    private double _lower, _upper;
+    /**
+     * Maximum number of games.
+     */
+    private int _maxGames = DEFAULT_MAX_GAMES;
+    /**
+     * Seed from which all random choices derive.
+     */
+    private long _seed = new SplittableRandom().nextLong();
+    /**
+     * Games won and lost by A so far.
+     */
+    private int _wins, _losses;
+    /**
+     * Current outcome of the test.
+     */
+    private int _status;
+}
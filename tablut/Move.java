@@ -58,31 +58,50 @@ final class Move {
         return MOVES[from.index()][to.index()];
     }
 
+    /**
+     * Return the unique Move whose index() is INDEX, or null if INDEX
+     * does not denote a valid move.
+     */
+    static Move mv(int index) {
+        if (index < 0 || index >= NUM_SQUARES * NUM_SQUARES) {
+            return null;
+        }
+        return mv(sq(index / NUM_SQUARES), sq(index % NUM_SQUARES));
+    }
+
     /**
      * Return the Move denoted by STR, if STR denotes a move with
      * valid syntax, and null otherwise.
      */
     static Move mv(String str) {
-        _moveMatcher.reset(str);
-        if (_moveMatcher.matches()) {
-            Square from = sq(_moveMatcher.group(1));
+        Matcher moveMatcher = MOVE_PATTERN.matcher(str);
+        if (moveMatcher.matches()) {
+            Square from = sq(moveMatcher.group(1));
             Square to;
-            if (_moveMatcher.group(5) == null) {
-                to = sq(_moveMatcher.group(4), _moveMatcher.group(3));
+            if (moveMatcher.group(5) == null) {
+                to = sq(moveMatcher.group(4), moveMatcher.group(3));
             } else {
-                to = sq(_moveMatcher.group(2), _moveMatcher.group(5));
+                to = sq(moveMatcher.group(2), moveMatcher.group(5));
             }
             return mv(from, to);
         }
         return null;
     }
 
+    /**
+     * Return my index, which packs from() and to() into a single int
+     * in the range 0 .. NUM_SQUARES * NUM_SQUARES - 1.  Moves may be
+     * recovered from their indices with mv(int).
+     */
+    int index() {
+        return _from.index() * NUM_SQUARES + _to.index();
+    }
+
     /**
      * Return true iff STR has the right format for a Move.
      */
     static boolean isGrammaticalMove(String str) {
-        _moveMatcher.reset(str);
-        return _moveMatcher.matches();
+        return MOVE_PATTERN.matcher(str).matches();
     }
 
     @Override
@@ -165,8 +184,4 @@ final class Move {
      * The printed form of this Move.
      */
     private String _str;
-    /**
-     * A utility Matcher for moves, using MOVE_PATTERN.
-     */
-    private static Matcher _moveMatcher = MOVE_PATTERN.matcher("");
 }
@@ -0,0 +1,291 @@
+package tablut;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A pool of Monte Carlo search-tree nodes.  Rather than one object per
+ * node, the pool keeps each node field in its own primitive array, so a
+ * tree of hundreds of thousands of nodes costs a handful of objects and
+ * no garbage.  Nodes are denoted by their int indices; the children of a
+ * node always occupy a contiguous block of indices.  The root is node 0.
+ *
+ * Several threads may search the same pool at once.  Visit counts and
+ * values are atomic, and a node is expanded by whichever thread first
+ * claims it with a compare-and-set; the others simply treat it as a
+ * leaf until its children are published.  Only clear and retain
+ * require that no search be in progress.
+ *
+ * @author Kevin Moy
+ */
+class NodePool {
+
+    /**
+     * Index denoting "no node".
+     */
+    static final int NONE = -1;
+
+    /**
+     * The value of firstChild for a node being expanded by some thread.
+     */
+    private static final int EXPANDING = -2;
+
+    /**
+     * Number of fixed-point units in a reward of 1.0.
+     */
+    private static final double VALUE_SCALE = 1 << 20;
+
+    /**
+     * A pool with room for CAPACITY nodes, containing only an
+     * unexpanded root.
+     */
+    NodePool(int capacity) {
+        _capacity = capacity;
+        _parent = new int[capacity];
+        _numChildren = new int[capacity];
+        _move = new short[capacity];
+        _firstChild = new AtomicIntegerArray(capacity);
+        _visits = new AtomicIntegerArray(capacity);
+        _value = new AtomicLongArray(capacity);
+        _spareParent = new int[capacity];
+        _spareNumChildren = new int[capacity];
+        _spareMove = new short[capacity];
+        _spareFirstChild = new AtomicIntegerArray(capacity);
+        _spareVisits = new AtomicIntegerArray(capacity);
+        _spareValue = new AtomicLongArray(capacity);
+        clear();
+    }
+
+    /**
+     * Discard all nodes, leaving only a fresh, unexpanded root.
+     */
+    void clear() {
+        _parent[0] = NONE;
+        _numChildren[0] = 0;
+        _move[0] = -1;
+        _firstChild.set(0, NONE);
+        _visits.set(0, 0);
+        _value.set(0, 0);
+        _size.set(1);
+    }
+
+    /**
+     * Return the number of nodes in use.
+     */
+    int size() {
+        return Math.min(_size.get(), _capacity);
+    }
+
+    /**
+     * Return the parent of NODE, or NONE for the root.
+     */
+    int parent(int node) {
+        return _parent[node];
+    }
+
+    /**
+     * Return true iff the children of NODE have been published.
+     */
+    boolean isExpanded(int node) {
+        return _firstChild.get(node) >= 0;
+    }
+
+    /**
+     * Return the index of the first child of NODE (negative if
+     * unexpanded).
+     */
+    int firstChild(int node) {
+        return _firstChild.get(node);
+    }
+
+    /**
+     * Return the number of children of NODE.  Valid only once
+     * isExpanded(NODE).
+     */
+    int numChildren(int node) {
+        return _numChildren[node];
+    }
+
+    /**
+     * Return the index (as for Move.index()) of the move leading to NODE.
+     */
+    int move(int node) {
+        return _move[node];
+    }
+
+    /**
+     * Return the number of playouts that have passed through NODE,
+     * including those still in progress.
+     */
+    int visits(int node) {
+        return _visits.get(node);
+    }
+
+    /**
+     * Return the total reward of the playouts through NODE, from the
+     * point of view of the player who made move(NODE).
+     */
+    double value(int node) {
+        return _value.get(node) / VALUE_SCALE;
+    }
+
+    /**
+     * Record that a playout has started through NODE, provisionally
+     * counting it as LOSS visits that earned nothing.  This virtual loss
+     * makes NODE look worse to other threads until the playout finishes,
+     * spreading concurrent playouts over different parts of the tree.
+     */
+    void addVirtualLoss(int node, int loss) {
+        _visits.addAndGet(node, loss);
+    }
+
+    /**
+     * Record a playout through NODE that earned REWARD, replacing the
+     * LOSS virtual visits that were added when it began.
+     */
+    void update(int node, double reward, int loss) {
+        _visits.addAndGet(node, 1 - loss);
+        _value.addAndGet(node, Math.round(reward * VALUE_SCALE));
+    }
+
+    /**
+     * Allocate N children of NODE, the Kth reached by the move with index
+     * MOVES[K], provided that NODE is unexpanded and no other thread is
+     * expanding it.  Return the index of the first child, or NONE (leaving
+     * NODE unexpanded) if another thread got there first or the pool does
+     * not have room.
+     */
+    int expand(int node, int[] moves, int n) {
+        if (n == 0 || _size.get() + n > _capacity
+            || !_firstChild.compareAndSet(node, NONE, EXPANDING)) {
+            return NONE;
+        }
+        int first = _size.getAndAdd(n);
+        if (first + n > _capacity) {
+            _firstChild.set(node, NONE);
+            return NONE;
+        }
+        for (int k = 0; k < n; k += 1) {
+            int c = first + k;
+            _parent[c] = node;
+            _numChildren[c] = 0;
+            _move[c] = (short) moves[k];
+            _firstChild.set(c, NONE);
+            _visits.set(c, 0);
+            _value.set(c, 0);
+        }
+        _numChildren[node] = n;
+        _firstChild.set(node, first);
+        return first;
+    }
+
+    /**
+     * Discard everything but the subtree rooted at NODE, which becomes
+     * the new root (node 0).  The retained nodes are compacted to the
+     * front of the pool in breadth-first order.
+     */
+    void retain(int node) {
+        int[] origin = _spareParent;
+        origin[0] = node;
+        _spareMove[0] = -1;
+        int size = 1;
+        for (int i = 0; i < size; i += 1) {
+            int old = origin[i];
+            _spareVisits.set(i, _visits.get(old));
+            _spareValue.set(i, _value.get(old));
+            int oldFirst = _firstChild.get(old);
+            if (oldFirst < 0) {
+                _spareFirstChild.set(i, NONE);
+                _spareNumChildren[i] = 0;
+                continue;
+            }
+            int n = _numChildren[old];
+            _spareFirstChild.set(i, size);
+            _spareNumChildren[i] = n;
+            for (int k = 0; k < n; k += 1) {
+                origin[size] = oldFirst + k;
+                _spareMove[size] = _move[oldFirst + k];
+                size += 1;
+            }
+        }
+        for (int i = 0; i < size; i += 1) {
+            int first = _spareFirstChild.get(i);
+            for (int k = 0; k < _spareNumChildren[i]; k += 1) {
+                origin[first + k] = i;
+            }
+        }
+        origin[0] = NONE;
+
+        int[] ti;
+        ti = _parent;
+        _parent = _spareParent;
+        _spareParent = ti;
+        ti = _numChildren;
+        _numChildren = _spareNumChildren;
+        _spareNumChildren = ti;
+        short[] ts = _move;
+        _move = _spareMove;
+        _spareMove = ts;
+        AtomicIntegerArray tai;
+        tai = _firstChild;
+        _firstChild = _spareFirstChild;
+        _spareFirstChild = tai;
+        tai = _visits;
+        _visits = _spareVisits;
+        _spareVisits = tai;
+        AtomicLongArray tal = _value;
+        _value = _spareValue;
+        _spareValue = tal;
+        _size.set(size);
+    }
+
+    /**
+     * Maximum number of nodes.
+     */
+    private final int _capacity;
+    /**
+     * Index of the next free node.  May exceed _capacity after a failed
+     * expansion.
+     */
+    private final AtomicInteger _size = new AtomicInteger();
+    /**
+     * Per-node fields, indexed by node.  These are written only by the
+     * thread that expands the parent node, before it publishes the
+     * children through _firstChild.
+     */
+    private int[] _parent, _numChildren;
+    /**
+     * Per-node move indices, indexed by node.
+     */
+    private short[] _move;
+    /**
+     * Per-node index of first child, NONE, or EXPANDING.
+     */
+    private AtomicIntegerArray _firstChild;
+    /**
+     * Per-node visit counts, including virtual losses.
+     */
+    private AtomicIntegerArray _visits;
+    /**
+     * Per-node total rewards, in units of 1/VALUE_SCALE.
+     */
+    private AtomicLongArray _value;
+    /**
+     * Second set of node arrays, used as the target of retain, after
+     * which the two sets are exchanged.
+     */
+    private int[] _spareParent, _spareNumChildren;
+    /**
+     * Spare move array.
+     */
+    private short[] _spareMove;
+    /**
+     * Spare first-child and visit arrays.
+     */
+    private AtomicIntegerArray _spareFirstChild, _spareVisits;
+    /**
+     * Spare value array.
+     */
+    private AtomicLongArray _spareValue;
+}
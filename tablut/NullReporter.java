@@ -0,0 +1,28 @@
+package tablut;
+
+/** A Reporter that discards all reports, for games played without a
+ *  user, such as self-play.
+ *  @author Kevin Moy
+ */
+class NullReporter implements Reporter {
+
+    @Override
+    public void reportError(String fmt, Object... args) {
+    }
+
+    @Override
+    public void reportNote(String fmt, Object... args) {
+    }
+
+    @Override
+    public void reportMove(Move unused) {
+    }
+
+    @Override
+    public void reportStats(String fmt, Object... args) {
+    }
+
+    @Override
+    public void reportClock(String fmt, Object... args) {
+    }
+}
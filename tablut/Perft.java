@@ -0,0 +1,300 @@
+package tablut;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Move-path enumeration ("perft"): counting the positions reachable by
+ * exactly N moves from a given position, where a finished game has no
+ * successors.  Comparing such counts with known values checks a move
+ * generator, and timing them measures the speed of move generation,
+ * making, and unmaking independently of any search.
+ *
+ * A Perft counts either with Board (the reference implementation) or
+ * with FastBoard, and either serially or on the common fork/join pool.
+ * At the last ply it counts moves without making them ("bulk
+ * counting").  Its divide method breaks the total down by first move,
+ * which localizes a disagreement between two move generators.  Since a
+ * FastBoard has no game history, FastBoard counts do not treat a return
+ * to a position from before the starting position as a repetition.
+ *
+ * @author Kevin Moy
+ */
+class Perft {
+
+    /**
+     * Remaining depth at or below which a parallel task counts serially
+     * rather than forking.
+     */
+    private static final int SPLIT_DEPTH = 2;
+
+    /**
+     * A Perft that counts using FastBoard iff FAST, and in parallel iff
+     * PARALLEL.
+     */
+    Perft(boolean fast, boolean parallel) {
+        _fast = fast;
+        _parallel = parallel;
+    }
+
+    /**
+     * Count the positions DEPTH >= 1 plies below the current position of
+     * BOARD, which is not modified, recording the count below each legal
+     * first move.  Return the total.
+     */
+    long divide(Board board, int depth) {
+        long start = System.nanoTime();
+        _moves.clear();
+        if (board.winner() == null) {
+            _moves.addAll(board.legalMoves(board.turn()));
+        }
+        _counts = new long[_moves.size()];
+        _total = 0;
+        Board root = new Board(board, 1);
+        root.recordPosition();
+        FastBoard fastRoot = _fast ? new FastBoard(board) : null;
+        if (_parallel) {
+            List<Task> tasks = new ArrayList<>();
+            for (Move move : _moves) {
+                int[] path = { move.index() };
+                tasks.add(new Task(root, fastRoot, path, depth - 1));
+            }
+            ForkJoinTask.invokeAll(tasks);
+            for (int k = 0; k < _counts.length; k += 1) {
+                _counts[k] = tasks.get(k).join();
+            }
+        } else {
+            for (int k = 0; k < _counts.length; k += 1) {
+                Move move = _moves.get(k);
+                if (_fast) {
+                    fastRoot.makeMove(move.index());
+                    _counts[k] = count(fastRoot, depth - 1);
+                    fastRoot.undoMove();
+                } else {
+                    root.makeMove(move);
+                    _counts[k] = count(root, depth - 1);
+                    root.undo();
+                }
+            }
+        }
+        for (long n : _counts) {
+            _total += n;
+        }
+        _nanos = System.nanoTime() - start;
+        return _total;
+    }
+
+    /**
+     * Return the legal first moves from the position given to the last
+     * call of divide.
+     */
+    List<Move> moves() {
+        return _moves;
+    }
+
+    /**
+     * Return the count below the Kth of moves() in the last call of
+     * divide.
+     */
+    long count(int k) {
+        return _counts[k];
+    }
+
+    /**
+     * Return the total computed by the last call of divide.
+     */
+    long total() {
+        return _total;
+    }
+
+    /**
+     * Return the time taken by the last call of divide in milliseconds.
+     */
+    double millis() {
+        return _nanos / 1e6;
+    }
+
+    /**
+     * Return the number of positions counted per second by the last call
+     * of divide.
+     */
+    double nodesPerSecond() {
+        return _nanos <= 0 ? 0 : _total / (_nanos / 1e9);
+    }
+
+    /**
+     * Return the number of positions DEPTH plies below the current
+     * position of BOARD, which must have a full history (as from
+     * Board(model, 1)) whose undo stack and position history include
+     * the current position.
+     * BOARD is restored before returning.
+     */
+    static long count(Board board, int depth) {
+        if (depth == 0) {
+            return 1;
+        }
+        if (board.winner() != null) {
+            return 0;
+        }
+        List<Move> moves = board.legalMoves(board.turn());
+        if (depth == 1) {
+            return moves.size();
+        }
+        long total = 0;
+        for (Move move : moves) {
+            board.makeMove(move);
+            total += count(board, depth - 1);
+            board.undo();
+        }
+        return total;
+    }
+
+    /**
+     * Return the number of positions DEPTH plies below the current
+     * position of BOARD, which is restored before returning.
+     */
+    static long count(FastBoard board, int depth) {
+        if (depth == 0) {
+            return 1;
+        }
+        return count(board, depth, new int[depth][FastBoard.MAX_MOVES]);
+    }
+
+    /**
+     * As for count(BOARD, DEPTH), using MOVES[DEPTH - 1] as the move
+     * buffer for the current ply.
+     */
+    private static long count(FastBoard board, int depth, int[][] moves) {
+        if (board.winner() != FastBoard.EMPTY) {
+            return 0;
+        }
+        if (depth == 1) {
+            return board.countMoves();
+        }
+        int[] buffer = moves[depth - 1];
+        int n = board.legalMoves(buffer);
+        long total = 0;
+        for (int k = 0; k < n; k += 1) {
+            board.makeMove(buffer[k]);
+            total += count(board, depth - 1, moves);
+            board.undoMove();
+        }
+        return total;
+    }
+
+    /**
+     * A parallel count of the positions a given number of plies below the
+     * position reached from a root position by a sequence of moves.  Each
+     * task replays its moves on its own copy of the root, so repetitions
+     * of positions before the split are still detected.
+     */
+    private class Task extends RecursiveTask<Long> {
+
+        /**
+         * A task counting the positions DEPTH plies below the position
+         * reached from ROOT (or FASTROOT, when counting with FastBoard)
+         * by the moves with indices PATH.
+         */
+        Task(Board root, FastBoard fastRoot, int[] path, int depth) {
+            _root = root;
+            _fastRoot = fastRoot;
+            _path = path;
+            _depth = depth;
+        }
+
+        @Override
+        protected Long compute() {
+            if (_fast) {
+                FastBoard board = new FastBoard();
+                board.copyFrom(_fastRoot);
+                for (int move : _path) {
+                    board.makeMove(move);
+                }
+                if (_depth <= SPLIT_DEPTH
+                    || board.winner() != FastBoard.EMPTY) {
+                    return count(board, _depth);
+                }
+                int[] moves = new int[FastBoard.MAX_MOVES];
+                int n = board.legalMoves(moves);
+                return fork(Arrays.copyOf(moves, n));
+            } else {
+                Board board = new Board(_root, 1);
+                for (int move : _path) {
+                    board.makeMove(Move.mv(move));
+                }
+                if (_depth <= SPLIT_DEPTH || board.winner() != null) {
+                    return count(board, _depth);
+                }
+                List<Move> moves = board.legalMoves(board.turn());
+                int[] indices = new int[moves.size()];
+                for (int k = 0; k < indices.length; k += 1) {
+                    indices[k] = moves.get(k).index();
+                }
+                return fork(indices);
+            }
+        }
+
+        /**
+         * Run one subtask for each of the moves with indices MOVES, and
+         * return the sum of their counts.
+         */
+        private long fork(int[] moves) {
+            List<Task> tasks = new ArrayList<>();
+            for (int move : moves) {
+                int[] path = Arrays.copyOf(_path, _path.length + 1);
+                path[_path.length] = move;
+                tasks.add(new Task(_root, _fastRoot, path, _depth - 1));
+            }
+            long total = 0;
+            for (Task task : invokeAll(tasks)) {
+                total += task.join();
+            }
+            return total;
+        }
+
+        /**
+         * The root position.
+         */
+        private final Board _root;
+        /**
+         * The root position as a FastBoard, or null.
+         */
+        private final FastBoard _fastRoot;
+        /**
+         * Indices of the moves from the root to my position.
+         */
+        private final int[] _path;
+        /**
+         * Number of plies to count below my position.
+         */
+        private final int _depth;
+    }
+
+    /**
+     * True iff I count with FastBoard.
+     */
+    private final boolean _fast;
+    /**
+     * True iff I count in parallel.
+     */
+    private final boolean _parallel;
+    /**
+     * Legal first moves in the last call of divide.
+     */
+    private final List<Move> _moves = new ArrayList<>();
+    /**
+     * Counts below each of _moves.
+     */
+    private long[] _counts = new long[0];
+    /**
+     * Total of _counts.
+     */
+    private long _total;
+    /**
+     * Time taken by the last call of divide in nanoseconds.
+     */
+    private long _nanos;
+}
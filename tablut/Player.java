@@ -36,9 +36,29 @@ abstract class Player {
     /** Return either a String denoting either a legal move for me
      *  or another command (which may be invalid).  Always returns the
      *  latter if board().turn() is not myPiece() or if board.winner()
-     *  is not null. */
+     *  is not null.  An automated player whose search the controller
+     *  cancels returns null without reporting a move. */
     abstract String myMove();
 
+    /** Return statistics describing my most recent search for a move, or
+     *  null if I do not search (the default). */
+    SearchStats searchStats() {
+        return null;
+    }
+
+    /** Return a TimeManager for my search for a move in the current
+     *  position if the game has clocks and there is no node budget, and
+     *  otherwise null. */
+    TimeManager timeManager() {
+        GameClock clock = _controller.clock();
+        if (clock == null || _controller.nodeBudget() > 0) {
+            return null;
+        }
+        Board board = board();
+        return new TimeManager(clock.remaining(_myPiece), clock.increment(),
+                               board.moveCount() / 2, board.moveLimit());
+    }
+
     /** My Controller. */
     protected Controller _controller;
     /** The Piece I play (WHITE or BLACK). */
@@ -0,0 +1,114 @@
+package tablut;
+
+import java.util.SplittableRandom;
+
+/**
+ * A kernel for playing random games to the end.  A Playout owns a
+ * FastBoard and a move buffer, and allocates nothing per game, so it can
+ * run millions of games a minute.  Moves are uniformly random, except
+ * that a "guided" Playout always takes an immediate king escape when one
+ * is available to WHITE.  A Playout is not thread-safe; give each thread
+ * its own.
+ *
+ * @author Kevin Moy
+ */
+class Playout {
+
+    /**
+     * A Playout whose random choices come from RANDOM, which takes the
+     * winning king move when there is one iff GUIDED.
+     */
+    Playout(SplittableRandom random, boolean guided) {
+        _random = random;
+        _guided = guided;
+    }
+
+    /**
+     * Return the board on which games are played.  After a call to play,
+     * it holds the final position of that game.
+     */
+    FastBoard board() {
+        return _board;
+    }
+
+    /**
+     * Play a random game from POSITION, stopping after at most MAXPLIES
+     * moves, and return the winner (FastBoard.WHITE or FastBoard.BLACK),
+     * or FastBoard.EMPTY if the game is unfinished.  POSITION is not
+     * modified.
+     */
+    int play(FastBoard position, int maxPlies) {
+        _board.copyFrom(position);
+        return finish(maxPlies);
+    }
+
+    /**
+     * As for play(POSITION, MAXPLIES), starting from the current position
+     * of BOARD.
+     */
+    int play(Board position, int maxPlies) {
+        _board.copyFrom(position);
+        return finish(maxPlies);
+    }
+
+    /**
+     * Continue the game on board() with random moves, stopping after at
+     * most MAXPLIES moves, and return the winner or FastBoard.EMPTY.
+     */
+    int finish(int maxPlies) {
+        FastBoard board = _board;
+        for (int k = 0; k < maxPlies && board.winner() == FastBoard.EMPTY;
+             k += 1) {
+            int move = -1;
+            if (_guided && board.turn() == FastBoard.WHITE) {
+                move = board.kingEscape();
+            }
+            if (move < 0) {
+                int n = board.legalMoves(_moves);
+                if (n == 0) {
+                    break;
+                }
+                move = _moves[_random.nextInt(n)];
+            }
+            board.makeMove(move);
+        }
+        return board.winner();
+    }
+
+    /**
+     * Return the value for WHITE of the position on board(), between 0
+     * (loss) and 1 (win).  Finished games are worth 0 or 1; otherwise this
+     * estimates WHITE's chances from the material on the board, counting
+     * each defender double.
+     */
+    double whiteValue() {
+        switch (_board.winner()) {
+        case FastBoard.WHITE:
+            return 1.0;
+        case FastBoard.BLACK:
+            return 0.0;
+        default:
+            int white = 2 * (_board.count(FastBoard.WHITE)
+                             + _board.count(FastBoard.KING));
+            int black = _board.count(FastBoard.BLACK);
+            return (double) white / (white + black);
+        }
+    }
+
+    /**
+     * The board on which games are played.
+     */
+    private final FastBoard _board = new FastBoard();
+    /**
+     * Move buffer.
+     */
+    private final int[] _moves = new int[FastBoard.MAX_MOVES];
+    /**
+     * Source of random choices.
+     */
+    private final SplittableRandom _random;
+    /**
+     * True iff WHITE always takes an immediate king escape.
+     */
+    private final boolean _guided;
+}
@@ -0,0 +1,273 @@
+package tablut;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * A database of the moves played from positions in a collection of games
+ * and how those games turned out, used as an opening book and for
+ * exploring openings.  Positions are identified by canonical Zobrist key
+ * (see Board.canonicalKey), so that positions equivalent under a
+ * symmetry of the board share their statistics, and moves are stored as
+ * they apply to the canonical form.
+ *
+ * The database is a file of fixed-size entries sorted by key and move,
+ * each holding a key, a move index, and the numbers of games in which
+ * the side that made the move went on to win, to lose, or to neither
+ * (games unfinished when recorded).  It is memory-mapped and searched
+ * by binary search, so that it is never loaded into the heap.
+ *
+ * @author Kevin Moy
+ */
+class PositionDB {
+
+    /**
+     * First bytes of a database file.
+     */
+    static final byte[] MAGIC = { 'T', 'B', 'P', 'D' };
+
+    /**
+     * Size of the file header: MAGIC, a version number, and the number
+     * of entries.
+     */
+    static final int HEADER_SIZE = 12;
+
+    /**
+     * Current format version.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * Size of an entry: key, move, wins, losses, and draws.
+     */
+    static final int ENTRY_SIZE = 24;
+
+    /**
+     * Default number of moves of each game entered.
+     */
+    static final int DEFAULT_PLIES = 30;
+
+    /**
+     * A database read from FILE.
+     */
+    PositionDB(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file,
+                                                    StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE
+                || channel.size() < HEADER_SIZE) {
+                throw new IOException("bad position database size");
+            }
+            _buf = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                               channel.size());
+        }
+        for (int k = 0; k < MAGIC.length; k += 1) {
+            if (_buf.get(k) != MAGIC[k]) {
+                throw new IOException("not a position database");
+            }
+        }
+        if (_buf.getInt(MAGIC.length) != VERSION) {
+            throw new IOException("unsupported position database version");
+        }
+        _size = _buf.getInt(HEADER_SIZE - 4);
+        if (HEADER_SIZE + (long) _size * ENTRY_SIZE != _buf.capacity()) {
+            throw new IOException("truncated position database");
+        }
+    }
+
+    /**
+     * Return the number of entries.
+     */
+    int size() {
+        return _size;
+    }
+
+    /**
+     * Return the moves recorded from the current position of BOARD, as
+     * they apply to BOARD, most played first.
+     */
+    List<Entry> lookup(Board board) {
+        int t = board.canonicalSymmetry();
+        long key = board.canonicalKey();
+        int inverse = Symmetry.inverse(t);
+        List<Entry> result = new ArrayList<>();
+        for (int k = find(key); k < _size && key(k) == key; k += 1) {
+            int at = HEADER_SIZE + k * ENTRY_SIZE;
+            result.add(new Entry(Symmetry.move(inverse, _buf.getInt(at + 8)),
+                                 _buf.getInt(at + 12), _buf.getInt(at + 16),
+                                 _buf.getInt(at + 20)));
+        }
+        result.sort((a, b) -> Integer.compare(b.games(), a.games()));
+        return result;
+    }
+
+    /**
+     * Return the index of the first entry whose key is at least KEY, or
+     * size() if there is none.
+     */
+    private int find(long key) {
+        int lo, hi;
+        lo = 0;
+        hi = _size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (key(mid) < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Return the key of entry K.
+     */
+    private long key(int k) {
+        return _buf.getLong(HEADER_SIZE + k * ENTRY_SIZE);
+    }
+
+    /**
+     * Build a database of the first PLIES moves of each game in the game
+     * record files in PATHS (files or directories, in which other files
+     * are ignored), writing it to OUT.  Return the number of entries.
+     */
+    static int build(List<Path> paths, int plies, Path out)
+        throws IOException {
+        HashMap<Long, HashMap<Integer, int[]>> counts = new HashMap<>();
+        FastBoard board = new FastBoard();
+        for (Path root : paths) {
+            try (Stream<Path> files = Files.walk(root)) {
+                Iterator<Path> iter = files.filter(Files::isRegularFile)
+                    .sorted().iterator();
+                while (iter.hasNext()) {
+                    Path file = iter.next();
+                    if (GameRecordReader.isRecordFile(file)) {
+                        addGames(file, plies, board, counts);
+                    }
+                }
+            }
+        }
+        long[] keys = new long[counts.size()];
+        int n, k;
+        n = k = 0;
+        for (long key : counts.keySet()) {
+            keys[k] = key;
+            k += 1;
+            n += counts.get(key).size();
+        }
+        Arrays.sort(keys);
+        try (DataOutputStream data = new DataOutputStream(
+                 new BufferedOutputStream(Files.newOutputStream(out)))) {
+            data.write(MAGIC);
+            data.writeInt(VERSION);
+            data.writeInt(n);
+            for (long key : keys) {
+                HashMap<Integer, int[]> moves = counts.get(key);
+                Integer[] order = moves.keySet().toArray(new Integer[0]);
+                Arrays.sort(order);
+                for (int move : order) {
+                    int[] wld = moves.get(move);
+                    data.writeLong(key);
+                    data.writeInt(move);
+                    data.writeInt(wld[0]);
+                    data.writeInt(wld[1]);
+                    data.writeInt(wld[2]);
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Add the first PLIES moves of the games in the game record file FILE
+     * to COUNTS, using BOARD to replay them.  COUNTS maps each canonical
+     * key to a map from canonical move to wins, losses, and draws.
+     */
+    private static void addGames(Path file, int plies, FastBoard board,
+                                 HashMap<Long, HashMap<Integer, int[]>>
+                                 counts)
+        throws IOException {
+        try (GameRecordReader games = new GameRecordReader(file)) {
+            while (games.next()) {
+                games.startPosition(board);
+                int winner = games.winner() == null ? FastBoard.EMPTY
+                    : games.winner().ordinal();
+                for (int k = 0; k < Math.min(plies, games.length());
+                     k += 1) {
+                    int t = board.canonicalSymmetry();
+                    int move = Symmetry.move(t, games.move(k));
+                    int[] wld =
+                        counts.computeIfAbsent(board.canonicalKey(),
+                                               key -> new HashMap<>())
+                        .computeIfAbsent(move, m -> new int[3]);
+                    wld[winner == FastBoard.EMPTY ? 2
+                        : winner == board.turn() ? 0 : 1] += 1;
+                    board.makeMove(games.move(k));
+                }
+            }
+        }
+    }
+
+    /**
+     * A move recorded in the database with the results of the games in
+     * which it was played.
+     */
+    static class Entry {
+
+        /**
+         * The move with index MOVE, after which the side making it won
+         * WINS games, lost LOSSES, and finished DRAWS unfinished.
+         */
+        Entry(int move, int wins, int losses, int draws) {
+            _move = Move.mv(move);
+            _wins = wins;
+            _losses = losses;
+            _draws = draws;
+        }
+
+        /**
+         * Return the number of games in which the move was played.
+         */
+        int games() {
+            return _wins + _losses + _draws;
+        }
+
+        /**
+         * Return the fraction of those games won by the side making the
+         * move, counting unfinished games as half won.
+         */
+        double score() {
+            return (_wins + 0.5 * _draws) / Math.max(1, games());
+        }
+
+        /**
+         * The move.
+         */
+        final Move _move;
+        /**
+         * Game outcomes for the side making the move.
+         */
+        final int _wins, _losses, _draws;
+    }
+
+    /**
+     * The mapped file.
+     */
+    private final MappedByteBuffer _buf;
+    /**
+     * Number of entries.
+     */
+    private final int _size;
+}
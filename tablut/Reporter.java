@@ -16,5 +16,14 @@ interface Reporter {
     /** Display MOVE as needed. */
     void reportMove(Move move);
 
+    /** Display a one-line summary of search statistics indicated by
+     *  FORMAT and ARGS, which have the same meaning as in
+     *  String.format. */
+    void reportStats(String format, Object... args);
+
+    /** Display the times left on the game clocks, as indicated by FORMAT
+     *  and ARGS, which have the same meaning as in String.format. */
+    void reportClock(String format, Object... args);
+
 }
 
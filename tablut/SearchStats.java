@@ -0,0 +1,239 @@
+package tablut;
+
+import java.util.Arrays;
+import java.util.Formatter;
+
+/**
+ * Counters describing one search by an automated player: the number of
+ * interior and horizon (quiescence) nodes visited, how often the first
+ * move searched at a node caused a beta cutoff, how the transposition
+ * table fared, and how long each iteration of iterative deepening took.
+ *
+ * @author Kevin Moy
+ */
+class SearchStats {
+
+    /**
+     * Reset all counters and start the clock for a new search.
+     */
+    void start() {
+        _nodes = _qnodes = 0;
+        _cutoffs = _firstCutoffs = 0;
+        _probes = _hits = _tableCutoffs = 0;
+        _depth = 0;
+        _iterations = 0;
+        _start = System.nanoTime();
+        _end = _start;
+    }
+
+    /**
+     * Note the start of the iteration that searches to depth DEPTH.
+     */
+    void startIteration(int depth) {
+        if (_iterations == _times.length) {
+            _times = Arrays.copyOf(_times, 2 * _times.length);
+        }
+        _times[_iterations] = System.nanoTime();
+    }
+
+    /**
+     * Note the completion of the iteration that searches to depth DEPTH.
+     */
+    void endIteration(int depth) {
+        _end = System.nanoTime();
+        _times[_iterations] = _end - _times[_iterations];
+        _iterations += 1;
+        _depth = depth;
+    }
+
+    /**
+     * Note the end of the search (which may have stopped part way through
+     * an iteration).
+     */
+    void finish() {
+        _end = System.nanoTime();
+    }
+
+    /**
+     * Count an interior node.
+     */
+    void node() {
+        _nodes += 1;
+    }
+
+    /**
+     * Count a horizon (quiescence) node.
+     */
+    void qnode() {
+        _qnodes += 1;
+    }
+
+    /**
+     * Count a beta cutoff, which was caused by the first move searched
+     * iff FIRST.
+     */
+    void cutoff(boolean first) {
+        _cutoffs += 1;
+        if (first) {
+            _firstCutoffs += 1;
+        }
+    }
+
+    /**
+     * Count a transposition-table probe, which found an entry iff HIT.
+     */
+    void probe(boolean hit) {
+        _probes += 1;
+        if (hit) {
+            _hits += 1;
+        }
+    }
+
+    /**
+     * Count a transposition-table entry that ended the search of a node.
+     */
+    void tableCutoff() {
+        _tableCutoffs += 1;
+    }
+
+    /**
+     * Return the number of interior nodes visited.
+     */
+    long nodes() {
+        return _nodes;
+    }
+
+    /**
+     * Return the number of horizon nodes visited.
+     */
+    long qnodes() {
+        return _qnodes;
+    }
+
+    /**
+     * Return the depth of the last completed iteration.
+     */
+    int depth() {
+        return _depth;
+    }
+
+    /**
+     * Return the elapsed time of the search in milliseconds.
+     */
+    double millis() {
+        return (_end - _start) / 1e6;
+    }
+
+    /**
+     * Return the number of nodes (of both kinds) per second.
+     */
+    double nodesPerSecond() {
+        double secs = (_end - _start) / 1e9;
+        return secs <= 0 ? 0 : (_nodes + _qnodes) / secs;
+    }
+
+    /**
+     * Return the percentage of beta cutoffs caused by the first move.
+     */
+    double firstCutoffRate() {
+        return percent(_firstCutoffs, _cutoffs);
+    }
+
+    /**
+     * Return the percentage of table probes that found an entry.
+     */
+    double hitRate() {
+        return percent(_hits, _probes);
+    }
+
+    /**
+     * Return the percentage of table probes that ended a node's search.
+     */
+    double tableCutoffRate() {
+        return percent(_tableCutoffs, _probes);
+    }
+
+    /**
+     * Return the time in milliseconds taken by iteration K (numbered
+     * from 0), which searched to depth K + 1.
+     */
+    double iterationMillis(int k) {
+        return _times[k] / 1e6;
+    }
+
+    /**
+     * Return the number of completed iterations.
+     */
+    int iterations() {
+        return _iterations;
+    }
+
+    /**
+     * Return a one-line summary of these statistics.
+     */
+    String summary() {
+        return String.format("depth %d nodes %d qnodes %d time %.0fms"
+                             + " nps %.0f fcut %.1f%% tthit %.1f%%",
+                             _depth, _nodes, _qnodes, millis(),
+                             nodesPerSecond(), firstCutoffRate(), hitRate());
+    }
+
+    /**
+     * Return a multi-line report of these statistics.
+     */
+    String report() {
+        Formatter out = new Formatter();
+        out.format("depth reached:        %d%n", _depth);
+        out.format("nodes:                %d%n", _nodes);
+        out.format("quiescence nodes:     %d%n", _qnodes);
+        out.format("time:                 %.1f ms%n", millis());
+        out.format("nodes/second:         %.0f%n", nodesPerSecond());
+        out.format("first-move cutoffs:   %.1f%% of %d%n",
+                   firstCutoffRate(), _cutoffs);
+        out.format("table probes:         %d%n", _probes);
+        out.format("table hits:           %.1f%%%n", hitRate());
+        out.format("table cutoffs:        %.1f%%%n", tableCutoffRate());
+        for (int k = 0; k < _iterations; k += 1) {
+            out.format("iteration %2d:         %.1f ms%n", k + 1,
+                       iterationMillis(k));
+        }
+        return out.toString();
+    }
+
+    /**
+     * Return 100 * PART / WHOLE, or 0 if WHOLE is 0.
+     */
+    private static double percent(long part, long whole) {
+        return whole == 0 ? 0.0 : 100.0 * part / whole;
+    }
+
+    /**
+     * Node counts.
+     */
+    private long _nodes, _qnodes;
+    /**
+     * Beta cutoffs, and those caused by the first move.
+     */
+    private long _cutoffs, _firstCutoffs;
+    /**
+     * Transposition-table probes, hits, and cutoffs.
+     */
+    private long _probes, _hits, _tableCutoffs;
+    /**
+     * Depth of the last completed iteration.
+     */
+    private int _depth;
+    /**
+     * Number of completed iterations.
+     */
+    private int _iterations;
+    /**
+     * Start and end times of the search, in nanoseconds.
+     */
+    private long _start, _end;
+    /**
+     * Durations of the completed iterations in nanoseconds (or start time
+     * of the iteration in progress).
+     */
+    private long[] _times = new long[16];
+}
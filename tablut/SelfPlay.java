@@ -0,0 +1,296 @@
+package tablut;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static tablut.Piece.*;
+
+/**
+ * A batch of games between automated players, played concurrently
+ * without a user or a command loop.  Each game has its own Controller,
+ * Board, and players, and is driven by Controller.autoPlay.  A game
+ * starts from the initial position or from one of a list of opening
+ * positions (used in rotation), optionally followed by a number of
+ * random moves.  All random choices derive from a single seed, so that,
+ * with a node budget in place of time limits, a batch can be repeated
+ * exactly.  Finished games may be written to a game record file, and
+ * positions sampled from them as training data.
+ *
+ * @author Kevin Moy
+ */
+class SelfPlay {
+
+    /**
+     * Default limit on the moves made by each side in a game.
+     */
+    static final int DEFAULT_MOVE_LIMIT = 100;
+
+    /**
+     * A batch of games between players created from the templates WHITE
+     * and BLACK.
+     */
+    SelfPlay(Player white, Player black) {
+        _white = white;
+        _black = black;
+    }
+
+    /**
+     * Start games from the positions OPENINGS, each in the format
+     * produced by Board.encodedBoard(), in rotation, rather than from the
+     * initial position.
+     */
+    void setOpenings(List<String> openings) {
+        Board check = new Board();
+        for (String opening : openings) {
+            check.setEncodedBoard(opening);
+        }
+        _openings = new ArrayList<>(openings);
+    }
+
+    /**
+     * Make PLIES random moves at the start of each game.
+     */
+    void setRandomPlies(int plies) {
+        _randomPlies = plies;
+    }
+
+    /**
+     * Derive all random choices from SEED.
+     */
+    void setSeed(long seed) {
+        _seed = seed;
+    }
+
+    /**
+     * Limit each search to NODES nodes (0 for time-limited searches).
+     */
+    void setNodeBudget(long nodes) {
+        _nodes = nodes;
+    }
+
+    /**
+     * Limit each side to LIMIT moves per game.
+     */
+    void setMoveLimit(int limit) {
+        _moveLimit = limit;
+    }
+
+    /**
+     * Write each game to RECORDER as it finishes (null for no record).
+     */
+    void setRecorder(GameRecordWriter recorder) {
+        _recorder = recorder;
+    }
+
+    /**
+     * Add samples from each game to TRAININGDATA as it finishes (null for
+     * none).
+     */
+    void setTrainingData(TrainingData trainingData) {
+        _trainingData = trainingData;
+    }
+
+    /**
+     * Play GAMES games, THREADS at a time, and return their results in
+     * order of game number.
+     */
+    List<Result> play(int games, int threads) {
+        SplittableRandom seeds = new SplittableRandom(_seed);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Result>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int k = 0; k < games; k += 1) {
+            int game = k;
+            long seed = seeds.nextLong();
+            futures.add(pool.submit(() -> playGame(game, seed)));
+        }
+        pool.shutdown();
+        List<Result> results = new ArrayList<>();
+        try {
+            for (Future<Result> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException excp) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("self-play interrupted");
+        } catch (ExecutionException excp) {
+            pool.shutdownNow();
+            throw new IllegalStateException(excp.getCause().getMessage());
+        }
+        _nanos = System.nanoTime() - start;
+        return results;
+    }
+
+    /**
+     * Play game number GAME, making random choices with seed SEED, and
+     * return its result.
+     */
+    Result playGame(int game, long seed) {
+        Controller control =
+            new Controller(new NullView(), null, new NullReporter(),
+                           _black, _white, false);
+        control.setSeed(seed);
+        control.setNodeBudget(_nodes);
+        Board board = control.board();
+        int opening = -1;
+        if (!_openings.isEmpty()) {
+            opening = game % _openings.size();
+            board.setEncodedBoard(_openings.get(opening));
+        }
+        board.setMoveLimit(_moveLimit);
+        List<Move> played = new ArrayList<>();
+        for (int k = 0; k < _randomPlies && board.winner() == null; k += 1) {
+            List<Move> moves = board.legalMoves(board.turn());
+            Move move = moves.get(control.randInt(moves.size()));
+            board.makeMove(move);
+            played.add(move);
+        }
+        List<Long> times = new ArrayList<>();
+        Piece winner = control.autoPlay(played, times);
+        GameRecord record =
+            new GameRecord(opening < 0 ? null : _openings.get(opening),
+                           _moveLimit, seed, winner, played);
+        if (_recorder != null) {
+            try {
+                _recorder.write(record);
+            } catch (IOException excp) {
+                throw new IllegalStateException("could not record game: "
+                                                + excp.getMessage());
+            }
+        }
+        if (_trainingData != null) {
+            _trainingData.addGame(record);
+        }
+        long total, max;
+        total = max = 0;
+        for (long t : times) {
+            total += t;
+            max = Math.max(max, t);
+        }
+        return new Result(game, opening, winner, board.moveCount(),
+                          times.size(), total, max);
+    }
+
+    /**
+     * Print a compact summary of RESULTS, as returned by the last call
+     * of play, on OUT: one line per game, then totals.
+     */
+    void summarize(List<Result> results, PrintStream out) {
+        int whiteWins, blackWins;
+        whiteWins = blackWins = 0;
+        long plies, moves, nanos, maxNanos;
+        plies = moves = nanos = maxNanos = 0;
+        out.printf("game  start  winner  plies  mean ms   max ms%n");
+        for (Result r : results) {
+            out.printf("%4d  %5s  %-6s  %5d  %7.1f  %7.1f%n",
+                       r._game + 1,
+                       r._opening < 0 ? "-" : "" + (r._opening + 1),
+                       r._winner.toName(), r._plies,
+                       r._moves == 0 ? 0 : r._nanos / 1e6 / r._moves,
+                       r._maxNanos / 1e6);
+            if (r._winner == WHITE) {
+                whiteWins += 1;
+            } else {
+                blackWins += 1;
+            }
+            plies += r._plies;
+            moves += r._moves;
+            nanos += r._nanos;
+            maxNanos = Math.max(maxNanos, r._maxNanos);
+        }
+        int games = Math.max(1, results.size());
+        out.printf("%d games in %.1f s: White %d (%.1f%%), Black %d"
+                   + " (%.1f%%)%n", results.size(), _nanos / 1e9,
+                   whiteWins, 100.0 * whiteWins / games,
+                   blackWins, 100.0 * blackWins / games);
+        out.printf("mean length %.1f plies; mean move %.1f ms;"
+                   + " max move %.1f ms%n", (double) plies / games,
+                   moves == 0 ? 0 : nanos / 1e6 / moves, maxNanos / 1e6);
+    }
+
+    /**
+     * The outcome of one game.
+     */
+    static class Result {
+
+        /**
+         * The result of game number GAME, which started from opening
+         * number OPENING (-1 for the initial position), was won by WINNER
+         * after a total of PLIES moves, of which MOVES were made by the
+         * automated players in a total of NANOS nanoseconds, at most
+         * MAXNANOS for one move.
+         */
+        Result(int game, int opening, Piece winner, int plies, int moves,
+               long nanos, long maxNanos) {
+            _game = game;
+            _opening = opening;
+            _winner = winner;
+            _plies = plies;
+            _moves = moves;
+            _nanos = nanos;
+            _maxNanos = maxNanos;
+        }
+
+        /**
+         * Game number and opening number.
+         */
+        final int _game, _opening;
+        /**
+         * The winning side.
+         */
+        final Piece _winner;
+        /**
+         * Total moves and those chosen by the players.
+         */
+        final int _plies, _moves;
+        /**
+         * Total and maximum times for the players' moves.
+         */
+        final long _nanos, _maxNanos;
+    }
+
+    /**
+     * Templates for the players.
+     */
+    private final Player _white, _black;
+    /**
+     * Opening positions, as encoded boards.
+     */
+    private List<String> _openings = new ArrayList<>();
+    /**
+     * Number of random moves at the start of each game.
+     */
+    private int _randomPlies;
+    /**
+     * Seed from which all random choices derive.
+     */
+    private long _seed = new SplittableRandom().nextLong();
+    /**
+     * Node budget per search, or 0.
+     */
+    private long _nodes;
+    /**
+     * Limit on each side's moves.
+     */
+    private int _moveLimit = DEFAULT_MOVE_LIMIT;
+    /**
+     * Destination of finished games, or null.
+     */
+    private GameRecordWriter _recorder;
+    /**
+     * Destination of training samples, or null.
+     */
+    private TrainingData _trainingData;
+    /**
+     * Wall-clock time of the last call of play in nanoseconds.
+     */
+    private long _nanos;
+}
@@ -0,0 +1,335 @@
+package tablut;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static tablut.FastBoard.EMPTY;
+import static tablut.FastBoard.WHITE;
+
+/**
+ * A proof-number solver, which tries to prove or disprove that one side
+ * (the prover) can force a win from a position.  Tablut is full of
+ * positions decided by a forced king escape or capture several moves
+ * deep, well beyond the reach of full-width search, which proof-number
+ * search settles quickly by always expanding the most promising line of
+ * the proof or of its refutation.
+ *
+ * This is depth-first proof-number search (df-pn): each position has a
+ * proof number (how many more positions must be proved to prove it) and
+ * a disproof number, kept in a hash table of its own.  A position where
+ * the prover is to move is proved when any move is, and disproved when
+ * all moves are; where the opponent is to move, the reverse.  A White
+ * king with a clear run to the edge wins at once.  Lines longer than
+ * MAX_DEPTH plies count as failures of the proof, so that a disproof
+ * means only that there is no forced win within that many plies.  As
+ * usual in df-pn, keys do not include the history behind a position,
+ * so a proof that relies on the opponent's being forced to repeat a
+ * position may rarely be wrong.
+ *
+ * @author Kevin Moy
+ */
+class Solver {
+
+    /**
+     * Results of solve: a forced win proved or disproved, or neither
+     * within the node limit.
+     */
+    static final int PROVEN = 1, DISPROVEN = -1, UNKNOWN = 0;
+
+    /**
+     * Default number of positions searched.
+     */
+    static final long DEFAULT_NODES = 500_000;
+
+    /**
+     * Length in plies of the longest line considered.
+     */
+    static final int MAX_DEPTH = 64;
+
+    /**
+     * Default log base 2 of the number of table entries.
+     */
+    static final int DEFAULT_TABLE_BITS = 20;
+
+    /**
+     * A proof or disproof number standing for infinity.  Small enough
+     * that thresholds computed from it do not overflow.
+     */
+    private static final int INF = Integer.MAX_VALUE / 4;
+
+    /**
+     * Key mixed into the keys of positions when White is the prover,
+     * and multiplier mixing in the move count.
+     */
+    private static final long WHITE_PROVER = 0x5DEECE66DL,
+        PLY_MIX = 0x9E3779B97F4A7C15L;
+
+    /**
+     * A solver whose table has 2**LOGSIZE entries.
+     */
+    Solver(int logSize) {
+        _keys = new long[1 << logSize];
+        _pn = new int[1 << logSize];
+        _dn = new int[1 << logSize];
+        _mask = (1 << logSize) - 1;
+        _moves = new int[MAX_DEPTH + 1][FastBoard.MAX_MOVES];
+        _childKeys = new long[MAX_DEPTH + 1][FastBoard.MAX_MOVES];
+    }
+
+    /**
+     * Try to prove that PROVER (WHITE or BLACK) can force a win from the
+     * current position of BOARD, searching at most NODES positions.
+     * Return PROVEN, DISPROVEN, or UNKNOWN.  BOARD is not changed.
+     */
+    int solve(Board board, int prover, long nodes) {
+        return solve(new FastBoard(board), prover, nodes);
+    }
+
+    /**
+     * As above, for the position on BOARD.
+     */
+    int solve(FastBoard board, int prover, long nodes) {
+        return solve(board, prover, nodes, new AtomicBoolean());
+    }
+
+    /**
+     * As above, but abandon the solve, which then returns UNKNOWN unless
+     * it has already finished, once STOP is set (from any thread).  Since
+     * each solve has its own STOP, a request to stop one made before it
+     * starts is not lost, and none carries over to the next.
+     */
+    int solve(FastBoard board, int prover, long nodes, AtomicBoolean stop) {
+        _board = new FastBoard();
+        _board.copyFrom(board);
+        _prover = prover;
+        _nodeLimit = nodes;
+        _nodes = 0;
+        _stop = stop;
+        _move = -1;
+        clear();
+        mid(0, INF - 1, INF - 1);
+        long key = key();
+        int i = (int) key & _mask;
+        if (_keys[i] != key) {
+            return UNKNOWN;
+        }
+        if (_pn[i] == 0) {
+            if (_board.turn() == _prover && _board.winner() == EMPTY) {
+                _move = provingMove();
+            }
+            return PROVEN;
+        }
+        return _dn[i] == 0 ? DISPROVEN : UNKNOWN;
+    }
+
+    /**
+     * Return the move (as an index) that wins for the prover in the last
+     * position proved with the prover to move, or -1.
+     */
+    int move() {
+        return _move;
+    }
+
+    /**
+     * Return the number of positions searched by the last solve.
+     */
+    long nodes() {
+        return _nodes;
+    }
+
+    /**
+     * Remove all entries from my table.
+     */
+    private void clear() {
+        Arrays.fill(_keys, 0);
+    }
+
+    /**
+     * Return the key of the current position, which depends on the
+     * prover and on the number of moves made (since the move limit may
+     * decide the game).
+     */
+    private long key() {
+        long key = _board.zobristKey() ^ _board.moveCount() * PLY_MIX;
+        return _prover == WHITE ? key ^ WHITE_PROVER : key;
+    }
+
+    /**
+     * Return the table slot holding KEY, or -1 if there is none.
+     */
+    private int find(long key) {
+        int i = (int) key & _mask;
+        return _keys[i] == key ? i : -1;
+    }
+
+    /**
+     * Record proof number PN and disproof number DN for KEY.  A solved
+     * position is not replaced by an unsolved one.
+     */
+    private void store(long key, int pn, int dn) {
+        int i = (int) key & _mask;
+        if (_keys[i] != key && _keys[i] != 0
+            && (_pn[i] == 0 || _dn[i] == 0) && pn != 0 && dn != 0) {
+            return;
+        }
+        _keys[i] = key;
+        _pn[i] = pn;
+        _dn[i] = dn;
+    }
+
+    /**
+     * Record the proof and disproof numbers of the current position if
+     * it is decided without search, and return true iff it is.
+     */
+    private boolean storeIfDecided(int ply) {
+        int winner = _board.winner();
+        if (winner == EMPTY && _board.turn() == WHITE
+            && _board.kingEscape() >= 0) {
+            winner = WHITE;
+        }
+        if (winner == EMPTY && ply < MAX_DEPTH) {
+            return false;
+        }
+        if (winner == _prover) {
+            store(key(), 0, INF);
+        } else {
+            store(key(), INF, 0);
+        }
+        return true;
+    }
+
+    /**
+     * Search the current position, PLY plies below the root, until its
+     * proof number reaches THPN or its disproof number reaches THDN, or
+     * the search is stopped.
+     */
+    private void mid(int ply, int thPn, int thDn) {
+        _nodes += 1;
+        if (_nodes > _nodeLimit) {
+            _stop.set(true);
+        }
+        if (_stop.get() || storeIfDecided(ply)) {
+            return;
+        }
+        long key = key();
+        int[] moves = _moves[ply];
+        long[] childKeys = _childKeys[ply];
+        int n = _board.legalMoves(moves);
+        boolean proverToMove = _board.turn() == _prover;
+        if (n == 0) {
+            store(key, proverToMove ? INF : 0, proverToMove ? 0 : INF);
+            return;
+        }
+        for (int k = 0; k < n; k += 1) {
+            _board.makeMove(moves[k]);
+            childKeys[k] = key();
+            if (find(childKeys[k]) < 0) {
+                storeIfDecided(ply + 1);
+            }
+            _board.undoMove();
+        }
+        while (true) {
+            int best, bestPn, bestDn, second, sum, least;
+            best = -1;
+            bestPn = bestDn = 1;
+            least = second = INF;
+            sum = 0;
+            for (int k = 0; k < n; k += 1) {
+                int i = find(childKeys[k]);
+                int pn = i < 0 ? 1 : _pn[i], dn = i < 0 ? 1 : _dn[i];
+                int minimized = proverToMove ? pn : dn;
+                sum = Math.min(INF, sum + (proverToMove ? dn : pn));
+                if (minimized < least) {
+                    second = least;
+                    least = minimized;
+                    best = k;
+                    bestPn = pn;
+                    bestDn = dn;
+                } else if (minimized < second) {
+                    second = minimized;
+                }
+            }
+            int pn = proverToMove ? least : sum,
+                dn = proverToMove ? sum : least;
+            store(key, pn, dn);
+            if (pn >= thPn || dn >= thDn || _stop.get()) {
+                return;
+            }
+            int childPn, childDn;
+            if (proverToMove) {
+                childPn = Math.min(thPn, second + 1);
+                childDn = thDn - dn + bestDn;
+            } else {
+                childPn = thPn - pn + bestPn;
+                childDn = Math.min(thDn, second + 1);
+            }
+            _board.makeMove(moves[best]);
+            mid(ply + 1, childPn, childDn);
+            _board.undoMove();
+        }
+    }
+
+    /**
+     * Return a move that leads to a proved position from the current
+     * (proved) one, where the prover is to move.
+     */
+    private int provingMove() {
+        int[] moves = _moves[0];
+        int n = _board.legalMoves(moves);
+        for (int k = 0; k < n; k += 1) {
+            _board.makeMove(moves[k]);
+            int i = find(key());
+            boolean won = _board.winner() == _prover;
+            _board.undoMove();
+            if (won || i >= 0 && _pn[i] == 0) {
+                return moves[k];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Keys of the table entries (0 for an empty entry).
+     */
+    private final long[] _keys;
+    /**
+     * Proof numbers of the table entries.
+     */
+    private final int[] _pn;
+    /**
+     * Disproof numbers of the table entries.
+     */
+    private final int[] _dn;
+    /**
+     * Mask giving a key's table slot.
+     */
+    private final int _mask;
+    /**
+     * Move lists for each ply of the search.
+     */
+    private final int[][] _moves;
+    /**
+     * Keys of the positions after each move in _moves.
+     */
+    private final long[][] _childKeys;
+    /**
+     * The position being solved.
+     */
+    private FastBoard _board;
+    /**
+     * The side trying to force a win.
+     */
+    private int _prover;
+    /**
+     * Number of positions searched, and the limit on that number.
+     */
+    private long _nodes, _nodeLimit;
+    /**
+     * Set when the current solve is to stop.
+     */
+    private AtomicBoolean _stop;
+    /**
+     * Winning move found by the last solve, or -1.
+     */
+    private int _move;
+}
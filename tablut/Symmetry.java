@@ -0,0 +1,102 @@
+package tablut;
+
+import static tablut.Square.BOARD_SIZE;
+import static tablut.Square.NUM_SQUARES;
+import static tablut.Square.sq;
+
+/**
+ * The eight symmetries of the board (rotations by multiples of 90
+ * degrees, each optionally preceded by a reflection), which map the
+ * initial position, the throne, and the edges onto themselves.  A
+ * symmetry is denoted by an int 0 .. COUNT - 1: for symmetry t, the
+ * reflection (col -> 8 - col) is applied iff t >= 4, followed by t % 4
+ * quarter-turns counterclockwise.  Symmetry 0 is the identity.
+ *
+ * @author Kevin Moy
+ */
+final class Symmetry {
+
+    /**
+     * The number of symmetries.
+     */
+    static final int COUNT = 8;
+
+    /**
+     * The identity symmetry.
+     */
+    static final int IDENTITY = 0;
+
+    /**
+     * Return the index of the square to which symmetry T maps the square
+     * with index S.
+     */
+    static int square(int t, int s) {
+        return SQUARE_MAP[t][s];
+    }
+
+    /**
+     * Return the square to which symmetry T maps S.
+     */
+    static Square apply(int t, Square s) {
+        return sq(SQUARE_MAP[t][s.index()]);
+    }
+
+    /**
+     * Return the index of the move to which symmetry T maps the move with
+     * index MOVE (as for Move.index()).
+     */
+    static int move(int t, int move) {
+        return SQUARE_MAP[t][move / NUM_SQUARES] * NUM_SQUARES
+            + SQUARE_MAP[t][move % NUM_SQUARES];
+    }
+
+    /**
+     * Return the move to which symmetry T maps MOVE.
+     */
+    static Move apply(int t, Move move) {
+        return Move.mv(apply(t, move.from()), apply(t, move.to()));
+    }
+
+    /**
+     * Return the symmetry that undoes symmetry T.
+     */
+    static int inverse(int t) {
+        return INVERSE[t];
+    }
+
+    /**
+     * SQUARE_MAP[t][s] is the image of square index s under symmetry t.
+     */
+    private static final int[][] SQUARE_MAP = new int[COUNT][NUM_SQUARES];
+    /**
+     * INVERSE[t] is the inverse of symmetry t.
+     */
+    private static final int[] INVERSE = new int[COUNT];
+
+    static {
+        int last = BOARD_SIZE - 1;
+        for (int t = 0; t < COUNT; t += 1) {
+            for (int s = 0; s < NUM_SQUARES; s += 1) {
+                int col = s % BOARD_SIZE, row = s / BOARD_SIZE;
+                if (t >= 4) {
+                    col = last - col;
+                }
+                for (int k = 0; k < t % 4; k += 1) {
+                    int c = col;
+                    col = last - row;
+                    row = c;
+                }
+                SQUARE_MAP[t][s] = row * BOARD_SIZE + col;
+            }
+        }
+        for (int t = 0; t < COUNT; t += 1) {
+            for (int u = 0; u < COUNT; u += 1) {
+                if (SQUARE_MAP[u][SQUARE_MAP[t][1]] == 1
+                    && SQUARE_MAP[u][SQUARE_MAP[t][BOARD_SIZE]]
+                    == BOARD_SIZE) {
+                    INVERSE[t] = u;
+                }
+            }
+        }
+    }
+}
@@ -21,4 +21,16 @@ class TextReporter implements Reporter {
     public void reportMove(Move move) {
         System.out.printf("* %s%n", move);
     }
+
+    @Override
+    public void reportStats(String fmt, Object... args) {
+        System.out.printf("info " + fmt, args);
+        System.out.println();
+    }
+
+    @Override
+    public void reportClock(String fmt, Object... args) {
+        System.out.printf("clock " + fmt, args);
+        System.out.println();
+    }
 }
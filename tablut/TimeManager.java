@@ -0,0 +1,133 @@
+package tablut;
+
+/**
+ * Allocation of time to one search by a player under a game clock.  The
+ * search gets a soft budget, its share of the remaining time spread over
+ * the moves it can expect still to make plus most of the increment, and
+ * a hard budget of a few times that (but never more than a fraction of
+ * what is left), after which it must stop.  Between iterations of its
+ * iterative deepening, the search reports its best move: while the best
+ * move keeps changing the soft budget grows, since the search has not
+ * yet settled on a move, and once it has stayed the same for several
+ * iterations the budget shrinks, since further search is unlikely to
+ * change it.
+ *
+ * @author Kevin Moy
+ */
+class TimeManager {
+
+    /**
+     * Number of moves a side is expected to make in a game, and the
+     * fewest moves still to come for which time is always reserved.
+     */
+    static final int EXPECTED_MOVES = 40, MIN_MOVES_TO_GO = 10;
+
+    /**
+     * Time in milliseconds kept in reserve for the overhead of making
+     * and reporting a move.
+     */
+    static final long SAFETY_MARGIN = 50;
+
+    /**
+     * Largest factor by which the hard budget exceeds the base one, and
+     * largest fraction of the remaining time that it uses.
+     */
+    private static final double MAX_STRETCH = 4.0, MAX_FRACTION = 0.25;
+
+    /**
+     * Fraction of the increment counted as time for the current move.
+     */
+    private static final double INCREMENT_SHARE = 0.75;
+
+    /**
+     * Growth of the soft budget per unit of instability, and decay of the
+     * instability per iteration.
+     */
+    private static final double INSTABILITY_WEIGHT = 0.5,
+        INSTABILITY_DECAY = 0.5;
+
+    /**
+     * Number of iterations without a change of best move after which the
+     * soft budget is scaled by STABLE_FACTOR.
+     */
+    private static final int STABLE_ITERATIONS = 3;
+
+    /**
+     * Scale of the soft budget once the best move is stable.
+     */
+    private static final double STABLE_FACTOR = 0.6;
+
+    /**
+     * A manager for a search by a side with REMAINING milliseconds left,
+     * receiving INCREMENT milliseconds after each move, that has made
+     * MOVESMADE moves and may make at most MOVELIMIT in all.
+     */
+    TimeManager(long remaining, long increment, int movesMade,
+                int moveLimit) {
+        int movesToGo = Math.max(MIN_MOVES_TO_GO,
+                                 EXPECTED_MOVES - movesMade);
+        movesToGo = Math.max(1, Math.min(movesToGo, moveLimit - movesMade));
+        long usable = Math.max(0, remaining - SAFETY_MARGIN);
+        _base = Math.min(usable,
+                         usable / movesToGo
+                         + (long) (INCREMENT_SHARE * increment));
+        long maximum = Math.min((long) (MAX_FRACTION * usable + increment),
+                                (long) (MAX_STRETCH * _base));
+        _maximum = Math.min(usable, Math.max(maximum, _base));
+    }
+
+    /**
+     * Record that an iteration of the search has finished with best move
+     * BEST.
+     */
+    void iterationDone(Move best) {
+        _instability *= INSTABILITY_DECAY;
+        if (_best != null && best != _best) {
+            _instability += 1;
+            _stable = 0;
+        } else {
+            _stable += 1;
+        }
+        _best = best;
+    }
+
+    /**
+     * Return the time in milliseconds after which the search should start
+     * no new iteration.
+     */
+    long softLimit() {
+        double scale = 1 + INSTABILITY_WEIGHT * _instability;
+        if (_stable >= STABLE_ITERATIONS) {
+            scale *= STABLE_FACTOR;
+        }
+        return Math.min(_maximum, (long) (scale * _base));
+    }
+
+    /**
+     * Return the time in milliseconds after which the search must stop.
+     */
+    long hardLimit() {
+        return _maximum;
+    }
+
+    /**
+     * The soft budget before adjustment for stability.
+     */
+    private final long _base;
+    /**
+     * The hard budget.
+     */
+    private final long _maximum;
+    /**
+     * The best move after the last iteration, or null.
+     */
+    private Move _best;
+    /**
+     * Decaying count of changes of best move.
+     */
+    private double _instability;
+    /**
+     * Number of iterations since the best move last changed.
+     */
+    private int _stable;
+}
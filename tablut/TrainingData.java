@@ -0,0 +1,296 @@
+package tablut;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A writer of labelled positions for tuning the evaluation, sampled from
+ * finished self-play games.  Each sample is a position, the score of a
+ * shallow search of it, and the result of the game it came from.  A
+ * sample takes SAMPLE_SIZE bytes:
+ *    21 bytes   the position, 2 bits per square (see GameRecord)
+ *     1 byte    flags: winner of the game in bits 0-1 and WHITE_TO_MOVE
+ *               in bit 3, as for GameRecord
+ *     2 bytes   search score for the side to move (see Analyzer),
+ *               with the default Evaluation's weights, and with wins
+ *               mapped to +/- (SCORE_WIN - plies to win)
+ * Samples are spread over a number of shard files in one directory,
+ * named by shardName, each beginning with the bytes "TBTD" and a version
+ * byte.  Games are handed to the shards in rotation, so that threads
+ * adding games at once seldom wait for each other, and each shard
+ * buffers its samples and writes them to its FileChannel in large
+ * blocks.
+ *
+ * @author Kevin Moy
+ */
+class TrainingData implements Closeable {
+
+    /**
+     * First bytes of a shard file.
+     */
+    static final byte[] MAGIC = { 'T', 'B', 'T', 'D' };
+
+    /**
+     * Current format version.
+     */
+    static final int VERSION = 2;
+
+    /**
+     * Size of the header of a shard file.
+     */
+    static final int HEADER_SIZE = MAGIC.length + 1;
+
+    /**
+     * Size of a sample.
+     */
+    static final int SAMPLE_SIZE = GameRecord.POSITION_SIZE + 3;
+
+    /**
+     * Stored score of an immediate win.
+     */
+    static final int SCORE_WIN = Short.MAX_VALUE;
+
+    /**
+     * Largest stored score that is not a win.
+     */
+    static final int SCORE_MAX = SCORE_WIN - Analyzer.MAX_PLY;
+
+    /**
+     * Default number of positions sampled per game, and default depth
+     * of the search that scores them.
+     */
+    static final int DEFAULT_SAMPLES = 8, DEFAULT_DEPTH = 2;
+
+    /**
+     * Number of initial moves of each game that are never sampled.
+     */
+    static final int SKIPPED_PLIES = 4;
+
+    /**
+     * Size of each shard's output buffer.
+     */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * Log base 2 of the size of each scoring search's transposition
+     * table.
+     */
+    private static final int TABLE_BITS = 14;
+
+    /**
+     * A writer of SHARDS shard files in directory DIR (created if need
+     * be), taking SAMPLES positions from each game and scoring each with
+     * a search of DEPTH plies.
+     */
+    TrainingData(Path dir, int shards, int samples, int depth)
+        throws IOException {
+        if (shards < 1 || samples < 1 || depth < 1
+            || depth >= Analyzer.MAX_PLY) {
+            throw Utils.error("bad training data parameters");
+        }
+        Files.createDirectories(dir);
+        _samples = samples;
+        _depth = depth;
+        _shards = new Shard[shards];
+        for (int k = 0; k < shards; k += 1) {
+            _shards[k] = new Shard(dir.resolve(shardName(k)));
+        }
+    }
+
+    /**
+     * Return the name of shard file number K.
+     */
+    static String shardName(int k) {
+        return String.format("shard-%03d.tbt", k);
+    }
+
+    /**
+     * Sample positions from GAME, a finished game, choosing them with
+     * its seed, and add them to one of the shards.  May be called from
+     * several threads at once.
+     */
+    void addGame(GameRecord game) {
+        FastBoard board = new FastBoard();
+        if (game.start() == null) {
+            board.copyFrom(new Board());
+        } else {
+            Board start = new Board();
+            start.setEncodedBoard(game.start());
+            board.copyFrom(start);
+        }
+        int first = Math.min(SKIPPED_PLIES, game.length());
+        int n = Math.min(_samples, game.length() - first);
+        boolean[] chosen = new boolean[game.length()];
+        SplittableRandom random = new SplittableRandom(game.seed());
+        for (int k = game.length() - n; k < game.length(); k += 1) {
+            int ply = first + random.nextInt(k - first + 1);
+            chosen[chosen[ply] ? k : ply] = true;
+        }
+        byte[] samples = new byte[n * SAMPLE_SIZE];
+        TranspositionTable table = TABLES.get();
+        int flags = GameRecord.winnerFlags(game.winner());
+        int at = 0;
+        for (int k = 0; k < game.length(); k += 1) {
+            if (chosen[k]) {
+                int turn = GameRecord.packPosition(board, samples, at);
+                samples[at + GameRecord.POSITION_SIZE] =
+                    (byte) (flags | turn);
+                int score = score(board, table);
+                samples[at + GameRecord.POSITION_SIZE + 1] =
+                    (byte) (score >> 8);
+                samples[at + GameRecord.POSITION_SIZE + 2] = (byte) score;
+                at += SAMPLE_SIZE;
+            }
+            board.makeMove(game.move(k));
+        }
+        Shard shard = _shards[Math.floorMod(_next.getAndIncrement(),
+                                            _shards.length)];
+        try {
+            shard.write(samples, at);
+        } catch (IOException excp) {
+            throw new IllegalStateException("could not write training data: "
+                                            + excp.getMessage());
+        }
+        _count.addAndGet(at / SAMPLE_SIZE);
+    }
+
+    /**
+     * Return the stored score of a search of the position on BOARD, using
+     * TABLE.
+     */
+    private int score(FastBoard board, TranspositionTable table) {
+        table.clear();
+        Analyzer analyzer = new Analyzer(board, EVALUATION, 1, REPORTER, table);
+        analyzer.analyze(_depth);
+        return storedScore(analyzer.score(0));
+    }
+
+    /**
+     * Return Analyzer score SCORE as it is stored.
+     */
+    static int storedScore(int score) {
+        if (score > Analyzer.WIN - Analyzer.MAX_PLY) {
+            return SCORE_WIN - (Analyzer.WIN - score);
+        } else if (score < Analyzer.MAX_PLY - Analyzer.WIN) {
+            return -SCORE_WIN + (Analyzer.WIN + score);
+        }
+        return Math.max(-SCORE_MAX, Math.min(SCORE_MAX, score));
+    }
+
+    /**
+     * Return the number of samples written.
+     */
+    long count() {
+        return _count.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Shard shard : _shards) {
+            shard.close();
+        }
+    }
+
+    /**
+     * One output file.
+     */
+    private static class Shard {
+
+        /**
+         * A shard written to FILE.
+         */
+        Shard(Path file) throws IOException {
+            _channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                                        StandardOpenOption.WRITE,
+                                        StandardOpenOption.TRUNCATE_EXISTING);
+            _buf.put(MAGIC).put((byte) VERSION);
+        }
+
+        /**
+         * Append the first N bytes of SAMPLES.
+         */
+        synchronized void write(byte[] samples, int n) throws IOException {
+            if (_buf.remaining() < n) {
+                flush();
+            }
+            if (_buf.remaining() < n) {
+                _channel.write(ByteBuffer.wrap(samples, 0, n));
+            } else {
+                _buf.put(samples, 0, n);
+            }
+        }
+
+        /**
+         * Write out my buffer.
+         */
+        private void flush() throws IOException {
+            _buf.flip();
+            while (_buf.hasRemaining()) {
+                _channel.write(_buf);
+            }
+            _buf.clear();
+        }
+
+        /**
+         * Write out my buffer and close my file.
+         */
+        synchronized void close() throws IOException {
+            flush();
+            _channel.close();
+        }
+
+        /**
+         * The file.
+         */
+        private final FileChannel _channel;
+        /**
+         * Samples not yet written.
+         */
+        private final ByteBuffer _buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    /**
+     * Destination of the scoring searches' reports.
+     */
+    private static final Reporter REPORTER = new NullReporter();
+
+    /**
+     * Evaluation used by the scoring searches.
+     */
+    private static final Evaluation EVALUATION = new Evaluation();
+
+    /**
+     * Each thread's transposition table for scoring searches.
+     */
+    private static final ThreadLocal<TranspositionTable> TABLES =
+        ThreadLocal.withInitial(() -> new TranspositionTable(TABLE_BITS));
+
+    /**
+     * Number of positions sampled per game.
+     */
+    private final int _samples;
+    /**
+     * Depth of scoring searches.
+     */
+    private final int _depth;
+    /**
+     * The shards.
+     */
+    private final Shard[] _shards;
+    /**
+     * Number of the next game, which determines its shard.
+     */
+    private final AtomicInteger _next = new AtomicInteger();
+    /**
+     * Number of samples written.
+     */
+    private final AtomicLong _count = new AtomicLong();
+}
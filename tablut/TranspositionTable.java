@@ -0,0 +1,157 @@
+package tablut;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size hash table of search results, indexed by position key
+ * (normally Board.canonicalKey()).  Each entry records the depth to
+ * which a position was searched, its score, whether that score is
+ * exact or only a bound, and the best move found.  Entries live in two
+ * parallel long arrays, one for keys and one for packed data, so the
+ * table creates no objects after construction; a subclass may keep
+ * them elsewhere instead (see MappedTranspositionTable).  When two
+ * positions hash to the same slot, the more deeply searched one is kept.
+ *
+ * @author Kevin Moy
+ */
+class TranspositionTable {
+
+    /**
+     * Bound types: the score is exact, a lower bound, or an upper bound.
+     */
+    static final int EXACT = 0, LOWER = 1, UPPER = 2;
+
+    /**
+     * A table with 2**LOGSIZE entries.
+     */
+    TranspositionTable(int logSize) {
+        this(logSize, true);
+    }
+
+    /**
+     * A table with 2**LOGSIZE entries, held in arrays iff ALLOCATE.
+     * Otherwise a subclass keeps the entries, and must override clear,
+     * keyAt, dataAt, and put.
+     */
+    TranspositionTable(int logSize, boolean allocate) {
+        _keys = allocate ? new long[1 << logSize] : null;
+        _data = allocate ? new long[1 << logSize] : null;
+        _mask = (1L << logSize) - 1;
+    }
+
+    /**
+     * Remove all entries.
+     */
+    void clear() {
+        Arrays.fill(_keys, 0);
+        Arrays.fill(_data, 0);
+    }
+
+    /**
+     * Return the packed entry for KEY, or 0 if there is none.  Use the
+     * static methods depth, bound, score, and move to unpack it.
+     */
+    long probe(long key) {
+        long i = key & _mask;
+        return keyAt(i) == key ? dataAt(i) : 0;
+    }
+
+    /**
+     * Record that the position with key KEY, searched to depth DEPTH,
+     * has score SCORE (exact or a bound as indicated by BOUND), and that
+     * its best move has index MOVE (-1 if none).
+     */
+    void store(long key, int depth, int bound, int score, int move) {
+        long i = key & _mask;
+        long old = dataAt(i);
+        if (keyAt(i) != key && old != 0 && depth(old) > depth) {
+            return;
+        }
+        put(i, key, VALID | ((long) (move + 1) << MOVE_SHIFT)
+            | ((long) bound << BOUND_SHIFT)
+            | ((long) (depth & DEPTH_MASK) << DEPTH_SHIFT)
+            | (score & SCORE_MASK));
+    }
+
+    /**
+     * Return the number of entries.
+     */
+    long size() {
+        return _mask + 1;
+    }
+
+    /**
+     * Return the key in slot I.
+     */
+    long keyAt(long i) {
+        return _keys[(int) i];
+    }
+
+    /**
+     * Return the packed data in slot I.
+     */
+    long dataAt(long i) {
+        return _data[(int) i];
+    }
+
+    /**
+     * Set slot I to hold KEY and packed data DATA.
+     */
+    void put(long i, long key, long data) {
+        _keys[(int) i] = key;
+        _data[(int) i] = data;
+    }
+
+    /**
+     * Return the search depth recorded in ENTRY.
+     */
+    static int depth(long entry) {
+        return (int) ((entry >>> DEPTH_SHIFT) & DEPTH_MASK);
+    }
+
+    /**
+     * Return the bound type recorded in ENTRY.
+     */
+    static int bound(long entry) {
+        return (int) ((entry >>> BOUND_SHIFT) & BOUND_MASK);
+    }
+
+    /**
+     * Return the score recorded in ENTRY.
+     */
+    static int score(long entry) {
+        return (int) entry;
+    }
+
+    /**
+     * Return the index of the best move recorded in ENTRY, or -1.
+     */
+    static int move(long entry) {
+        return (int) ((entry >>> MOVE_SHIFT) & MOVE_MASK) - 1;
+    }
+
+    /**
+     * Layout of packed entries: score in the low 32 bits, then depth,
+     * bound, and move index + 1.  The top bit marks a valid entry.
+     */
+    private static final int DEPTH_SHIFT = 32, BOUND_SHIFT = 40,
+        MOVE_SHIFT = 42;
+    /**
+     * Field masks.
+     */
+    private static final long SCORE_MASK = 0xffffffffL, DEPTH_MASK = 0xff,
+        BOUND_MASK = 3, MOVE_MASK = 0x3fff;
+    /**
+     * Bit set in every valid entry.
+     */
+    private static final long VALID = 1L << 63;
+
+    /**
+     * Entry keys and packed data, or null if kept by a subclass.
+     */
+    private final long[] _keys, _data;
+    /**
+     * Mask that reduces a key to a table index.
+     */
+    private final long _mask;
+}
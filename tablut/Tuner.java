@@ -0,0 +1,299 @@
+package tablut;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static tablut.Square.NUM_SQUARES;
+
+/**
+ * Tunes the weights of an Evaluation on training data (see TrainingData)
+ * in the manner of Texel's tuning method: it minimizes the mean squared
+ * difference between each sample's target and the win probability
+ * predicted from its evaluation, sigmoid(SCALE * score).  The target is
+ * the game's result for White (1, 0, or 1/2 if unfinished), blended with
+ * weight 1 - LAMBDA with the probability predicted from the sample's
+ * search score.  Minimization is by Adam gradient descent.
+ *
+ * The shard files are memory-mapped and read afresh in every step, so
+ * that data sets larger than the heap can be used.  Each step divides
+ * the samples into equal parts, one per task, computes the gradient over
+ * the parts on a pool of threads, and adds the parts' gradients in a
+ * fixed order, so that results do not depend on the number of threads.
+ *
+ * @author Kevin Moy
+ */
+class Tuner {
+
+    /**
+     * Scale relating scores to win probabilities: an advantage of four
+     * soldiers predicts a win about 90% of the time.
+     */
+    static final double SCALE = Math.log(10) / 400;
+
+    /**
+     * Default number of steps.
+     */
+    static final int DEFAULT_STEPS = 200;
+
+    /**
+     * Adam step size and decay rates.
+     */
+    private static final double RATE = 1.0, BETA1 = 0.9, BETA2 = 0.999,
+        EPSILON = 1e-8;
+
+    /**
+     * Number of parts into which samples are divided for each step.
+     */
+    private static final int PARTS = 64;
+
+    /**
+     * A tuner using the shard files found in PATHS (files or directories,
+     * in which other files are ignored).
+     */
+    Tuner(List<Path> paths) throws IOException {
+        for (Path root : paths) {
+            try (Stream<Path> files = Files.walk(root)) {
+                Iterator<Path> iter = files.filter(Files::isRegularFile)
+                    .sorted().iterator();
+                while (iter.hasNext()) {
+                    Path file = iter.next();
+                    MappedByteBuffer shard = map(file);
+                    if (shard != null) {
+                        _shards.add(shard);
+                        _size += (shard.capacity()
+                                  - TrainingData.HEADER_SIZE)
+                            / TrainingData.SAMPLE_SIZE;
+                    }
+                }
+            }
+        }
+        if (_size == 0) {
+            throw Utils.error("no training samples found");
+        }
+    }
+
+    /**
+     * Return FILE mapped into memory, or null if it is not a shard file.
+     */
+    private static MappedByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file,
+                                                    StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < TrainingData.HEADER_SIZE
+                || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            MappedByteBuffer buf =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            for (int k = 0; k < TrainingData.MAGIC.length; k += 1) {
+                if (buf.get(k) != TrainingData.MAGIC[k]) {
+                    return null;
+                }
+            }
+            if (buf.get(TrainingData.HEADER_SIZE - 1)
+                != TrainingData.VERSION) {
+                return null;
+            }
+            return buf;
+        }
+    }
+
+    /**
+     * Return the number of samples.
+     */
+    long size() {
+        return _size;
+    }
+
+    /**
+     * Use LAMBDA as the weight of game results in the targets.
+     */
+    void setLambda(double lambda) {
+        _lambda = lambda;
+    }
+
+    /**
+     * Return the mean squared error of EVAL over all samples, on THREADS
+     * threads.
+     */
+    double error(Evaluation eval, int threads) {
+        ExecutorService pool = newPool(threads);
+        try {
+            return run(eval, pool)[Evaluation.COUNT] / _size;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Return EVAL improved by STEPS steps of gradient descent on THREADS
+     * threads, reporting the error every REPORT steps on OUT (if not
+     * null).
+     */
+    Evaluation tune(Evaluation eval, int steps, int threads, int report,
+                    PrintStream out) {
+        double[] weights = new double[Evaluation.COUNT];
+        for (int k = 0; k < weights.length; k += 1) {
+            weights[k] = eval.weight(k);
+        }
+        double[] m = new double[weights.length];
+        double[] v = new double[weights.length];
+        ExecutorService pool = newPool(threads);
+        try {
+            for (int step = 1; step <= steps; step += 1) {
+                double[] sums = run(new Evaluation(weights), pool);
+                if (out != null && (step == 1 || step % report == 0)) {
+                    out.printf("step %d: error %.6f%n", step,
+                               sums[Evaluation.COUNT] / _size);
+                }
+                for (int k = 0; k < weights.length; k += 1) {
+                    double g = sums[k] / _size;
+                    m[k] = BETA1 * m[k] + (1 - BETA1) * g;
+                    v[k] = BETA2 * v[k] + (1 - BETA2) * g * g;
+                    double mHat = m[k] / (1 - Math.pow(BETA1, step));
+                    double vHat = v[k] / (1 - Math.pow(BETA2, step));
+                    weights[k] -= RATE * mHat / (Math.sqrt(vHat) + EPSILON);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return new Evaluation(weights);
+    }
+
+    /**
+     * Return a pool of THREADS threads for run.
+     */
+    private static ExecutorService newPool(int threads) {
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "tuner");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Return the sums over all samples of the gradient of the squared
+     * error of EVAL with respect to each weight, followed by the sum of
+     * the squared errors, computed on the threads of POOL.
+     */
+    private double[] run(Evaluation eval, ExecutorService pool) {
+        List<Future<double[]>> parts = new ArrayList<>();
+        for (int p = 0; p < PARTS; p += 1) {
+            long from = _size * p / PARTS, to = _size * (p + 1) / PARTS;
+            parts.add(pool.submit(() -> sums(eval, from, to)));
+        }
+        double[] total = new double[Evaluation.COUNT + 1];
+        try {
+            for (Future<double[]> part : parts) {
+                double[] sums = part.get();
+                for (int k = 0; k < total.length; k += 1) {
+                    total[k] += sums[k];
+                }
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("tuning interrupted");
+        } catch (ExecutionException excp) {
+            throw new IllegalStateException(excp.getCause().getMessage());
+        }
+        return total;
+    }
+
+    /**
+     * Return the sums as for run over samples FROM .. TO-1, numbered
+     * across all shards in order.
+     */
+    private double[] sums(Evaluation eval, long from, long to) {
+        double[] result = new double[Evaluation.COUNT + 1];
+        double[] features = new double[Evaluation.COUNT];
+        int[] cells = new int[NUM_SQUARES];
+        long first = 0;
+        for (MappedByteBuffer shard : _shards) {
+            long n = (shard.capacity() - TrainingData.HEADER_SIZE)
+                / TrainingData.SAMPLE_SIZE;
+            for (long i = Math.max(from, first); i < Math.min(to, first + n);
+                 i += 1) {
+                int at = TrainingData.HEADER_SIZE
+                    + (int) (i - first) * TrainingData.SAMPLE_SIZE;
+                double target = decode(shard, at, cells, features);
+                double p = sigmoid(SCALE * eval.score(features));
+                double diff = p - target;
+                double slope = 2 * diff * p * (1 - p) * SCALE;
+                for (int k = 0; k < Evaluation.COUNT; k += 1) {
+                    result[k] += slope * features[k];
+                }
+                result[Evaluation.COUNT] += diff * diff;
+            }
+            first += n;
+        }
+        return result;
+    }
+
+    /**
+     * Decode the sample at AT in SHARD, setting CELLS to its position and
+     * FEATURES to that position's features, and return its target.
+     */
+    private double decode(MappedByteBuffer shard, int at, int[] cells,
+                          double[] features) {
+        for (int s = 0; s < NUM_SQUARES; s += 1) {
+            cells[s] = (shard.get(at + s / 4) >> (2 * (s % 4))) & 3;
+        }
+        int flags = shard.get(at + GameRecord.POSITION_SIZE);
+        int turn = (flags & GameRecord.WHITE_TO_MOVE) != 0
+            ? FastBoard.WHITE : FastBoard.BLACK;
+        Evaluation.features(cells, turn, features);
+        Piece winner = GameRecord.winner(flags);
+        double result = winner == null ? 0.5
+            : winner == Piece.WHITE ? 1 : 0;
+        if (_lambda == 1) {
+            return result;
+        }
+        int score = shard.getShort(at + GameRecord.POSITION_SIZE + 1);
+        double predicted;
+        if (score > TrainingData.SCORE_MAX) {
+            predicted = 1;
+        } else if (score < -TrainingData.SCORE_MAX) {
+            predicted = 0;
+        } else {
+            predicted = sigmoid(SCALE * score);
+        }
+        if (turn == FastBoard.BLACK) {
+            predicted = 1 - predicted;
+        }
+        return _lambda * result + (1 - _lambda) * predicted;
+    }
+
+    /**
+     * Return the logistic function of X.
+     */
+    private static double sigmoid(double x) {
+        return 1 / (1 + Math.exp(-x));
+    }
+
+    /**
+     * The mapped shards.
+     */
+    private final List<MappedByteBuffer> _shards = new ArrayList<>();
+    /**
+     * Total number of samples.
+     */
+    private long _size;
+    /**
+     * Weight of game results in targets.
+     */
+    private double _lambda = 1;
+}
@@ -6,8 +6,18 @@ import static org.junit.Assert.*;
 
 import ucb.junit.textui;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
 
 import static tablut.Piece.*;
 import static tablut.Board.*;
@@ -308,6 +318,1165 @@ public class UnitTest {
         game.makeMove(mv("h4-5"));
         System.out.println(game);
     }
-}
 
+    /** Test that retaining a subtree of a NodePool keeps exactly that
+     *  subtree, re-rooted at node 0. */
+    @Test
+    public void testNodePoolRetain() {
+        NodePool pool = new NodePool(100);
+        int[] moves = {mv("d1-3").index(), mv("e2-c").index()};
+        int first = pool.expand(0, moves, 2);
+        int grand = pool.expand(first + 1, moves, 2);
+        pool.addVirtualLoss(first + 1, 3);
+        assertEquals(3, pool.visits(first + 1));
+        pool.update(first + 1, 1.0, 3);
+        pool.update(grand + 1, 0.5, 0);
+        assertEquals(NodePool.NONE, pool.expand(first + 1, moves, 2));
+        assertEquals(5, pool.size());
+        pool.retain(first + 1);
+        assertEquals(3, pool.size());
+        assertEquals(1, pool.visits(0));
+        assertEquals(NodePool.NONE, pool.parent(0));
+        assertEquals(2, pool.numChildren(0));
+        int c = pool.firstChild(0);
+        assertEquals(0, pool.parent(c + 1));
+        assertEquals(mv("e2-c"), Move.mv(pool.move(c + 1)));
+        assertEquals(0.5, pool.value(c + 1), 1e-9);
+        assertFalse(pool.isExpanded(c));
+    }
+
+    /** Test that several threads growing one NodePool at once, as the
+     *  workers of an MCTSPlayer do, build a consistent tree: every node
+     *  is expanded once into its own block of children, and the visits
+     *  of each node are those of its children plus the playouts that
+     *  ended there. */
+    @Test
+    public void testNodePoolConcurrentExpansion() throws InterruptedException {
+        final int threads = 4, playouts = 20000, branching = 3, loss = 3;
+        NodePool pool = new NodePool(1 << 18);
+        java.util.concurrent.atomic.AtomicIntegerArray ended =
+            new java.util.concurrent.atomic.AtomicIntegerArray(1 << 18);
+        int[] moves = { 0, 1, 2 };
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t += 1) {
+            SplittableRandom random = new SplittableRandom(t);
+            workers[t] = new Thread(() -> {
+                int[] path = new int[1 << 12];
+                for (int p = 0; p < playouts; p += 1) {
+                    int node = 0, depth = 0;
+                    path[0] = 0;
+                    pool.addVirtualLoss(0, loss);
+                    while (true) {
+                        int first = pool.firstChild(node);
+                        if (first < 0) {
+                            first = pool.expand(node, moves, branching);
+                        }
+                        if (first < 0) {
+                            break;
+                        }
+                        node = first + random.nextInt(branching);
+                        pool.addVirtualLoss(node, loss);
+                        depth += 1;
+                        path[depth] = node;
+                        if (pool.visits(node) == loss) {
+                            break;
+                        }
+                    }
+                    ended.incrementAndGet(node);
+                    for (int k = 0; k <= depth; k += 1) {
+                        pool.update(path[k], 0.5, loss);
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(threads * playouts, pool.visits(0));
+        int reached = 0;
+        boolean[] seen = new boolean[pool.size()];
+        List<Integer> queue = new ArrayList<>();
+        queue.add(0);
+        while (!queue.isEmpty()) {
+            int node = queue.remove(queue.size() - 1);
+            assertFalse(seen[node]);
+            seen[node] = true;
+            reached += 1;
+            int childVisits = 0;
+            if (pool.isExpanded(node)) {
+                assertEquals(branching, pool.numChildren(node));
+                for (int k = 0; k < branching; k += 1) {
+                    int c = pool.firstChild(node) + k;
+                    assertEquals(node, pool.parent(c));
+                    assertEquals(k, pool.move(c));
+                    childVisits += pool.visits(c);
+                    queue.add(c);
+                }
+            }
+            assertEquals(pool.visits(node), childVisits + ended.get(node));
+        }
+        assertEquals(pool.size(), reached);
+    }
+
+    /** Play random games on a Board and a FastBoard side by side, checking
+     *  that they agree on legal moves, captures, and winners, and that
+     *  undoing every move on the FastBoard restores the start. */
+    @Test
+    public void testFastBoardAgreesWithBoard() {
+        SplittableRandom random = new SplittableRandom(61);
+        int[] moves = new int[FastBoard.MAX_MOVES];
+        for (int game = 0; game < 20; game += 1) {
+            Board board = new Board();
+            FastBoard fast = new FastBoard(board);
+            long start = fast.hash();
+            for (int ply = 0; ply < 300 && board.winner() == null;
+                 ply += 1) {
+                List<Move> legal = board.legalMoves(board.turn());
+                int n = fast.legalMoves(moves);
+                assertEquals(legal.size(), n);
+                for (int k = 0; k < n; k += 1) {
+                    assertTrue(legal.contains(Move.mv(moves[k])));
+                }
+                Move move = legal.get(random.nextInt(legal.size()));
+                board.makeMove(move);
+                fast.makeMove(move.index());
+                for (Square s : SQUARE_LIST) {
+                    assertEquals(board.get(s), fast.piece(s.index()));
+                }
+                assertEquals(board.winner() == null ? EMPTY.ordinal()
+                             : board.winner().ordinal(), fast.winner());
+            }
+            while (fast.ply() > 0) {
+                fast.undoMove();
+            }
+            assertEquals(start, fast.hash());
+            assertEquals(EMPTY.ordinal(), fast.winner());
+            assertEquals(KING.ordinal(), fast.get(THRONE.index()));
+        }
+    }
+
+    /** Test that a Playout finishes games and reports their winners. */
+    @Test
+    public void testPlayout() {
+        Playout playout = new Playout(new SplittableRandom(1), true);
+        FastBoard start = new FastBoard(new Board());
+        for (int k = 0; k < 100; k += 1) {
+            int winner = playout.play(start, 10000);
+            assertEquals(winner, playout.board().winner());
+            assertTrue(winner == FastBoard.WHITE
+                       || winner == FastBoard.BLACK);
+        }
+        assertEquals(KING.ordinal(), start.get(THRONE.index()));
+    }
+
+    /** Test that symmetric positions share a canonical key, that the
+     *  incrementally maintained hashes match hashes computed from
+     *  scratch, and that the initial position is fully symmetric. */
+    @Test
+    public void testSymmetry() {
+        Board start = new Board();
+        for (int t = 0; t < Symmetry.COUNT; t += 1) {
+            assertEquals(start.symmetricHash(0), start.symmetricHash(t));
+            assertEquals(t, Symmetry.inverse(Symmetry.inverse(t)));
+        }
+        Board game = new Board();
+        game.makeMove(mv("d1-3"));
+        game.makeMove(mv("e3-h"));
+        game.makeMove(mv("a6-c"));
+        assertEquals(new Board(game).zobristKey(), game.zobristKey());
+        for (int t = 0; t < Symmetry.COUNT; t += 1) {
+            Board image = new Board(game);
+            image.setPosition(createEmptyBd());
+            for (Square s : SQUARE_LIST) {
+                image.put(game.get(s), Symmetry.apply(t, s));
+            }
+            assertEquals(game.symmetricHash(t), image.symmetricHash(0));
+            assertEquals(game.canonicalKey(), image.canonicalKey());
+            Move m = mv("h5-7");
+            Move back = Symmetry.apply(Symmetry.inverse(t),
+                                       Symmetry.apply(t, m));
+            assertEquals(m, back);
+            assertEquals(Symmetry.apply(t, m).index(),
+                         Symmetry.move(t, m.index()));
+        }
+        FastBoard fast = new FastBoard(game);
+        assertEquals(game.canonicalKey(), fast.canonicalKey());
+        assertEquals(game.zobristKey(), fast.zobristKey());
+    }
+
+    @Test
+    public void testSearchStats() {
+        SearchStats stats = new SearchStats();
+        stats.start();
+        stats.startIteration(1);
+        stats.node();
+        stats.qnode();
+        stats.qnode();
+        stats.probe(true);
+        stats.probe(false);
+        stats.tableCutoff();
+        stats.cutoff(true);
+        stats.cutoff(true);
+        stats.cutoff(true);
+        stats.cutoff(false);
+        stats.endIteration(1);
+        stats.finish();
+        assertEquals(1, stats.nodes());
+        assertEquals(2, stats.qnodes());
+        assertEquals(1, stats.depth());
+        assertEquals(1, stats.iterations());
+        assertEquals(75.0, stats.firstCutoffRate(), 1e-9);
+        assertEquals(50.0, stats.hitRate(), 1e-9);
+        assertEquals(50.0, stats.tableCutoffRate(), 1e-9);
+        assertTrue(stats.summary().startsWith("depth 1 nodes 1 qnodes 2"));
+        stats.start();
+        assertEquals(0, stats.nodes());
+        assertEquals(0.0, stats.hitRate(), 1e-9);
+    }
+
+    @Test
+    public void testPerft() {
+        Board start = new Board();
+        long[] expected = { 1, 80, 4400 };
+        for (int depth = 1; depth < expected.length; depth += 1) {
+            for (int mode = 0; mode < 4; mode += 1) {
+                Perft perft = new Perft(mode % 2 == 1, mode >= 2);
+                assertEquals(expected[depth], perft.divide(start, depth));
+            }
+        }
+        Perft divided = new Perft(false, false);
+        divided.divide(start, 2);
+        assertEquals(80, divided.moves().size());
+        assertEquals(55, divided.count(0));
+        Board sparse = new Board();
+        sparse.setPosition(createEmptyBd());
+        sparse.put(KING, Square.sq("e5"));
+        sparse.put(WHITE, Square.sq("e6"));
+        sparse.put(BLACK, Square.sq("g3"));
+        Board copy = new Board(sparse, 1);
+        for (int depth = 1; depth <= 5; depth += 1) {
+            long count = new Perft(false, false).divide(sparse, depth);
+            assertEquals(count, Perft.count(new FastBoard(sparse), depth));
+            assertEquals(count, new Perft(false, true).divide(sparse, depth));
+        }
+        assertEquals(copy, sparse);
+    }
+
+    @Test
+    public void testAnalyzer() {
+        Board board = new Board();
+        board.setPosition(createEmptyBd());
+        board.put(KING, Square.sq("e5"));
+        board.put(BLACK, Square.sq("g3"));
+        board.makeMove(mv("g3-4"));
+        List<String> lines = new ArrayList<>();
+        Reporter reporter = new Reporter() {
+            @Override
+            public void reportError(String fmt, Object... args) {
+            }
+
+            @Override
+            public void reportNote(String fmt, Object... args) {
+            }
+
+            @Override
+            public void reportMove(Move move) {
+            }
+
+            @Override
+            public void reportStats(String fmt, Object... args) {
+                lines.add(String.format(fmt, args));
+            }
+
+            @Override
+            public void reportClock(String fmt, Object... args) {
+            }
+        };
+        Analyzer analyzer = new Analyzer(board, new Evaluation(), 2, reporter);
+        analyzer.analyze(3);
+        assertEquals(3, analyzer.depth());
+        assertEquals(6, lines.size());
+        assertEquals(Analyzer.WIN - 1, analyzer.score(0));
+        assertTrue(analyzer.move(0).to().isEdge());
+        assertTrue(analyzer.score(1) <= analyzer.score(0));
+        assertTrue(lines.get(0).startsWith("depth 1 line 1 score "
+                                           + (Analyzer.WIN - 1)));
+    }
+
+    /** Test that the analyzer scores positions with the Evaluation it is
+     *  given, and counts a return to a position of the game before the
+     *  analyzed one as a repetition. */
+    @Test
+    public void testAnalyzerEvaluationAndHistory() {
+        Board board = new Board();
+        double[] toMove = { 0, 0, 0, 0, 0, 1 };
+        Analyzer analyzer =
+            new Analyzer(board, new Evaluation(toMove), 1, new NullReporter());
+        analyzer.analyze(1);
+        assertEquals(-1, analyzer.score(0));
+
+        board.makeMove(mv("a4-3"));
+        board.makeMove(mv("e3-d"));
+        board.makeMove(mv("a3-4"));
+        FastBoard fast = new FastBoard();
+        fast.copyGameFrom(board);
+        fast.makeMove(mv("d3-e").index());
+        assertTrue(fast.repeatedPosition());
+        assertEquals(FastBoard.BLACK, fast.winner());
+        fast.undoMove();
+        fast.makeMove(mv("d3-c").index());
+        assertFalse(fast.repeatedPosition());
+
+        analyzer = new Analyzer(board, new Evaluation(), 1,
+                                new NullReporter());
+        analyzer.analyze(1);
+        Analyzer fresh = new Analyzer(new FastBoard(board), new Evaluation(),
+                                      1, new NullReporter(),
+                                      new TranspositionTable(10));
+        fresh.analyze(1);
+        int found = 0;
+        for (int k = 0; k < board.legalMoves(WHITE).size(); k += 1) {
+            if (analyzer.move(k) == mv("d3-e")) {
+                assertEquals(1 - Analyzer.WIN, analyzer.score(k));
+                found += 1;
+            }
+            if (fresh.move(k) == mv("d3-e")) {
+                assertTrue(fresh.score(k) > 1 - Analyzer.WIN);
+                found += 1;
+            }
+        }
+        assertEquals(2, found);
+    }
+
+    @Test
+    public void testEncodedBoard() {
+        Board game = new Board();
+        game.makeMove(mv("d1-3"));
+        game.makeMove(mv("e3-h"));
+        Board copy = new Board();
+        copy.setEncodedBoard(game.encodedBoard());
+        assertEquals(game, copy);
+        assertEquals(game.turn(), copy.turn());
+        assertEquals(game.encodedBoard(), copy.encodedBoard());
+        assertEquals(game.legalMoves(BLACK).size(),
+                     copy.legalMoves(BLACK).size());
+    }
+
+    @Test
+    public void testSelfPlay() {
+        Player ai = new AI();
+        SelfPlay games = new SelfPlay(ai, ai);
+        games.setSeed(42);
+        games.setNodeBudget(300);
+        games.setRandomPlies(2);
+        games.setMoveLimit(6);
+        List<SelfPlay.Result> first = games.play(3, 2);
+        List<SelfPlay.Result> second = games.play(3, 1);
+        assertEquals(3, first.size());
+        for (int k = 0; k < first.size(); k += 1) {
+            assertEquals(k, first.get(k)._game);
+            assertEquals(first.get(k)._winner, second.get(k)._winner);
+            assertEquals(first.get(k)._plies, second.get(k)._plies);
+            assertTrue(first.get(k)._plies <= 13);
+        }
+    }
+
+    @Test
+    public void testGameRecord() throws IOException {
+        Board opening = new Board();
+        opening.makeMove(mv("d1-3"));
+        Player ai = new AI();
+        SelfPlay games = new SelfPlay(ai, ai);
+        games.setSeed(7);
+        games.setNodeBudget(300);
+        games.setRandomPlies(3);
+        games.setMoveLimit(8);
+        games.setOpenings(Arrays.asList(opening.encodedBoard()));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GameRecordWriter writer = new GameRecordWriter(bytes);
+        games.setRecorder(writer);
+        List<SelfPlay.Result> results = games.play(2, 1);
+        games.setOpenings(new ArrayList<>());
+        games.play(1, 1);
+        writer.close();
+        assertEquals(3, writer.count());
+
+        Path file = Files.createTempFile("tablut", ".tbg");
+        Files.write(file, bytes.toByteArray());
+        GameRecordReader reader = new GameRecordReader(file);
+        FastBoard board = new FastBoard();
+        for (int g = 0; g < 3; g += 1) {
+            assertTrue(reader.next());
+            assertEquals(8, reader.limit());
+            GameRecord game = reader.record();
+            assertEquals(g < 2 ? opening.encodedBoard() : null, game.start());
+            Board end = game.replay();
+            assertEquals(reader.winner(), end.winner());
+            if (g < 2) {
+                assertEquals(results.get(g)._winner, reader.winner());
+                assertEquals(results.get(g)._plies, reader.length());
+            }
+            reader.startPosition(board);
+            for (int k = 0; k < reader.length(); k += 1) {
+                board.makeMove(reader.move(k));
+            }
+            for (Square s : SQUARE_LIST) {
+                assertEquals(end.get(s).ordinal(), board.get(s.index()));
+            }
+            assertEquals(reader.winner().ordinal(), board.winner());
+        }
+        assertFalse(reader.next());
+        reader.close();
+        Files.delete(file);
+
+        reader = new GameRecordReader(
+            new ByteArrayInputStream(bytes.toByteArray()));
+        while (reader.next()) {
+            assertTrue(reader.record().replay().winner() != null);
+        }
+        assertEquals(3, reader.count());
+    }
+
+    @Test
+    public void testBatchAnalysis() throws IOException {
+        Board board = new Board();
+        StringBuilder input = new StringBuilder();
+        for (int k = 0; k < 6; k += 1) {
+            input.append(board.encodedBoard()).append("\n");
+            List<Move> moves = board.legalMoves(board.turn());
+            board.makeMove(moves.get(k % moves.size()));
+        }
+        input.append("# comment\n\nBXYZ\n");
+        String[] outputs = new String[2];
+        for (int threads = 1; threads <= 2; threads += 1) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            BatchAnalysis analysis = new BatchAnalysis(3, 0, new Evaluation());
+            long count = analysis.run(
+                new BufferedReader(new StringReader(input.toString())),
+                new PrintStream(bytes, true), threads);
+            assertEquals(7, count);
+            outputs[threads - 1] = bytes.toString();
+        }
+        assertEquals(outputs[0], outputs[1]);
+        String[] lines = outputs[0].split("\n");
+        assertEquals(7, lines.length);
+        for (int k = 0; k < 6; k += 1) {
+            String[] fields = lines[k].split(" ");
+            assertNotNull(mv(fields[0]));
+            assertEquals("3", fields[2]);
+        }
+        assertTrue(lines[6].startsWith("error"));
+    }
+
+    @Test
+    public void testGameValidator() throws IOException {
+        SplittableRandom random = new SplittableRandom(3);
+        Path dir = Files.createTempDirectory("tablut");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GameRecordWriter writer = new GameRecordWriter(bytes);
+        StringBuilder script = new StringBuilder("manual white\n");
+        for (int g = 0; g < 4; g += 1) {
+            Board board = new Board();
+            board.setMoveLimit(10);
+            List<Move> moves = new ArrayList<>();
+            while (board.winner() == null) {
+                List<Move> legal = board.legalMoves(board.turn());
+                Move move = legal.get(random.nextInt(legal.size()));
+                board.makeMove(move);
+                moves.add(move);
+                script.append(move).append("\n");
+            }
+            Piece winner = g == 3 ? board.winner().opponent()
+                : board.winner();
+            writer.write(new GameRecord(null, 10, g, winner, moves));
+            script.append("# ").append(winner.toName()).append(" wins.\n")
+                .append("new\nlimit 10\n");
+        }
+        writer.close();
+        script.append("e5-6\n");
+        Files.write(dir.resolve("games.tbg"), bytes.toByteArray());
+        Files.write(dir.resolve("games.log"),
+                    ("limit 10\n" + script).getBytes());
+        ByteArrayOutputStream report = new ByteArrayOutputStream();
+        GameValidator validator =
+            new GameValidator(new PrintStream(report, true));
+        assertEquals(3, validator.validate(Arrays.asList(dir), 2));
+        String[] problems = report.toString().split("\n");
+        assertEquals(3, problems.length);
+        assertTrue(report.toString().contains("games.tbg:game 4:"));
+        assertTrue(report.toString().contains("illegal move e5-6"));
+        assertTrue(validator.summary().startsWith("2 files, 9 games"));
+        Files.delete(dir.resolve("games.tbg"));
+        Files.delete(dir.resolve("games.log"));
+        Files.delete(dir);
+    }
+
+    @Test
+    public void testPositionDB() throws IOException {
+        SplittableRandom random = new SplittableRandom(5);
+        Path records = Files.createTempFile("tablut", ".tbg");
+        Path book = Files.createTempFile("tablut", ".tbd");
+        GameRecordWriter writer =
+            new GameRecordWriter(Files.newOutputStream(records));
+        int blackWins = 0;
+        for (int g = 0; g < 6; g += 1) {
+            Board board = new Board();
+            board.setMoveLimit(10);
+            List<Move> moves = new ArrayList<>();
+            while (board.winner() == null) {
+                List<Move> legal = board.legalMoves(board.turn());
+                Move move = moves.isEmpty() && g < 5 ? mv("d1-3")
+                    : legal.get(random.nextInt(legal.size()));
+                board.makeMove(move);
+                moves.add(move);
+            }
+            if (g < 5 && board.winner() == BLACK) {
+                blackWins += 1;
+            }
+            writer.write(new GameRecord(null, 10, g, board.winner(), moves));
+        }
+        writer.close();
+        assertTrue(PositionDB.build(Arrays.asList(records), 3, book) >= 3);
+        PositionDB db = new PositionDB(book);
+        Board board = new Board();
+        List<PositionDB.Entry> entries = db.lookup(board);
+        assertEquals(mv("d1-3"), entries.get(0)._move);
+        assertEquals(5, entries.get(0).games());
+        assertEquals(blackWins, entries.get(0)._wins);
+        board.makeMove(mv("d1-3"));
+        assertEquals(5, db.lookup(board).stream()
+                     .mapToInt(PositionDB.Entry::games).sum());
+        board.makeMove(db.lookup(board).get(0)._move);
+        board.makeMove(db.lookup(board).get(0)._move);
+        assertTrue(db.lookup(board).isEmpty());
+
+        Controller control =
+            new Controller(new NullView(), null, new NullReporter(),
+                           new AI(), new AI(), false);
+        control.setBook(db);
+        Player black = new AI().create(BLACK, control);
+        assertEquals("d1-3", black.myMove());
+        Files.delete(records);
+        Files.delete(book);
+    }
+
+    @Test
+    public void testTrainingData() throws IOException {
+        assertEquals(TrainingData.SCORE_WIN - 3,
+                     TrainingData.storedScore(Analyzer.WIN - 3));
+        assertEquals(-TrainingData.SCORE_WIN + 2,
+                     TrainingData.storedScore(2 - Analyzer.WIN));
+        assertEquals(-5, TrainingData.storedScore(-5));
+
+        SplittableRandom random = new SplittableRandom(11);
+        Path dir = Files.createTempDirectory("tablut");
+        TrainingData data = new TrainingData(dir, 2, 5, 1);
+        List<String> positions = new ArrayList<>();
+        for (int g = 0; g < 3; g += 1) {
+            Board board = new Board();
+            board.setMoveLimit(15);
+            List<Move> moves = new ArrayList<>();
+            while (board.winner() == null) {
+                positions.add(board.encodedBoard());
+                List<Move> legal = board.legalMoves(board.turn());
+                Move move = legal.get(random.nextInt(legal.size()));
+                board.makeMove(move);
+                moves.add(move);
+            }
+            data.addGame(new GameRecord(null, 15, g, board.winner(), moves));
+        }
+        data.close();
+        assertEquals(15, data.count());
+        long bytes = 0;
+        for (int k = 0; k < 2; k += 1) {
+            byte[] shard =
+                Files.readAllBytes(dir.resolve(TrainingData.shardName(k)));
+            bytes += shard.length - TrainingData.HEADER_SIZE;
+            for (int at = TrainingData.HEADER_SIZE; at < shard.length;
+                 at += TrainingData.SAMPLE_SIZE) {
+                int flags = shard[at + GameRecord.POSITION_SIZE];
+                assertTrue(positions.contains(
+                    GameRecord.unpackPosition(shard, at, flags)));
+                assertNotNull(GameRecord.winner(flags));
+            }
+            Files.delete(dir.resolve(TrainingData.shardName(k)));
+        }
+        assertEquals(15 * TrainingData.SAMPLE_SIZE, bytes);
+        Files.delete(dir);
+    }
+
+    @Test
+    public void testEvaluationTuning() throws IOException {
+        Evaluation eval = new Evaluation();
+        int[] cells = new int[NUM_SQUARES];
+        Board board = new Board();
+        for (Square s : SQUARE_LIST) {
+            cells[s.index()] = board.get(s).ordinal();
+        }
+        double[] features = new double[Evaluation.COUNT];
+        Evaluation.features(cells, FastBoard.BLACK, features);
+        assertEquals(Arrays.toString(new double[] { -8, 4, 0, 4, 0, -1 }),
+                     Arrays.toString(features));
+        assertEquals((int) Math.round(eval.score(features)),
+                     eval.score(board));
+
+        Path dir = Files.createTempDirectory("tablut");
+        Path weights = dir.resolve("weights.txt");
+        try (PrintStream out = new PrintStream(weights.toFile())) {
+            new Evaluation(new double[] { 1, 2, 3, 4, 5, 6 }).write(out);
+        }
+        assertEquals(5, Evaluation.read(weights).weight(4), 1e-9);
+
+        SplittableRandom random = new SplittableRandom(13);
+        TrainingData data = new TrainingData(dir, 2, 6, 1);
+        for (int g = 0; g < 10; g += 1) {
+            board = new Board();
+            board.setMoveLimit(20);
+            List<Move> moves = new ArrayList<>();
+            while (board.winner() == null) {
+                List<Move> legal = board.legalMoves(board.turn());
+                Move move = legal.get(random.nextInt(legal.size()));
+                board.makeMove(move);
+                moves.add(move);
+            }
+            data.addGame(new GameRecord(null, 20, g, board.winner(), moves));
+        }
+        data.close();
+        Tuner tuner = new Tuner(Arrays.asList(dir));
+        assertEquals(data.count(), tuner.size());
+        Evaluation tuned1 = tuner.tune(eval, 20, 1, 20, null);
+        Evaluation tuned2 = tuner.tune(eval, 20, 2, 20, null);
+        assertTrue(tuner.error(tuned1, 1) < tuner.error(eval, 1));
+        for (int k = 0; k < Evaluation.COUNT; k += 1) {
+            assertEquals(tuned1.weight(k), tuned2.weight(k), 0);
+        }
+        for (int k = 0; k < 2; k += 1) {
+            Files.delete(dir.resolve(TrainingData.shardName(k)));
+        }
+        Files.delete(weights);
+        Files.delete(dir);
+    }
+
+    @Test
+    public void testMappedTable() throws IOException {
+        Path file = Files.createTempFile("tablut", ".tbh");
+        Board board = new Board();
+        long key = board.canonicalKey();
+        MappedTranspositionTable table =
+            new MappedTranspositionTable(file, 10);
+        assertFalse(table.reused());
+        assertEquals(0, table.probe(key));
+        table.store(key, 3, TranspositionTable.EXACT, 7, 42);
+        table.close();
+
+        table = new MappedTranspositionTable(file, 10);
+        assertTrue(table.reused());
+        long entry = table.probe(key);
+        assertEquals(3, TranspositionTable.depth(entry));
+        assertEquals(7, TranspositionTable.score(entry));
+        assertEquals(42, TranspositionTable.move(entry));
+        table.clear();
+        assertEquals(0, table.probe(key));
+        Analyzer analyzer =
+            new Analyzer(board, new Evaluation(), 1, new NullReporter(), table);
+        analyzer.analyze(2);
+        FastBoard child = new FastBoard(board);
+        child.makeMove(analyzer.move(0).index());
+        assertTrue(table.probe(child.zobristKey()) != 0);
+        table.close();
+
+        table = new MappedTranspositionTable(file, 11);
+        assertFalse(table.reused());
+        assertEquals(0, table.probe(key));
+        table.close();
+        Files.delete(file);
+    }
+
+    /** Test that an entry of a mapped table whose key and data were not
+     *  written together, as when a process dies between the two, is not
+     *  returned by probe after the file is reopened. */
+    @Test
+    public void testMappedTableTornEntry() throws IOException {
+        Path file = Files.createTempFile("tablut", ".tbh");
+        long key = new Board().canonicalKey();
+        MappedTranspositionTable table =
+            new MappedTranspositionTable(file, 10);
+        table.store(key, 3, TranspositionTable.EXACT, 7, 42);
+        assertTrue(table.probe(key) != 0);
+        table.close();
+
+        byte[] bytes = Files.readAllBytes(file);
+        int data = MappedTranspositionTable.HEADER_SIZE
+            + MappedTranspositionTable.ENTRY_SIZE * (int) (key & 1023) + 8;
+        bytes[data] ^= 1;
+        Files.write(file, bytes);
+        table = new MappedTranspositionTable(file, 10);
+        assertTrue(table.reused());
+        assertEquals(0, table.probe(key));
+        table.close();
+        Files.delete(file);
+    }
+
+    @Test
+    public void testSolver() {
+        int[] cells = new int[NUM_SQUARES];
+        cells[sq("c3").index()] = FastBoard.KING;
+        cells[sq("i9").index()] = FastBoard.BLACK;
+        cells[sq("h9").index()] = FastBoard.WHITE;
+        FastBoard board = new FastBoard();
+        board.setPosition(cells, FastBoard.BLACK, 100);
+        Solver solver = new Solver(12);
+        assertEquals(Solver.PROVEN,
+                     solver.solve(board, FastBoard.WHITE, 10000));
+        assertEquals(-1, solver.move());
+        assertEquals(Solver.DISPROVEN,
+                     solver.solve(board, FastBoard.BLACK, 10000));
 
+        board.setPosition(cells, FastBoard.WHITE, 100);
+        assertEquals(Solver.PROVEN,
+                     solver.solve(board, FastBoard.WHITE, 10000));
+        assertTrue(solver.nodes() > 0);
+        Move move = Move.mv(solver.move());
+        assertEquals(sq("c3"), move.from());
+        assertTrue(move.to().isEdge());
+
+        assertEquals(Solver.UNKNOWN,
+                     solver.solve(new Board(), FastBoard.WHITE, 100));
+        java.util.concurrent.atomic.AtomicBoolean stop =
+            new java.util.concurrent.atomic.AtomicBoolean(true);
+        assertEquals(Solver.UNKNOWN,
+                     solver.solve(new FastBoard(new Board()),
+                                  FastBoard.WHITE, 1_000_000, stop));
+        assertEquals(1, solver.nodes());
+    }
+
+    @Test
+    public void testSearchRepetition() {
+        String[] cycle = { "d1-2", "c5-6", "d2-1", "c6-5" };
+        Board game = new Board();
+        for (String move : cycle) {
+            game.makeMove(mv(move));
+        }
+        assertTrue(game.repeatedPosition());
+        assertEquals(game.turn(), game.winner());
+
+        Board board = new Board();
+        String start = board.encodedBoard();
+        int history = board.getPositionHistory().size();
+        board.startSearch();
+        for (String move : cycle) {
+            assertNull(board.winner());
+            board.searchMove(mv(move));
+        }
+        assertTrue(board.repeatedPosition());
+        assertEquals(game.winner(), board.winner());
+        assertEquals(history, board.getPositionHistory().size());
+        for (int k = 0; k < cycle.length; k += 1) {
+            board.searchUndo();
+        }
+        assertEquals(start, board.encodedBoard());
+        assertNull(board.winner());
+        assertFalse(board.repeatedPosition());
+
+        board.makeMove(mv("d1-2"));
+        board.makeMove(mv("c5-6"));
+        board.startSearch();
+        board.searchMove(mv("d2-1"));
+        board.searchMove(mv("c6-5"));
+        assertTrue(board.repeatedPosition());
+        board.searchUndo();
+        board.searchUndo();
+        assertEquals(3, board.getPositionHistory().size());
+    }
+
+    @Test
+    public void testSharedHistory() {
+        Board game = new Board();
+        game.makeMove(mv("d1-2"));
+        game.makeMove(mv("c5-6"));
+        Board clone = new Board(game, 1);
+        clone.makeMove(mv("d2-1"));
+        game.makeMove(mv("d2-3"));
+        clone.makeMove(mv("c6-5"));
+        assertTrue(clone.repeatedPosition());
+        assertEquals(clone.turn(), clone.winner());
+        assertEquals(4, game.getPositionStack().size());
+        assertEquals(5, clone.getPositionStack().size());
+        assertEquals(game.getPositionStack().get(2),
+                     clone.getPositionStack().get(2));
+        clone.undo();
+        clone.undo();
+        clone.undo();
+        assertEquals(new Board(game.getPositionStack().get(1)), clone);
+        assertNull(clone.winner());
+        game.undo();
+        game.undo();
+        assertEquals(clone, game);
+    }
+
+    /**
+     * Test going to earlier and later positions of a game's history with
+     * seek, redo, and undo, and that undo stops at the start of the
+     * history of a board copied without one.
+     */
+    @Test
+    public void testSeek() {
+        SplittableRandom random = new SplittableRandom(7);
+        Board board = new Board();
+        List<String> positions = new ArrayList<>();
+        positions.add(board.encodedBoard());
+        while (board.winner() == null && board.moveCount() < 60) {
+            List<Move> legal = board.legalMoves(board.turn());
+            board.makeMove(legal.get(random.nextInt(legal.size())));
+            positions.add(board.encodedBoard());
+        }
+        int last = board.moveCount();
+        Piece winner = board.winner();
+        Board clone = new Board(board, 1);
+        for (int n : new int[] { 17, 0, 33, 16, last, 1 }) {
+            board.seek(n);
+            assertEquals(n, board.moveCount());
+            assertEquals(positions.get(n), board.encodedBoard());
+        }
+        assertEquals(last, board.lastMoveCount());
+        for (int n = 2; n <= last; n += 1) {
+            assertTrue(board.redo());
+            assertEquals(positions.get(n), board.encodedBoard());
+        }
+        assertFalse(board.redo());
+        assertEquals(winner, board.winner());
+        board.seek(5);
+        board.undo();
+        assertEquals(positions.get(4), board.encodedBoard());
+        for (Move move : board.legalMoves(board.turn())) {
+            board.makeMove(move);
+            if (!board.encodedBoard().equals(positions.get(5))) {
+                break;
+            }
+            board.undo();
+        }
+        assertEquals(5, board.lastMoveCount());
+        assertEquals(positions.get(last), clone.encodedBoard());
+        try {
+            board.seek(6);
+            fail("seek past end of game");
+        } catch (IllegalArgumentException excp) {
+            /* Expected. */
+        }
+        Board copy = new Board(board);
+        String start = copy.encodedBoard();
+        copy.makeMove(copy.legalMoves(copy.turn()).get(0));
+        copy.undo();
+        assertFalse(start.equals(copy.encodedBoard()));
+    }
+
+    @Test
+    public void testLongMultiset() {
+        LongMultiset set = new LongMultiset();
+        SplittableRandom random = new SplittableRandom(11);
+        java.util.HashMap<Long, Integer> counts = new java.util.HashMap<>();
+        for (int k = 0; k < 20000; k += 1) {
+            long key = random.nextInt(500) * 0x100000000L;
+            if (random.nextInt(3) == 0) {
+                set.remove(key);
+                counts.computeIfPresent(key, (x, n) -> n == 1 ? null : n - 1);
+            } else {
+                set.add(key);
+                counts.merge(key, 1, Integer::sum);
+            }
+        }
+        assertEquals(counts.size(), set.size());
+        for (long key = 0; key < 500; key += 1) {
+            long k = key * 0x100000000L;
+            assertEquals((int) counts.getOrDefault(k, 0), set.count(k));
+        }
+        set.add(0);
+        assertTrue(set.contains(0));
+        set.clear();
+        assertEquals(0, set.size());
+        assertFalse(set.contains(0));
+    }
+
+    @Test
+    public void testGameClock() {
+        long[] now = { 0 };
+        GameClock clock = new GameClock(5000, 1000, () -> now[0]);
+        clock.start(WHITE);
+        now[0] += 1_500_000_000L;
+        assertEquals(3500, clock.remaining(WHITE));
+        clock.stop();
+        clock.addIncrement(WHITE);
+        clock.start(BLACK);
+        now[0] += 6_000_000_000L;
+        assertEquals(4500, clock.remaining(WHITE));
+        assertEquals(BLACK, clock.running());
+        assertTrue(clock.flagged(BLACK));
+        assertFalse(clock.flagged(WHITE));
+        assertEquals("White 0:04.5, Black 0:00.0", clock.toString());
+        clock.reset();
+        assertEquals(5000, clock.remaining(BLACK));
+        assertNull(clock.running());
+
+        TimeManager manager = new TimeManager(60000, 1000, 0,
+                                              Integer.MAX_VALUE);
+        long base = manager.softLimit();
+        assertTrue(base > 60000 / TimeManager.EXPECTED_MOVES);
+        assertTrue(manager.hardLimit() > base);
+        assertTrue(manager.hardLimit() < 60000 / 4 + 1000);
+        manager.iterationDone(mv("a4-c"));
+        manager.iterationDone(mv("a5-c"));
+        assertTrue(manager.softLimit() > base);
+        for (int k = 0; k < 3; k += 1) {
+            manager.iterationDone(mv("a5-c"));
+        }
+        assertTrue(manager.softLimit() < base);
+        manager = new TimeManager(100, 0, 30, 31);
+        assertTrue(manager.hardLimit() <= 100 - TimeManager.SAFETY_MARGIN);
+    }
+
+    /**
+     * Test that a command arriving during a background search cancels
+     * it: the search winds down without making or reporting a move, and
+     * the command is executed.
+     */
+    @Test
+    public void testBackgroundSearch() {
+        List<String> progress =
+            new java.util.concurrent.CopyOnWriteArrayList<>();
+        List<Move> reported =
+            new java.util.concurrent.CopyOnWriteArrayList<>();
+        Reporter reporter = new NullReporter() {
+            @Override
+            public void reportStats(String fmt, Object... args) {
+                progress.add(String.format(fmt, args));
+            }
+
+            @Override
+            public void reportMove(Move move) {
+                reported.add(move);
+            }
+        };
+        Controller control =
+            new Controller(new NullView(), null, reporter,
+                           new AI(), new AI(), false);
+        control.searchInBackground(millis -> {
+            if (progress.isEmpty()) {
+                try {
+                    Thread.sleep(millis);
+                } catch (InterruptedException excp) {
+                    return null;
+                }
+                return null;
+            }
+            return "quit";
+        });
+        control.play();
+        assertEquals(0, control.board().moveCount());
+        assertTrue(reported.isEmpty());
+        assertTrue(control.searchCancelled());
+        assertTrue(progress.get(0).startsWith("Black thinking: depth 1"));
+    }
+
+    /**
+     * Test that a player whose time runs out while it is thinking loses
+     * on time without ever moving.
+     */
+    @Test
+    public void testFlagFallWhileThinking() {
+        class Stalling extends Player {
+            Stalling(Piece piece, Controller controller) {
+                super(piece, controller);
+            }
+
+            @Override
+            boolean isManual() {
+                return false;
+            }
+
+            @Override
+            Player create(Piece piece, Controller controller) {
+                return new Stalling(piece, controller);
+            }
+
+            @Override
+            String myMove() {
+                if (myPiece() == EMPTY) {
+                    return "quit";
+                }
+                while (!_controller.searchCancelled()) {
+                    Thread.yield();
+                }
+                return null;
+            }
+        }
+        List<String> notes = new java.util.concurrent.CopyOnWriteArrayList<>();
+        Reporter reporter = new NullReporter() {
+            @Override
+            public void reportNote(String fmt, Object... args) {
+                notes.add(String.format(fmt, args));
+            }
+        };
+        Player stalling = new Stalling(null, null);
+        Controller control =
+            new Controller(new NullView(), null, reporter,
+                           stalling, stalling, false);
+        control.setClock(new GameClock(100, 0));
+        control.searchInBackground(millis -> {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException excp) {
+                return "quit";
+            }
+            return null;
+        });
+        control.play();
+        assertEquals(WHITE, control.winner());
+        assertEquals(0, control.board().moveCount());
+        assertEquals(Arrays.asList("White wins on time."), notes);
+    }
+
+    /**
+     * Test that an "undo" cancelling a search takes back one move and is
+     * logged as "undo 1", and that GameValidator replays such a log as
+     * the game was played.
+     */
+    @Test
+    public void testCancelledUndoLog() throws IOException {
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        Controller control =
+            new Controller(new NullView(), new PrintStream(log, true),
+                           new NullReporter(), new AI(), new AI(), false);
+        java.util.Queue<String> commands = new java.util.ArrayDeque<>(
+            Arrays.asList("d1-3", "undo", "d1-2", "quit"));
+        control.searchInBackground(millis -> commands.poll());
+        control.play();
+        assertEquals(1, control.board().moveCount());
+        assertEquals(BLACK, control.board().get(sq("d2")));
+        assertEquals("d1-3\nundo 1\nd1-2\nquit\n",
+                     log.toString().replace("\r", ""));
+
+        Path dir = Files.createTempDirectory("tablut");
+        Files.write(dir.resolve("game.log"), log.toByteArray());
+        ByteArrayOutputStream report = new ByteArrayOutputStream();
+        GameValidator validator =
+            new GameValidator(new PrintStream(report, true));
+        assertEquals(0, validator.validate(Arrays.asList(dir), 1));
+        assertEquals("", report.toString());
+        Files.delete(dir.resolve("game.log"));
+        Files.delete(dir);
+    }
+
+    /**
+     * Test that AI's depth limit grows as the branching factor and the
+     * number of pieces fall, and that its search stops within the time
+     * it is allotted.
+     */
+    @Test
+    public void testSearchDepthAndTime() {
+        Board board = new Board();
+        assertEquals(80, board.legalMoves(BLACK).size());
+        assertEquals(7, AI.maxDepth(board));
+        for (String s : new String[] {
+                "a4", "a5", "a6", "b5", "d1", "e1", "f1", "e2" }) {
+            board.put(EMPTY, sq(s));
+        }
+        assertEquals(40, board.legalMoves(BLACK).size());
+        assertEquals(8 + 2, AI.maxDepth(board));
+        board.setPosition(createEmptyBd());
+        board.put(KING, sq("e5"));
+        board.put(BLACK, sq("a1"));
+        assertEquals(12, AI.maxDepth(board));
+
+        Controller control =
+            new Controller(new NullView(), null, new NullReporter(),
+                           new AI(), new AI(), false);
+        control.setClock(new GameClock(2000, 0));
+        long allotted =
+            new TimeManager(2000, 0, 0, Integer.MAX_VALUE).hardLimit();
+        Player black = new AI().create(BLACK, control);
+        assertNotNull(black.myMove());
+        SearchStats stats = black.searchStats();
+        assertTrue(stats.iterations() >= 1);
+        assertTrue(stats.millis() < allotted + 1000);
+    }
+
+    /**
+     * Test that AI searches limited by a node budget are reproducible:
+     * the same position and budget give the same move after the same
+     * number of nodes, however long each search takes.
+     */
+    @Test
+    public void testNodeBudgetReproducible() {
+        String[] moves = new String[2];
+        long[] nodes = new long[2];
+        for (int k = 0; k < 2; k += 1) {
+            Controller control =
+                new Controller(new NullView(), null, new NullReporter(),
+                               new AI(), new AI(), false);
+            control.setNodeBudget(20000);
+            control.board().makeMove(mv("d1-3"));
+            control.board().makeMove(mv("e3-f"));
+            Player black = new AI().create(BLACK, control);
+            moves[k] = black.myMove();
+            SearchStats stats = black.searchStats();
+            nodes[k] = stats.nodes() + stats.qnodes();
+        }
+        assertNotNull(moves[0]);
+        assertEquals(moves[0], moves[1]);
+        assertEquals(nodes[0], nodes[1]);
+        assertTrue(nodes[0] >= 20000);
+    }
+
+    /**
+     * Test that an MCTSPlayer with no time left for any playouts still
+     * returns a legal move.
+     */
+    @Test
+    public void testMCTSWithoutTime() {
+        Controller control =
+            new Controller(new NullView(), null, new NullReporter(),
+                           new MCTSPlayer(1), new MCTSPlayer(1), false);
+        control.setClock(new GameClock(1, 0));
+        Player black = new MCTSPlayer(1).create(BLACK, control);
+        Move move = mv(black.myMove());
+        assertTrue(control.board().isLegal(move));
+    }
+
+    /** Test that a match is decided only on whole pairs of games, even
+     *  when a single game would settle the test. */
+    @Test
+    public void testMatchPairs() {
+        Player ai = new AI();
+        Match match = new Match(ai, ai);
+        match.setBounds(0, 400, 0.9, 0.05);
+        assertTrue(match.decide(1, 0) != Match.UNDECIDED);
+        assertTrue(match.decide(0, 1) != Match.UNDECIDED);
+        match.setSeed(5);
+        for (SelfPlay games : match.games()) {
+            games.setNodeBudget(200);
+            games.setMoveLimit(10);
+        }
+        PrintStream out = new PrintStream(new ByteArrayOutputStream());
+        assertTrue(match.play(2, out) != Match.UNDECIDED);
+        int games = Integer.parseInt(match.status().split("[ :]")[1]);
+        assertTrue(games > 0);
+        assertEquals(0, games % 2);
+    }
+
+    @Test
+    public void testMatchStatistics() {
+        assertEquals(0.5, Match.winProbability(0), 1e-9);
+        assertEquals(0.0, Match.elo(0.5), 1e-9);
+        assertEquals(100.0, Match.elo(Match.winProbability(100)), 1e-6);
+        Player ai = new AI();
+        Match match = new Match(ai, ai);
+        match.setBounds(0, 50, 0.05, 0.05);
+        assertEquals(0.0, match.logLikelihoodRatio(0, 0), 1e-9);
+        assertEquals(Match.UNDECIDED, match.decide(5, 5));
+        assertEquals(Match.ACCEPT_H1, match.decide(60, 20));
+        assertEquals(Match.ACCEPT_H0, match.decide(20, 60));
+        assertTrue(match.logLikelihoodRatio(10, 0)
+                   > match.logLikelihoodRatio(9, 1));
+    }
+}
@@ -0,0 +1,53 @@
+package tablut;
+
+import java.util.SplittableRandom;
+
+import static tablut.Square.NUM_SQUARES;
+
+/**
+ * Random keys for Zobrist hashing of positions.  The hash of a placement
+ * of pieces is the exclusive or of key(p, s) over the pieces p on
+ * squares s; the hash of a position also includes BLACK_TO_MOVE when it
+ * is BLACK's turn.  The keys are fixed, so hashes are the same from run
+ * to run and may be stored in files.
+ *
+ * @author Kevin Moy
+ */
+final class Zobrist {
+
+    /**
+     * Key included in the hash of positions in which BLACK is to move.
+     */
+    static final long BLACK_TO_MOVE;
+
+    /**
+     * Return the key for cell contents C (a Piece ordinal) on the square
+     * with index S.  The key for EMPTY is 0.
+     */
+    static long key(int c, int s) {
+        return KEYS[c][s];
+    }
+
+    /**
+     * Return the key for PIECE (which may be null, denoting EMPTY) on the
+     * square with index S.
+     */
+    static long key(Piece piece, int s) {
+        return piece == null ? 0 : KEYS[piece.ordinal()][s];
+    }
+
+    /**
+     * KEYS[c][s] is the key for contents c on square s.
+     */
+    private static final long[][] KEYS = new long[4][NUM_SQUARES];
+
+    static {
+        SplittableRandom keys = new SplittableRandom(0x7AB1E5EEDL);
+        for (int c = 1; c < KEYS.length; c += 1) {
+            for (int s = 0; s < NUM_SQUARES; s += 1) {
+                KEYS[c][s] = keys.nextLong();
+            }
+        }
+        BLACK_TO_MOVE = keys.nextLong();
+    }
+}